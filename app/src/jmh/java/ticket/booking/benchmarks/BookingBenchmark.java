@@ -0,0 +1,140 @@
+package ticket.booking.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.services.BookingContext;
+import ticket.booking.services.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Booking and cancellation against a synthetic catalog. Every booking persists the catalog and the user
+ * journal, so the larger train counts mostly measure persistence cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingBenchmark {
+
+    private static final int USER_COUNT = 1000;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int trainCount;
+
+    private Path directory;
+    private BookingContext context;
+    private List<Train> trains;
+    private final AtomicInteger nextUser = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = SyntheticData.createDirectory();
+        Path trainFile = SyntheticData.writeTrains(directory, trainCount, 42L);
+        Path userFile = SyntheticData.writeUsers(directory, USER_COUNT);
+        context = new BookingContext(trainFile.toString(), userFile.toString());
+        trains = context.getTrainService().getTrains();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetSeats() {
+        for (Train train : trains) {
+            train.setSeats(SyntheticData.emptySeats());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        SyntheticData.deleteDirectory(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+
+        UserBookingService service;
+
+        @Setup(Level.Trial)
+        public void login(BookingBenchmark benchmark) throws IOException {
+            int index = benchmark.nextUser.getAndIncrement() % USER_COUNT;
+            service = new UserBookingService(new User(SyntheticData.userName(index), SyntheticData.PASSWORD,
+                    null, null, null), benchmark.context);
+            service.loginUser();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BookedTicket {
+
+        String ticketId;
+
+        @Setup(Level.Invocation)
+        public void book(BookingBenchmark benchmark, Session session) {
+            Train train = benchmark.randomTrain();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<String> stations = train.getStations();
+            session.service.bookTrainSeat(train, random.nextInt(SyntheticData.ROWS),
+                    random.nextInt(SyntheticData.SEATS_PER_ROW), stations.get(0), stations.get(stations.size() - 1));
+            List<Ticket> tickets = session.service.getUser().getTicketsBooked();
+            ticketId = tickets == null || tickets.isEmpty() ? null : tickets.get(tickets.size() - 1).getTicketId();
+        }
+    }
+
+    @Benchmark
+    public Boolean bookSingleThreaded(Session session) {
+        return book(session);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Boolean bookMultiThreaded(Session session) {
+        return book(session);
+    }
+
+    @Benchmark
+    public Boolean cancelSingleThreaded(Session session, BookedTicket ticket) {
+        return session.service.cancelBooking(ticket.ticketId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Boolean cancelMultiThreaded(Session session, BookedTicket ticket) {
+        return session.service.cancelBooking(ticket.ticketId);
+    }
+
+    private Boolean book(Session session) {
+        Train train = randomTrain();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> stations = train.getStations();
+        int from = random.nextInt(stations.size() - 1);
+        int to = from + 1 + random.nextInt(stations.size() - from - 1);
+        return session.service.bookTrainSeat(train, random.nextInt(SyntheticData.ROWS),
+                random.nextInt(SyntheticData.SEATS_PER_ROW), stations.get(from), stations.get(to));
+    }
+
+    private Train randomTrain() {
+        return trains.get(ThreadLocalRandom.current().nextInt(trains.size()));
+    }
+}
@@ -0,0 +1,71 @@
+package ticket.booking.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ticket.booking.entities.User;
+import ticket.booking.services.BookingContext;
+import ticket.booking.services.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int userCount;
+
+    private Path directory;
+    private BookingContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = SyntheticData.createDirectory();
+        Path trainFile = SyntheticData.writeTrains(directory, 10, 42L);
+        Path userFile = SyntheticData.writeUsers(directory, userCount);
+        context = new BookingContext(trainFile.toString(), userFile.toString());
+        context.getUserRepository();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        SyntheticData.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public Boolean loginSingleThreaded() throws IOException {
+        return login();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Boolean loginMultiThreaded() throws IOException {
+        return login();
+    }
+
+    private Boolean login() throws IOException {
+        int index = ThreadLocalRandom.current().nextInt(userCount);
+        User user = new User(SyntheticData.userName(index), SyntheticData.PASSWORD, null, null, null);
+        return new UserBookingService(user, context).loginUser();
+    }
+}
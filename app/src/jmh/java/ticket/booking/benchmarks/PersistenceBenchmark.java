@@ -0,0 +1,81 @@
+package ticket.booking.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ticket.booking.persistence.SnapshotFormat;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.services.TrainService;
+import ticket.booking.util.JsonMappers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of the train catalog / user list and a full user snapshot write, in JSON and binary form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int recordCount;
+
+    @Param({"JSON", "BINARY"})
+    public SnapshotFormat format;
+
+    private Path directory;
+    private Path trainFile;
+    private Path userFile;
+    private UserRepository userRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = SyntheticData.createDirectory();
+        trainFile = SyntheticData.writeTrains(directory, recordCount, 42L);
+        userFile = SyntheticData.writeUsers(directory, recordCount);
+        userRepository = new UserRepository(userFile.toString(), JsonMappers.USER_MAPPER, format);
+        if (format == SnapshotFormat.BINARY) {
+            new TrainService(trainFile.toString(), format).saveTrainListToFile();
+            userRepository.snapshot();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        userRepository.close();
+        SyntheticData.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public TrainService loadTrains() throws IOException {
+        return new TrainService(trainFile.toString(), format);
+    }
+
+    @Benchmark
+    public int loadUsers() throws IOException {
+        userRepository.reload();
+        return userRepository.size();
+    }
+
+    @Benchmark
+    public UserRepository saveUsers() throws IOException {
+        userRepository.snapshot();
+        return userRepository;
+    }
+}
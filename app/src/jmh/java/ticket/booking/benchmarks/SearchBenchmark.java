@@ -0,0 +1,85 @@
+package ticket.booking.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ticket.booking.entities.Train;
+import ticket.booking.services.JourneyPlanner;
+import ticket.booking.services.TrainService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int trainCount;
+
+    private static final LocalDateTime DEPARTURE = LocalDate.now().atTime(6, 0);
+
+    private Path directory;
+    private TrainService trainService;
+    private int stationCount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = SyntheticData.createDirectory();
+        Path trains = SyntheticData.writeTrains(directory, trainCount, 42L);
+        trainService = new TrainService(trains.toString());
+        stationCount = SyntheticData.stationCount(trainCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public List<Train> searchSingleThreaded() {
+        return search();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<Train> searchMultiThreaded() {
+        return search();
+    }
+
+    @Benchmark
+    public List<JourneyPlanner.Itinerary> planSingleThreaded() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(stationCount);
+        int destination = (source + 1 + random.nextInt(stationCount - 1)) % stationCount;
+        return trainService.planJourneys(SyntheticData.stationName(source), SyntheticData.stationName(destination),
+                DEPARTURE, JourneyPlanner.MAX_CHANGES);
+    }
+
+    private List<Train> search() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(stationCount - 1);
+        int destination = source + 1 + random.nextInt(stationCount - source - 1);
+        return trainService.searchTrains(SyntheticData.stationName(source), SyntheticData.stationName(destination));
+    }
+}
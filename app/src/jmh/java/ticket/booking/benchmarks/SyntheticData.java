@@ -0,0 +1,114 @@
+package ticket.booking.benchmarks;
+
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Generates trains.json / users.json files of a given size for the benchmarks.
+ */
+public final class SyntheticData {
+
+    public static final String PASSWORD = "benchmark-password";
+    public static final int ROWS = 8;
+    public static final int SEATS_PER_ROW = 8;
+    public static final int STOPS_PER_TRAIN = 8;
+
+    private SyntheticData() {}
+
+    public static int stationCount(int trainCount) {
+        return Math.max(STOPS_PER_TRAIN * 2, (int) Math.sqrt(trainCount) * 4);
+    }
+
+    public static String stationName(int index) {
+        return "Station-" + index;
+    }
+
+    public static String userName(int index) {
+        return "user-" + index;
+    }
+
+    public static String userId(int index) {
+        return "u-" + index;
+    }
+
+    public static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("ticket-booking-jmh");
+    }
+
+    public static Path writeTrains(Path directory, int count, long seed) throws IOException {
+        Random random = new Random(seed);
+        int stationCount = stationCount(count);
+        List<Train> trains = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            TreeSet<Integer> stops = new TreeSet<>();
+            while (stops.size() < STOPS_PER_TRAIN) {
+                stops.add(random.nextInt(stationCount));
+            }
+
+            List<String> stations = new ArrayList<>(STOPS_PER_TRAIN);
+            Map<String, String> stationTimes = new LinkedHashMap<>();
+            int minutes = random.nextInt(12 * 60);
+            for (int stop : stops) {
+                String name = stationName(stop);
+                stations.add(name);
+                stationTimes.put(name, String.format("%02d:%02d:00", minutes / 60, minutes % 60));
+                minutes += 30 + random.nextInt(90);
+            }
+
+            trains.add(new Train("train-" + i, String.valueOf(10000 + i), null, null, emptySeats(), stationTimes, stations));
+        }
+
+        Path file = directory.resolve("trains.json");
+        JsonMappers.TRAIN_MAPPER.writeValue(file.toFile(), trains);
+        return file;
+    }
+
+    public static Path writeUsers(Path directory, int count) throws IOException {
+        String hashedPassword = UserServiceUtil.hashPassword(PASSWORD);
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(new User(userName(i), PASSWORD, hashedPassword, new ArrayList<>(), userId(i)));
+        }
+
+        Path file = directory.resolve("users.json");
+        JsonMappers.USER_MAPPER.writeValue(file.toFile(), users);
+        return file;
+    }
+
+    public static List<List<Integer>> emptySeats() {
+        List<List<Integer>> seats = new ArrayList<>(ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            List<Integer> rowSeats = new ArrayList<>(SEATS_PER_ROW);
+            for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+                rowSeats.add(0);
+            }
+            seats.add(rowSeats);
+        }
+        return seats;
+    }
+
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+}
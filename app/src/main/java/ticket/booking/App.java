@@ -1,16 +1,38 @@
 package ticket.booking;
 
+import ticket.booking.entities.SeatPreferences;
+import ticket.booking.entities.Ticket;
 import ticket.booking.entities.Train;
 import ticket.booking.entities.User;
+import ticket.booking.http.BookingHttpServer;
+import ticket.booking.services.BookingContext;
+import ticket.booking.services.JourneyPlanner;
+import ticket.booking.services.SearchCache;
+import ticket.booking.services.SeatHoldService;
 import ticket.booking.services.UserBookingService;
+import ticket.booking.util.Logging;
+import ticket.booking.util.Metrics;
 import ticket.booking.util.UserServiceUtil;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.logging.Level;
 
 public class App {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--http")) {
+            try {
+                BookingHttpServer.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException ex) {
+                System.err.println("Could not start HTTP server: " + ex.getMessage());
+            }
+            return;
+        }
+        Logging.configureConsole(Level.INFO);
+        Metrics.registerMBean();
         try {
             System.out.println("Running Train Booking System");
             Scanner scanner = new Scanner(System.in);
@@ -21,6 +43,7 @@ public class App {
             String password;
 
             try {
+                BookingContext.getDefault().preload();
                 userBookingService = new UserBookingService(null);
             } catch (IOException ex) {
                 System.out.println("Error initializing booking service: " + ex.getMessage());
@@ -53,7 +76,7 @@ public class App {
                             username = scanner.next();
                             System.out.println("Enter password to signup:");
                             password = scanner.next();
-                            User userToSignup = new User(username, password,
+                            User userToSignup = new User(username, null,
                                     UserServiceUtil.hashPassword(password), new ArrayList<>(),
                                     UUID.randomUUID().toString());
                             assert userBookingService != null;
@@ -68,13 +91,18 @@ public class App {
                             username = scanner.next();
                             System.out.println("Enter password to Login:");
                             password = scanner.next();
-                            loggedInUser = new User(username, password,
-                                    UserServiceUtil.hashPassword(password)
-                                    , new ArrayList<>(), UUID.randomUUID().toString());
+                            loggedInUser = new User(username, password, null, new ArrayList<>(), null);
                             try {
                                 userBookingService = new UserBookingService(loggedInUser);
-                                System.out.println("Login successful. Welcome, " + loggedInUser.getName());
+                                if (userBookingService.loginUser()) {
+                                    loggedInUser = userBookingService.getUser();
+                                    System.out.println("Login successful. Welcome, " + loggedInUser.getName());
+                                } else {
+                                    loggedInUser = null;
+                                    System.out.println("Login failed. Please check your credentials.");
+                                }
                             } catch (IOException ex) {
+                                loggedInUser = null;
                                 System.out.println("Login failed. Please check your credentials.");
                             }
                             break;
@@ -93,15 +121,32 @@ public class App {
                                 String source = scanner.next();
                                 System.out.println("Enter destination station:");
                                 String dest = scanner.next();
+                                System.out.println("Enter date of travel (YYYY-MM-DD):");
+                                LocalDate date;
+                                try {
+                                    date = LocalDate.parse(scanner.next().trim());
+                                } catch (DateTimeParseException e) {
+                                    System.out.println("Invalid date.");
+                                    break;
+                                }
                                 assert userBookingService != null;
-                                List<Train> trains = userBookingService.getTrains(source, dest);
+                                List<SearchCache.Availability> trains = userBookingService.getAvailability(source, dest, date);
 
                                 if (trains.isEmpty()) {
-                                    System.out.println("No trains found between " + source + " and " + dest);
+                                    System.out.println("No trains found between " + source + " and " + dest + " on " + date);
+                                    for (JourneyPlanner.Itinerary itinerary : userBookingService.planJourneys(source, dest, date)) {
+                                        System.out.println("Connection with " + itinerary.changes() + " change(s), arriving " + itinerary.arrives() + ":");
+                                        for (JourneyPlanner.Leg leg : itinerary.legs()) {
+                                            System.out.println("    Train ID: " + leg.train().getTrainId() + " " + leg.source() + " " + leg.departs()
+                                                    + " -> " + leg.destination() + " " + leg.arrives());
+                                        }
+                                    }
                                 } else {
                                     int index = 1;
-                                    for (Train t : trains) {
-                                        System.out.println(index + ". Train ID: " + t.getTrainId());
+                                    for (SearchCache.Availability availability : trains) {
+                                        Train t = availability.train();
+                                        System.out.println(index + ". Train ID: " + t.getTrainId() + " (" + availability.freeSeats() + " seats free, by coach "
+                                                + availability.freeSeatsByCoach() + ")");
                                         for (Map.Entry<String, String> entry : t.getStationTimes().entrySet()) {
                                             System.out.println("    Station " + entry.getKey() + " Time: " + entry.getValue());
                                         }
@@ -112,19 +157,20 @@ public class App {
                                     int trainIndex = scanner.nextInt() - 1;
 
                                     if (trainIndex >= 0 && trainIndex < trains.size()) {
-                                        Train trainSelectedForBooking = trains.get(trainIndex);
+                                        Train trainSelectedForBooking = trains.get(trainIndex).train();
                                         System.out.println("Train selected: " + trainSelectedForBooking.getTrainId());
 
                                         // Prompt user for further action
                                         System.out.println("1. Book a seat");
-                                        System.out.println("2. Go back to main menu");
+                                        System.out.println("2. Book several seats together");
+                                        System.out.println("3. Go back to main menu");
                                         int choice = scanner.nextInt();
 
                                         switch (choice) {
                                             case 1:
                                                 // Book a seat logic (to be implemented)
                                                     System.out.println("Select a seat out of these seats:");
-                                                    List<List<Integer>> seats = userBookingService.fetchSeats(trainSelectedForBooking);
+                                                    List<List<Integer>> seats = userBookingService.fetchSeats(trainSelectedForBooking, date, source, dest);
 
                                                     // Print available seats
                                                     for (List<Integer> row : seats) {
@@ -141,19 +187,45 @@ public class App {
                                                     System.out.println("Enter the column:");
                                                     int col = scanner.nextInt();
 
-                                                    // Attempt to book the seat
-                                                    System.out.println("Booking your seat...");
-                                                    Boolean booked =                                                             userBookingService.bookTrainSeat(trainSelectedForBooking,
-                                                                    row-1, col-1, source, dest);
+                                                    // Hold the seat while the user confirms
+                                                    Optional<SeatHoldService.Hold> hold = userBookingService.holdSeat(
+                                                            trainSelectedForBooking, date, row-1, col-1, source, dest);
+                                                    if (hold.isEmpty()) {
+                                                        System.out.println("Can't book this seat. Join the waitlist? (y/n)");
+                                                        if (scanner.next().trim().equalsIgnoreCase("y")) {
+                                                            userBookingService.joinWaitlist(trainSelectedForBooking, date, source, dest);
+                                                        }
+                                                        break;
+                                                    }
+                                                    System.out.println("Confirm booking? (y/n)");
+                                                    if (!scanner.next().trim().equalsIgnoreCase("y")) {
+                                                        userBookingService.releaseHold(hold.get().holdId());
+                                                        System.out.println("Seat released.");
+                                                        break;
+                                                    }
 
                                                     // Display booking result
-                                                    if (booked.equals(Boolean.TRUE)) {
+                                                    System.out.println("Booking your seat...");
+                                                    if (!userBookingService.confirmHold(hold.get().holdId()).isEmpty()) {
                                                         System.out.println("Booked! Enjoy your journey.");
                                                     } else {
                                                         System.out.println("Can't book this seat.");
                                                     }
                                                 break;
                                             case 2:
+                                                System.out.println("How many seats?");
+                                                int count = scanner.nextInt();
+                                                System.out.println("Only side-by-side seats? (y/n)");
+                                                boolean adjacentOnly = scanner.next().trim().equalsIgnoreCase("y");
+                                                List<Ticket> tickets = userBookingService.bookSeats(trainSelectedForBooking,
+                                                        date, count, source, dest, new SeatPreferences(adjacentOnly, -1));
+                                                if (!tickets.isEmpty()) {
+                                                    System.out.println("Booked! Enjoy your journey.");
+                                                } else {
+                                                    System.out.println("Can't book these seats.");
+                                                }
+                                                break;
+                                            case 3:
                                                 // Go back to main menu
                                                 break;
                                             default:
@@ -171,15 +243,22 @@ public class App {
                             break;
 
                         case 5:
-                            // TODO: Implement cancel booking logic
-                            System.out.println("Cancel booking functionality is not yet implemented.");
+                            if (loggedInUser != null) {
+                                assert userBookingService != null;
+                                userBookingService.fetchBookings();
+                                System.out.println("Enter the ticket ID to cancel:");
+                                String ticketId = scanner.next();
+                                userBookingService.cancelBooking(ticketId);
+                            } else {
+                                System.out.println("Please login first.");
+                            }
                             break;
                         case 6:
                             if (loggedInUser != null) {
                                 assert userBookingService != null;
                                 userBookingService.logout();
                                 loggedInUser = null;
-                                userBookingService = null;
+                                userBookingService = new UserBookingService(null);
                             } else {
                                 System.out.println("You are not logged in.");
                             }
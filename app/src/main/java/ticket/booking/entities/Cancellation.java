@@ -0,0 +1,31 @@
+package ticket.booking.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A ticket cancelled with a client idempotency key. Users keep these for as long as the key may be
+ * retried, so that a retry after a restart is still answered as the cancellation it repeats.
+ */
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class Cancellation {
+
+    private String ticketId;
+    private String idempotencyKey;
+    /** Epoch milliseconds. */
+    private long cancelledAt;
+
+    public Cancellation() {}
+
+    public Cancellation(String ticketId, String idempotencyKey, long cancelledAt) {
+        this.ticketId = ticketId;
+        this.idempotencyKey = idempotencyKey;
+        this.cancelledAt = cancelledAt;
+    }
+}
@@ -0,0 +1,603 @@
+package ticket.booking.entities;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Seat map of a train with per-seat leg occupancy. Each seat holds a bitmask over the segments of the
+ * route (segment {@code i} runs from station {@code i} to station {@code i + 1}), so a seat booked for
+ * one leg can still be sold for any leg that does not overlap it. Checking a seat for a leg is a
+ * single mask AND, and a booking claims its whole leg range with one compare-and-set.
+ *
+ * <p>Next to the per-seat masks each row keeps an occupancy bitmap per segment and a free-seat count per
+ * segment. The free seats of a row for a leg are the complement of the OR of its segments' bitmaps, which
+ * is computed 64 seats at a time, and the counts let whole rows be skipped when searching for a group.
+ * The per-seat masks stay the source of truth: the bitmaps are brought in line after every change and
+ * a reservation found through them is still claimed with compare-and-set.
+ *
+ * <p>Each row also counts its seats with no leg reserved at all. Those are free for any leg, so when that
+ * count meets the smallest per-segment free count the row's free seats for a leg are known without
+ * reading the bitmaps; {@link #freeSeatCount(int, long)} falls back to them only for rows where sales on
+ * different stretches overlap the leg.
+ *
+ * <p>Routes with more than {@value #MAX_SEGMENTS} segments are tracked at a coarser grain: their segments
+ * are spread evenly over {@value #MAX_SEGMENTS} tracked segments, and a leg claims every tracked segment
+ * it touches. Two legs that meet inside a tracked segment then count as overlapping, so such a seat may be
+ * refused for a leg it could have served, but it is never sold twice.
+ *
+ * <p>A seat can also be held: it is reserved like a booking, so searches skip it, but its legs are
+ * additionally recorded as held and left out of {@link #toBookedSeats()} / {@link #toSeatLegs()}, so a
+ * hold that is never confirmed is not persisted as a sale.
+ */
+public class SeatInventory {
+
+    public static final int MAX_SEGMENTS = Long.SIZE;
+
+    public record Seat(int row, int seat) {}
+
+    private final int[] seatsPerRow;
+    private final int[] firstSeat;
+    private final int[] firstWord;
+    private final int segmentCount;
+    private final int routeSegments;
+    private final AtomicLongArray legs;
+    private final AtomicLongArray occupied;
+    private final AtomicIntegerArray freeBySegment;
+    private final int[] firstRowWord;
+    private final AtomicLongArray reservedSeats;
+    private final AtomicIntegerArray emptyByRow;
+    private final AtomicLongArray segmentVersions;
+    private final Map<Integer, Long> heldLegs = new ConcurrentHashMap<>();
+
+    /**
+     * @param routeSegments segments of the route, i.e. stations minus one; routes longer than
+     *                      {@value #MAX_SEGMENTS} segments are tracked coarsely
+     */
+    public SeatInventory(int[] seatsPerRow, int routeSegments) {
+        if (routeSegments < 1) {
+            throw new IllegalArgumentException("A route must have at least 1 segment");
+        }
+        this.seatsPerRow = seatsPerRow.clone();
+        this.routeSegments = routeSegments;
+        int segmentCount = Math.min(routeSegments, MAX_SEGMENTS);
+        this.segmentCount = segmentCount;
+        this.firstSeat = new int[seatsPerRow.length + 1];
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            firstSeat[row + 1] = firstSeat[row] + seatsPerRow[row];
+        }
+        this.legs = new AtomicLongArray(firstSeat[seatsPerRow.length]);
+
+        this.firstWord = new int[seatsPerRow.length + 1];
+        this.firstRowWord = new int[seatsPerRow.length + 1];
+        this.freeBySegment = new AtomicIntegerArray(seatsPerRow.length * segmentCount);
+        this.emptyByRow = new AtomicIntegerArray(seatsPerRow);
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            firstWord[row + 1] = firstWord[row] + wordsFor(seatsPerRow[row]) * segmentCount;
+            firstRowWord[row + 1] = firstRowWord[row] + wordsFor(seatsPerRow[row]);
+            for (int segment = 0; segment < segmentCount; segment++) {
+                freeBySegment.set(row * segmentCount + segment, seatsPerRow[row]);
+            }
+        }
+        this.occupied = new AtomicLongArray(firstWord[seatsPerRow.length]);
+        this.reservedSeats = new AtomicLongArray(firstRowWord[seatsPerRow.length]);
+        this.segmentVersions = new AtomicLongArray(segmentCount);
+    }
+
+    public static SeatInventory fromSeats(List<List<Integer>> seats, List<List<Long>> seatLegs, int segmentCount) {
+        int[] seatsPerRow = new int[seats == null ? 0 : seats.size()];
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            seatsPerRow[row] = seats.get(row) == null ? 0 : seats.get(row).size();
+        }
+
+        SeatInventory inventory = new SeatInventory(seatsPerRow, segmentCount);
+        long fullRun = inventory.fullRunMask();
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            for (int seat = 0; seat < seatsPerRow[row]; seat++) {
+                Long storedLegs = legAt(seatLegs, row, seat);
+                Integer value = seats.get(row).get(seat);
+                long occupied = storedLegs != null ? storedLegs & fullRun
+                        : (value != null && value != 0 ? fullRun : 0L);
+                if (occupied != 0) {
+                    inventory.tryReserve(row, seat, occupied);
+                }
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * A new inventory with the same layout and the same booked legs. Holds are not copied.
+     */
+    public SeatInventory copy() {
+        SeatInventory copy = new SeatInventory(seatsPerRow, routeSegments);
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            for (int seat = 0; seat < seatsPerRow[row]; seat++) {
+                long booked = getBookedLegs(row, seat);
+                if (booked != 0) {
+                    copy.tryReserve(row, seat, booked);
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static Long legAt(List<List<Long>> seatLegs, int row, int seat) {
+        if (seatLegs == null || row >= seatLegs.size() || seatLegs.get(row) == null
+                || seat >= seatLegs.get(row).size()) {
+            return null;
+        }
+        return seatLegs.get(row).get(seat);
+    }
+
+    public List<List<Integer>> toSeats() {
+        return toSeats(fullRunMask());
+    }
+
+    public List<List<Integer>> toSeats(long leg) {
+        List<List<Integer>> seats = new ArrayList<>(seatsPerRow.length);
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            List<Integer> rowSeats = new ArrayList<>(seatsPerRow[row]);
+            for (int seat = 0; seat < seatsPerRow[row]; seat++) {
+                rowSeats.add(isFree(row, seat, leg) ? 0 : 1);
+            }
+            seats.add(rowSeats);
+        }
+        return seats;
+    }
+
+    public List<List<Integer>> toBookedSeats() {
+        long fullRun = fullRunMask();
+        List<List<Integer>> seats = new ArrayList<>(seatsPerRow.length);
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            List<Integer> rowSeats = new ArrayList<>(seatsPerRow[row]);
+            for (int seat = 0; seat < seatsPerRow[row]; seat++) {
+                rowSeats.add((getBookedLegs(row, seat) & fullRun) == 0 ? 0 : 1);
+            }
+            seats.add(rowSeats);
+        }
+        return seats;
+    }
+
+    public List<List<Long>> toSeatLegs() {
+        List<List<Long>> seatLegs = new ArrayList<>(seatsPerRow.length);
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            List<Long> rowLegs = new ArrayList<>(seatsPerRow[row]);
+            for (int seat = 0; seat < seatsPerRow[row]; seat++) {
+                rowLegs.add(getBookedLegs(row, seat));
+            }
+            seatLegs.add(rowLegs);
+        }
+        return seatLegs;
+    }
+
+    public int getRowCount() {
+        return seatsPerRow.length;
+    }
+
+    public int getSeatCount(int row) {
+        return seatsPerRow[row];
+    }
+
+    /**
+     * Number of tracked segments, i.e. bits used in a leg mask; at most {@value #MAX_SEGMENTS}.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public long fullRunMask() {
+        return segmentMask(0, segmentCount);
+    }
+
+    /**
+     * Mask of the segments between station positions {@code from} (inclusive) and {@code to}
+     * (exclusive), or 0 when the positions do not describe a forward journey on this route.
+     */
+    public long legMask(int from, int to) {
+        if (from < 0 || to > routeSegments || from >= to) {
+            return 0L;
+        }
+        return segmentMask(trackedSegment(from), trackedSegment(to - 1) + 1);
+    }
+
+    /**
+     * Mask of tracked segments {@code from} (inclusive) to {@code to} (exclusive).
+     */
+    public static long segmentMask(int from, int to) {
+        long upTo = to == Long.SIZE ? -1L : (1L << to) - 1;
+        return upTo & (-1L << from);
+    }
+
+    /**
+     * Position of the station where tracked segment {@code segment} starts; {@link #getSegmentCount()}
+     * gives the last station. On routes of up to {@value #MAX_SEGMENTS} segments this is the identity.
+     */
+    public int stationAt(int segment) {
+        return (int) (((long) segment * routeSegments + segmentCount - 1) / segmentCount);
+    }
+
+    private int trackedSegment(int routeSegment) {
+        return (int) ((long) routeSegment * segmentCount / routeSegments);
+    }
+
+    public boolean isValid(int row, int seat) {
+        return row >= 0 && row < seatsPerRow.length && seat >= 0 && seat < seatsPerRow[row];
+    }
+
+    public long getLegs(int row, int seat) {
+        return legs.get(index(row, seat));
+    }
+
+    /**
+     * Legs sold on a seat, i.e. reserved and not merely held.
+     */
+    public long getBookedLegs(int row, int seat) {
+        int index = index(row, seat);
+        long reserved = legs.get(index);
+        if (heldLegs.isEmpty()) {
+            return reserved;
+        }
+        Long held = heldLegs.get(index);
+        return held == null ? reserved : reserved & ~held;
+    }
+
+    public boolean isFree(int row, int seat, long leg) {
+        return (legs.get(index(row, seat)) & leg) == 0;
+    }
+
+    public boolean tryReserve(int row, int seat, long leg) {
+        int index = index(row, seat);
+        while (true) {
+            long current = legs.get(index);
+            if ((current & leg) != 0) {
+                return false;
+            }
+            if (legs.compareAndSet(index, current, current | leg)) {
+                syncIndex(row, seat);
+                return true;
+            }
+        }
+    }
+
+    public boolean release(int row, int seat, long leg) {
+        int index = index(row, seat);
+        while (true) {
+            long current = legs.get(index);
+            if ((current & leg) != leg) {
+                return false;
+            }
+            if (legs.compareAndSet(index, current, current & ~leg)) {
+                syncIndex(row, seat);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically frees {@code releasedLeg} and claims {@code acquiredLeg} on one seat, so a released seat
+     * can change hands without ever being visible as free in between.
+     */
+    public boolean transfer(int row, int seat, long releasedLeg, long acquiredLeg) {
+        int index = index(row, seat);
+        while (true) {
+            long current = legs.get(index);
+            if ((current & releasedLeg) != releasedLeg) {
+                return false;
+            }
+            long remaining = current & ~releasedLeg;
+            if ((remaining & acquiredLeg) != 0) {
+                return false;
+            }
+            if (legs.compareAndSet(index, current, remaining | acquiredLeg)) {
+                syncIndex(row, seat);
+                return true;
+            }
+        }
+    }
+
+    public int firstFreeSeat(int row, long leg) {
+        return freeSeats(row, leg).nextSetBit(0);
+    }
+
+    public int freeSeatCount(int row, long leg) {
+        int bound = freeSeatBound(row, leg);
+        return bound == emptyByRow.get(row) ? bound : freeSeats(row, leg).cardinality();
+    }
+
+    /**
+     * Free seats for {@code leg} in each row (coach), in row order.
+     */
+    public int[] freeSeatsByRow(long leg) {
+        int[] free = new int[seatsPerRow.length];
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            free[row] = freeSeatCount(row, leg);
+        }
+        return free;
+    }
+
+    /**
+     * Upper bound on the free seats of a row for a leg: the smallest free count among its segments.
+     */
+    public int freeSeatBound(int row, long leg) {
+        int bound = seatsPerRow[row];
+        for (long remaining = leg & fullRunMask(); remaining != 0; remaining &= remaining - 1) {
+            bound = Math.min(bound, freeBySegment.get(row * segmentCount + Long.numberOfTrailingZeros(remaining)));
+        }
+        return bound;
+    }
+
+    /**
+     * Seats of a row that are free for every segment of {@code leg}, one bit per seat.
+     */
+    public BitSet freeSeats(int row, long leg) {
+        int seats = seatsPerRow[row];
+        int words = wordsFor(seats);
+        long[] free = new long[words];
+        for (long remaining = leg & fullRunMask(); remaining != 0; remaining &= remaining - 1) {
+            int base = firstWord[row] + Long.numberOfTrailingZeros(remaining) * words;
+            for (int word = 0; word < words; word++) {
+                free[word] |= occupied.get(base + word);
+            }
+        }
+        for (int word = 0; word < words; word++) {
+            free[word] = ~free[word];
+        }
+        if (seats % Long.SIZE != 0) {
+            free[words - 1] &= (1L << (seats % Long.SIZE)) - 1;
+        }
+        return BitSet.valueOf(free);
+    }
+
+    /**
+     * Picks {@code count} seats free for {@code leg}, or returns an empty list. Side-by-side seats are
+     * preferred, choosing the smallest free run that fits (best fit) and the preferred row when it has
+     * one. Unless {@code adjacentOnly} is set, it then falls back to the tightest group within one
+     * row, and finally to seats spread over several rows.
+     */
+    public List<Seat> findSeats(int count, long leg, boolean adjacentOnly, int preferredRow) {
+        if (count < 1) {
+            return List.of();
+        }
+        int[] rows = rowOrder(preferredRow);
+
+        int bestRow = -1;
+        int bestStart = -1;
+        int bestLength = Integer.MAX_VALUE;
+        for (int row : rows) {
+            if (freeSeatBound(row, leg) < count) {
+                continue;
+            }
+            BitSet free = freeSeats(row, leg);
+            for (int start = free.nextSetBit(0); start >= 0; start = free.nextSetBit(start)) {
+                int end = free.nextClearBit(start);
+                int length = end - start;
+                if (length >= count && length < bestLength) {
+                    bestRow = row;
+                    bestStart = start;
+                    bestLength = length;
+                }
+                start = end;
+            }
+            if (bestRow >= 0 && (bestLength == count || row == preferredRow)) {
+                break;
+            }
+        }
+        if (bestRow >= 0) {
+            List<Seat> seats = new ArrayList<>(count);
+            for (int seat = bestStart; seat < bestStart + count; seat++) {
+                seats.add(new Seat(bestRow, seat));
+            }
+            return seats;
+        }
+        if (adjacentOnly) {
+            return List.of();
+        }
+
+        bestRow = -1;
+        int bestSpan = Integer.MAX_VALUE;
+        int[] bestFree = null;
+        for (int row : rows) {
+            if (freeSeatBound(row, leg) < count) {
+                continue;
+            }
+            int[] free = freeSeats(row, leg).stream().toArray();
+            for (int first = 0; first + count <= free.length; first++) {
+                int span = free[first + count - 1] - free[first];
+                if (span < bestSpan) {
+                    bestRow = row;
+                    bestStart = first;
+                    bestSpan = span;
+                    bestFree = free;
+                }
+            }
+            if (bestRow == preferredRow && bestRow >= 0) {
+                break;
+            }
+        }
+        if (bestRow >= 0) {
+            List<Seat> seats = new ArrayList<>(count);
+            for (int i = bestStart; i < bestStart + count; i++) {
+                seats.add(new Seat(bestRow, bestFree[i]));
+            }
+            return seats;
+        }
+
+        List<Seat> seats = new ArrayList<>(count);
+        for (int row : rows) {
+            BitSet free = freeSeats(row, leg);
+            for (int seat = free.nextSetBit(0); seat >= 0 && seats.size() < count; seat = free.nextSetBit(seat + 1)) {
+                seats.add(new Seat(row, seat));
+            }
+            if (seats.size() == count) {
+                return seats;
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Reserves the seat for {@code leg} as a hold. The legs are marked held before they are reserved, and
+     * {@link #releaseHold} frees them before it clears the mark, so readers of the booked legs never see a
+     * hold as a sale. Holds and other reservations of a journey's seats are made under its journey lock;
+     * without it, a reservation racing a hold that fails could be left out of the booked legs until the
+     * hold has cleared its mark.
+     */
+    public boolean tryHold(int row, int seat, long leg) {
+        int index = index(row, seat);
+        long[] marked = new long[1];
+        heldLegs.compute(index, (i, held) -> {
+            long current = held == null ? 0L : held;
+            marked[0] = leg & ~current;
+            return current | leg;
+        });
+        if (tryReserve(row, seat, leg)) {
+            return true;
+        }
+        unmarkHeld(index, marked[0]);
+        return false;
+    }
+
+    /**
+     * Turns a hold into a booking; the seat stays reserved.
+     */
+    public void confirmHold(int row, int seat, long leg) {
+        unmarkHeld(index(row, seat), leg);
+    }
+
+    public boolean releaseHold(int row, int seat, long leg) {
+        boolean released = release(row, seat, leg);
+        unmarkHeld(index(row, seat), leg);
+        return released;
+    }
+
+    private void unmarkHeld(int index, long leg) {
+        if (leg != 0) {
+            heldLegs.computeIfPresent(index, (i, held) -> (held & ~leg) == 0 ? null : held & ~leg);
+        }
+    }
+
+    public boolean tryHoldAll(List<Seat> seats, long leg) {
+        for (int i = 0; i < seats.size(); i++) {
+            Seat seat = seats.get(i);
+            if (!isValid(seat.row(), seat.seat()) || !tryHold(seat.row(), seat.seat(), leg)) {
+                for (Seat held : seats.subList(0, i)) {
+                    releaseHold(held.row(), held.seat(), leg);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserves every seat for {@code leg} or none of them.
+     */
+    public boolean tryReserveAll(List<Seat> seats, long leg) {
+        for (int i = 0; i < seats.size(); i++) {
+            Seat seat = seats.get(i);
+            if (!isValid(seat.row(), seat.seat()) || !tryReserve(seat.row(), seat.seat(), leg)) {
+                releaseAll(seats.subList(0, i), leg);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void releaseAll(List<Seat> seats, long leg) {
+        for (Seat seat : seats) {
+            release(seat.row(), seat.seat(), leg);
+        }
+    }
+
+    public int freeSeatCount(long leg) {
+        int free = 0;
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            free += freeSeatCount(row, leg);
+        }
+        return free;
+    }
+
+    /**
+     * Count of availability changes on the segments of {@code leg}. It only grows, so two equal reads mean
+     * the free seats for that leg did not change in between.
+     */
+    public long version(long leg) {
+        long version = 0;
+        for (long remaining = leg & fullRunMask(); remaining != 0; remaining &= remaining - 1) {
+            version += segmentVersions.get(Long.numberOfTrailingZeros(remaining));
+        }
+        return version;
+    }
+
+    private int[] rowOrder(int preferredRow) {
+        int[] rows = new int[seatsPerRow.length];
+        int next = 0;
+        if (preferredRow >= 0 && preferredRow < rows.length) {
+            rows[next++] = preferredRow;
+        }
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            if (row != preferredRow) {
+                rows[next++] = row;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Brings the row's segment bitmaps and free counts in line with the seat's current mask. Re-reads
+     * the mask afterwards so that a concurrent change to the same seat is never left half applied.
+     */
+    private void syncIndex(int row, int seat) {
+        int index = firstSeat[row] + seat;
+        int words = wordsFor(seatsPerRow[row]);
+        long bit = 1L << (seat % Long.SIZE);
+        long mask = legs.get(index);
+        while (true) {
+            for (int segment = 0; segment < segmentCount; segment++) {
+                int word = firstWord[row] + segment * words + seat / Long.SIZE;
+                boolean booked = (mask >>> segment & 1L) != 0;
+                if (updateBit(occupied, word, bit, booked)) {
+                    freeBySegment.addAndGet(row * segmentCount + segment, booked ? -1 : 1);
+                    segmentVersions.incrementAndGet(segment);
+                }
+            }
+            if (updateBit(reservedSeats, firstRowWord[row] + seat / Long.SIZE, bit, mask != 0)) {
+                emptyByRow.addAndGet(row, mask != 0 ? -1 : 1);
+            }
+            long current = legs.get(index);
+            if (current == mask) {
+                return;
+            }
+            mask = current;
+        }
+    }
+
+    private static boolean updateBit(AtomicLongArray words, int word, long bit, boolean set) {
+        while (true) {
+            long current = words.get(word);
+            long updated = set ? current | bit : current & ~bit;
+            if (current == updated) {
+                return false;
+            }
+            if (words.compareAndSet(word, current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    private static int wordsFor(int seats) {
+        return (seats + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    private int index(int row, int seat) {
+        if (!isValid(row, seat)) {
+            throw new IndexOutOfBoundsException("No seat " + row + ", " + seat);
+        }
+        return firstSeat[row] + seat;
+    }
+}
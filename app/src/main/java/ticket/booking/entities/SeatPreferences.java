@@ -0,0 +1,11 @@
+package ticket.booking.entities;
+
+/**
+ * How a group of seats should be picked. {@code adjacentOnly} refuses anything but side-by-side seats
+ * in one row; {@code preferredRow} (0-based, -1 for none) is tried first.
+ */
+public record SeatPreferences(boolean adjacentOnly, int preferredRow) {
+
+    public static final SeatPreferences ANY = new SeatPreferences(false, -1);
+    public static final SeatPreferences ADJACENT = new SeatPreferences(true, -1);
+}
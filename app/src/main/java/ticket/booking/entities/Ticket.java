@@ -1,11 +1,22 @@
 package ticket.booking.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * A booked seat. Tickets only reference their train by id and are resolved against the train catalog
+ * when displayed, so a user record never carries a copy of the train's seat map.
+ */
 @Setter
 @Getter
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -14,24 +25,71 @@ public class Ticket{
 
     private String ticketId;
     private String userId;
+    private String trainId;
+    private Integer row;
+    private Integer seat;
     private String source;
     private String destination;
     private String dateOfTravel;
-    private Train train;
+    /** The client's key for the request that booked this ticket, shared by every ticket of a group. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String idempotencyKey;
+    /** What the keyed request asked for, so that the key cannot be reused for a different booking. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String requestFingerprint;
 
     public Ticket(){}
 
-    public Ticket(String ticketId, String userId, String source, String destination, String dateOfTravel, Train train){
+    public Ticket(String ticketId, String userId, String trainId, int row, int seat, String source, String destination,
+                  String dateOfTravel){
         this.ticketId = ticketId;
         this.userId = userId;
+        this.trainId = trainId;
+        this.row = row;
+        this.seat = seat;
         this.source = source;
         this.destination = destination;
         this.dateOfTravel = dateOfTravel;
-        this.train = train;
     }
 
+    /**
+     * Older user files embedded the whole {@link Train}; keep only its id when reading them.
+     */
+    @JsonProperty("train")
+    private void setLegacyTrain(Map<String, Object> train){
+        if (trainId == null && train != null && train.get("train_id") != null) {
+            trainId = String.valueOf(train.get("train_id"));
+        }
+    }
+
+    /**
+     * The travel date, or null if none is recorded. Older files stored a full timestamp; only its date
+     * part is used.
+     */
+    @JsonIgnore
+    public LocalDate getJourneyDate(){
+        if (dateOfTravel == null || dateOfTravel.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(dateOfTravel.substring(0, 10));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @JsonIgnore
     public String getTicketInfo(){
         return String.format("Ticket ID: %s belongs to User %s from %s to %s on %s", ticketId, userId, source, destination, dateOfTravel);
     }
 
-}
\ No newline at end of file
+    public String getTicketInfo(Train train){
+        if (train == null) {
+            return getTicketInfo() + " (train " + trainId + " is no longer in service)";
+        }
+        String departure = train.timeAt(source);
+        return String.format("%s | %s | Seat %s-%s | Departs %s", getTicketInfo(), train.getTrainInfo(),
+                row, seat, departure != null ? departure : "n/a");
+    }
+
+}
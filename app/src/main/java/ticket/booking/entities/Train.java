@@ -1,6 +1,8 @@
 package ticket.booking.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
@@ -22,8 +24,11 @@ public class Train {
     private String source;
     private String destination;
     private List<List<Integer>> seats;
+    private List<List<Long>> seatLegs;
     private Map<String, String> stationTimes;
     private List<String> stations;
+    @JsonIgnore
+    private volatile SeatInventory seatInventory;
 
     public Train() {}
 
@@ -39,6 +44,99 @@ public class Train {
         this.stations = stations;
     }
 
+    public List<List<Integer>> getSeats() {
+        SeatInventory inventory = seatInventory;
+        return inventory != null ? inventory.toBookedSeats() : seats;
+    }
+
+    public void setSeats(List<List<Integer>> seats) {
+        synchronized (this) {
+            this.seats = seats;
+            this.seatInventory = null;
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<List<Long>> getSeatLegs() {
+        SeatInventory inventory = seatInventory;
+        if (inventory == null) {
+            return seatLegs;
+        }
+        long fullRun = inventory.fullRunMask();
+        List<List<Long>> legs = inventory.toSeatLegs();
+        boolean partial = legs.stream().flatMap(List::stream).anyMatch(mask -> mask != 0 && mask != fullRun);
+        return partial ? legs : null;
+    }
+
+    public void setSeatLegs(List<List<Long>> seatLegs) {
+        synchronized (this) {
+            this.seatLegs = seatLegs;
+            this.seatInventory = null;
+        }
+    }
+
+    @JsonIgnore
+    public SeatInventory getSeatInventory() {
+        SeatInventory inventory = seatInventory;
+        if (inventory == null) {
+            synchronized (this) {
+                if (seatInventory == null) {
+                    seatInventory = SeatInventory.fromSeats(seats, seatLegs, getSegmentCount());
+                }
+                inventory = seatInventory;
+            }
+        }
+        return inventory;
+    }
+
+    @JsonIgnore
+    public int getSegmentCount() {
+        return stations == null || stations.size() < 2 ? 1 : stations.size() - 1;
+    }
+
+    public int indexOfStation(String station) {
+        return indexOfStation(station, 0);
+    }
+
+    /**
+     * First call at {@code station} from position {@code from} on, or -1.
+     */
+    public int indexOfStation(String station, int from) {
+        if (stations == null || station == null) {
+            return -1;
+        }
+        for (int i = Math.max(0, from); i < stations.size(); i++) {
+            if (stations.get(i).trim().equalsIgnoreCase(station.trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String timeAt(String station) {
+        if (stationTimes == null || station == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : stationTimes.entrySet()) {
+            if (entry.getKey().trim().equalsIgnoreCase(station.trim())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Segments from the first call at {@code source} to the next call at {@code destination} after it,
+     * so a route that passes a station twice can be booked in both directions between them.
+     */
+    public long legMask(String source, String destination) {
+        if (source == null || destination == null || source.trim().equalsIgnoreCase(destination.trim())) {
+            return 0L;
+        }
+        int from = indexOfStation(source);
+        return getSeatInventory().legMask(from, from < 0 ? -1 : indexOfStation(destination, from + 1));
+    }
+
     @JsonProperty("stations")
     public void setStations(Object stations) {
         if (stations instanceof List<?> stationList) {
@@ -57,6 +155,7 @@ public class Train {
         }
     }
 
+    @JsonIgnore
     public String getTrainInfo() {
         return String.format("Train ID: %s Train No: %s", trainId, trainNo);
     }
@@ -1,12 +1,14 @@
 package ticket.booking.entities;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 import lombok.Getter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 @Getter
 @JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
@@ -17,6 +19,9 @@ public class User {
     private String hashedPassword;
     private List<Ticket> ticketsBooked;
     private String userId;
+    /** Keyed cancellations still within the idempotency window, oldest first. */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<Cancellation> cancellations;
 
     public User(String name, String password, String hashedPassword, List<Ticket> ticketsBooked, String userId) {
         this.name = name;
@@ -28,24 +33,65 @@ public class User {
     public User(){}
 
     public void printTickets(){
-        for (Ticket ticket : ticketsBooked) {
+        for (Ticket ticket : getTicketsBooked()) {
             System.out.println(ticket.getTicketInfo());
         }
     }
 
-    public void setTicketsBooked(List<Ticket> ticketsBooked) {
+    public void setHashedPassword(String hashedPassword) {
+        this.hashedPassword = hashedPassword;
+    }
+
+    public synchronized void setTicketsBooked(List<Ticket> ticketsBooked) {
         this.ticketsBooked = ticketsBooked;
     }
 
-    public void addTicketBooked(Ticket ticket) {
+    public synchronized void addTicketBooked(Ticket ticket) {
         if (ticketsBooked == null) {
             ticketsBooked = new ArrayList<>();
         }
         ticketsBooked.add(ticket);
     }
 
-    public List<Ticket> getTicketsBooked() {
-        return this.ticketsBooked;
+    public synchronized boolean removeTicketBooked(String ticketId) {
+        return ticketsBooked != null && ticketsBooked.removeIf(t -> ticketId.equals(t.getTicketId()));
+    }
+
+    /**
+     * Records a keyed cancellation, replacing an earlier record of the same ticket, and drops the ones
+     * made before {@code retainFrom} (epoch millis).
+     */
+    public synchronized void addCancellation(Cancellation cancellation, long retainFrom) {
+        if (cancellations == null) {
+            cancellations = new ArrayList<>();
+        }
+        cancellations.removeIf(c -> c.getCancelledAt() < retainFrom
+                || Objects.equals(c.getTicketId(), cancellation.getTicketId()));
+        cancellations.add(cancellation);
+    }
+
+    public synchronized void setCancellations(List<Cancellation> cancellations) {
+        this.cancellations = cancellations;
+    }
+
+    public synchronized List<Cancellation> getCancellations() {
+        return cancellations == null ? null : new ArrayList<>(cancellations);
+    }
+
+    /**
+     * A copy that later bookings, cancellations and password changes of this user leave untouched.
+     */
+    public synchronized User copy() {
+        User copy = new User(name, password, hashedPassword, getTicketsBooked(), userId);
+        copy.cancellations = getCancellations();
+        return copy;
+    }
+
+    /**
+     * A copy of the booked tickets, so callers can iterate while other threads book or cancel.
+     */
+    public synchronized List<Ticket> getTicketsBooked() {
+        return ticketsBooked == null ? null : new ArrayList<>(ticketsBooked);
     }
 
-}
\ No newline at end of file
+}
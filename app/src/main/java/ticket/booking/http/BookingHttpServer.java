@@ -0,0 +1,805 @@
+package ticket.booking.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.SeatPreferences;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.services.AuthService;
+import ticket.booking.services.BookingContext;
+import ticket.booking.services.IdempotencyCache;
+import ticket.booking.services.JourneyPlanner;
+import ticket.booking.services.SearchCache;
+import ticket.booking.services.SeatHoldService;
+import ticket.booking.services.SessionManager;
+import ticket.booking.services.TrainService;
+import ticket.booking.services.UserBookingService;
+import ticket.booking.services.WaitlistService;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.Logging;
+import ticket.booking.util.Metrics;
+import ticket.booking.util.ThreadUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embedded JSON API over {@link UserBookingService} and {@link TrainService}. Each request runs on its
+ * own (virtual, where available) thread.
+ *
+ * <pre>
+ * POST /signup                         {"name", "password"}
+ * POST /login                          {"name", "password"} -> {"token", ...}
+ * POST /logout                         (Bearer token)
+ * GET  /trains?source=&destination=&date=
+ * GET  /trains/{trainId}/seats?source=&destination=&date=
+ * GET  /journeys?source=&destination=&date=&after=HH:mm&max_changes=
+ * GET  /bookings                       (Bearer token)
+ * POST /bookings                       (Bearer token) {"train_id", "row", "seat", "source", "destination"}
+ * POST /bookings                       (Bearer token) {"train_id", "count", "source", "destination",
+ *                                                      "adjacent_only"?, "preferred_row"?}
+ * POST /bookings/{ticketId}/cancel     (Bearer token)
+ * POST /holds                          (Bearer token) {"train_id", "source", "destination", "row" + "seat" | "count"}
+ * POST /holds/{holdId}/confirm         (Bearer token)
+ * DELETE /holds/{holdId}               (Bearer token)
+ * POST /waitlist                       (Bearer token) {"train_id", "source", "destination"}
+ * DELETE /waitlist/{entryId}           (Bearer token)
+ * GET  /metrics                        plain-text counters, latency percentiles and gauges
+ * </pre>
+ *
+ * Booking, hold, waitlist and seat-map calls take an optional {@code date} (YYYY-MM-DD) for the journey;
+ * it defaults to today. Only /login runs BCrypt; every other authenticated call is a session lookup.
+ *
+ * <p>Bookings and cancellations accept an {@value #IDEMPOTENCY_KEY_HEADER} header. Retrying a request
+ * with the same key returns the first request's result instead of booking or cancelling again; reusing
+ * a key for a different booking or ticket is answered with 422.
+ *
+ * <p>A node started with a cluster key ({@code -Dbooking.cluster.key}) also serves the shard-to-shard
+ * calls under {@code /internal} that {@link ShardRouter} makes; they require the key in the
+ * {@value #CLUSTER_KEY_HEADER} header and answer 404 otherwise.
+ *
+ * <p>Request bodies are limited to {@code -Dbooking.http.maxBodyBytes} (64 KiB by default); a larger
+ * declared Content-Length, or a body that turns out larger while it is read, is answered with 413.
+ */
+public class BookingHttpServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final String CLUSTER_KEY_HEADER = "X-Cluster-Key";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final int MAX_BODY_BYTES = Integer.getInteger("booking.http.maxBodyBytes", 64 * 1024);
+
+    /**
+     * Name prefix of the stand-in records a train's node keeps for travellers whose account lives on
+     * another node. They hold the tickets sold on the node's trains, cannot log in, and sign-ups may not
+     * use the prefix.
+     */
+    static final String SHARD_USER_PREFIX = "@";
+
+    private static final Logger LOG = Logger.getLogger(BookingHttpServer.class.getName());
+    private static final ObjectMapper MAPPER = JsonMappers.TRAIN_MAPPER;
+
+    static class BodyTooLargeException extends RuntimeException {
+
+        BodyTooLargeException() {
+            super("Request body exceeds " + MAX_BODY_BYTES + " bytes");
+        }
+    }
+
+    private final BookingContext context;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String clusterKey;
+
+    public BookingHttpServer(BookingContext context, int port) throws IOException {
+        this(context, port, System.getProperty("booking.cluster.key"));
+    }
+
+    public BookingHttpServer(BookingContext context, int port, String clusterKey) throws IOException {
+        this.context = context;
+        this.clusterKey = clusterKey == null || clusterKey.isEmpty() ? null : clusterKey;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = ThreadUtil.newPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/signup", exchange -> handle(exchange, this::signUp));
+        server.createContext("/login", exchange -> handle(exchange, this::login));
+        server.createContext("/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/trains", exchange -> handle(exchange, this::trains));
+        server.createContext("/journeys", exchange -> handle(exchange, this::journeys));
+        server.createContext("/bookings", exchange -> handle(exchange, this::bookings));
+        server.createContext("/holds", exchange -> handle(exchange, this::holds));
+        server.createContext("/waitlist", exchange -> handle(exchange, this::waitlist));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        server.createContext("/internal", exchange -> handle(exchange, this::internal));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Booking API listening on port " + getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Logging.configureConsole(Level.WARNING);
+        Metrics.registerMBean();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        BookingContext context = args.length > 1 ? BookingContext.forDirectory(Path.of(args[1]))
+                : BookingContext.getDefault();
+        context.preload();
+        BookingHttpServer server = new BookingHttpServer(context, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+    }
+
+    private interface Handler {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private record Response(int status, Object body) {}
+
+    private static Response error(int status, String message) {
+        return new Response(status, Map.of("error", message));
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = handler.handle(exchange);
+        } catch (IllegalArgumentException e) {
+            response = error(400, e.getMessage());
+        } catch (BodyTooLargeException e) {
+            response = error(413, e.getMessage());
+        } catch (AuthService.RejectedException e) {
+            response = error(e.isRateLimited() ? 429 : 503, e.getMessage());
+        } catch (IdempotencyCache.KeyReusedException e) {
+            response = error(422, e.getMessage());
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Request to " + exchange.getRequestURI() + " failed", e);
+            response = error(500, "Internal error");
+        }
+
+        byte[] body;
+        if (response.body() instanceof String text) {
+            body = text.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        } else {
+            body = MAPPER.writeValueAsBytes(response.body());
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        }
+        exchange.sendResponseHeaders(response.status(), body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        String endpoint = "http" + exchange.getHttpContext().getPath().replace('/', '.');
+        Metrics.histogram(endpoint).recordSince(start);
+        Metrics.counter("http.status." + response.status()).increment();
+    }
+
+    private Response metrics(HttpExchange exchange) {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return error(405, "Use GET");
+        }
+        return new Response(200, Metrics.render());
+    }
+
+    private Response signUp(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return error(405, "Use POST");
+        }
+        return signUp(readBody(exchange), UUID.randomUUID().toString());
+    }
+
+    private Response signUp(Map<String, Object> request, String userId) throws IOException {
+        String name = requireString(request, "name");
+        String password = requireString(request, "password");
+        if (name.startsWith(SHARD_USER_PREFIX)) {
+            throw new IllegalArgumentException("User names may not start with " + SHARD_USER_PREFIX);
+        }
+        if (context.getUserRepository().findByName(name).isPresent()) {
+            return error(409, "User name is already taken");
+        }
+
+        User user = new User(name, null, await(context.getAuthService().hashPassword(password)), new ArrayList<>(),
+                userId);
+        if (!new UserBookingService(null, context).signUp(user)) {
+            return error(409, "User name is already taken");
+        }
+        return new Response(201, Map.of("user_id", user.getUserId(), "name", user.getName()));
+    }
+
+    private Response login(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return error(405, "Use POST");
+        }
+        Map<String, Object> request = readBody(exchange);
+        Optional<User> user = await(context.getAuthService().authenticate(requireString(request, "name"),
+                requireString(request, "password"), clientAddress(exchange)));
+        if (user.isEmpty()) {
+            return error(401, "Invalid credentials");
+        }
+        String token = context.getSessionManager().create(user.get().getUserId());
+        return new Response(200, Map.of("token", token, "user_id", user.get().getUserId(),
+                "name", user.get().getName(), "expires_in_minutes", SessionManager.DEFAULT_TTL_MINUTES));
+    }
+
+    private Response logout(HttpExchange exchange) {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return error(405, "Use POST");
+        }
+        context.getSessionManager().invalidate(bearerToken(exchange));
+        return new Response(200, Map.of("status", "logged out"));
+    }
+
+    private Response trains(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return error(405, "Use GET");
+        }
+        Map<String, String> query = parseQuery(exchange);
+        String[] path = pathSegments(exchange);
+        TrainService trainService = context.getTrainService();
+
+        if (path.length == 1) {
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (SearchCache.Availability availability : trainService.searchAvailability(require(query, "source"),
+                    require(query, "destination"), journeyDate(query))) {
+                Map<String, Object> summary = trainSummary(availability.train());
+                summary.put("free_seats", availability.freeSeats());
+                summary.put("free_seats_by_coach", availability.freeSeatsByCoach());
+                result.add(summary);
+            }
+            return new Response(200, result);
+        }
+        if (path.length == 3 && "seats".equals(path[2])) {
+            Train train = trainService.getTrain(path[1]);
+            if (train == null) {
+                return error(404, "No train " + path[1]);
+            }
+            UserBookingService service = new UserBookingService(null, context);
+            LocalDate date = journeyDate(query);
+            List<List<Integer>> seats = query.containsKey("source") && query.containsKey("destination")
+                    ? service.fetchSeats(train, date, query.get("source"), query.get("destination"))
+                    : service.fetchSeats(train, date);
+            return new Response(200, Map.of("train_id", train.getTrainId(), "date", date.toString(), "seats", seats));
+        }
+        return error(404, "Not found");
+    }
+
+    private Response journeys(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return error(405, "Use GET");
+        }
+        Map<String, String> query = parseQuery(exchange);
+        LocalTime after;
+        int maxChanges;
+        try {
+            after = query.containsKey("after") ? LocalTime.parse(query.get("after")) : LocalTime.MIDNIGHT;
+            String changes = query.get("max_changes");
+            maxChanges = changes == null ? JourneyPlanner.MAX_CHANGES : Integer.parseInt(changes);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Expected after=HH:mm and a numeric max_changes");
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (JourneyPlanner.Itinerary itinerary : context.getTrainService().planJourneys(require(query, "source"),
+                require(query, "destination"), journeyDate(query).atTime(after), maxChanges)) {
+            List<Map<String, Object>> legs = new ArrayList<>();
+            for (JourneyPlanner.Leg leg : itinerary.legs()) {
+                Map<String, Object> summary = new LinkedHashMap<>();
+                summary.put("train_id", leg.train().getTrainId());
+                summary.put("train_no", leg.train().getTrainNo());
+                summary.put("date", leg.journeyDate().toString());
+                summary.put("source", leg.source());
+                summary.put("destination", leg.destination());
+                summary.put("departs", leg.departs().toString());
+                summary.put("arrives", leg.arrives().toString());
+                legs.add(summary);
+            }
+            result.add(Map.of("departs", itinerary.departs().toString(), "arrives", itinerary.arrives().toString(),
+                    "changes", itinerary.changes(), "legs", legs));
+        }
+        return new Response(200, result);
+    }
+
+    private Response bookings(HttpExchange exchange) throws IOException {
+        Optional<UserBookingService> service = authenticate(exchange);
+        if (service.isEmpty()) {
+            return unauthorized(exchange);
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 1 && "GET".equals(method)) {
+            List<Map<String, Object>> result = new ArrayList<>();
+            List<Ticket> tickets = service.get().getUser().getTicketsBooked();
+            if (tickets != null) {
+                for (Ticket ticket : tickets) {
+                    result.add(ticketSummary(ticket));
+                }
+            }
+            return new Response(200, result);
+        }
+        if (path.length == 1 && "POST".equals(method)) {
+            return book(service.get(), readBody(exchange), idempotencyKey(exchange), new ArrayList<>());
+        }
+        if (path.length == 3 && "cancel".equals(path[2]) && "POST".equals(method)) {
+            if (!service.get().cancelBooking(path[1], idempotencyKey(exchange))) {
+                return error(404, "No ticket " + path[1]);
+            }
+            return new Response(200, Map.of("ticket_id", path[1], "status", "cancelled"));
+        }
+        return error(404, "Not found");
+    }
+
+    /**
+     * Books one seat ({@code row} + {@code seat}) or a group ({@code count}); the tickets sold are also
+     * added to {@code booked}.
+     */
+    private Response book(UserBookingService service, Map<String, Object> request, String idempotencyKey,
+                          List<Ticket> booked) throws IOException {
+        Train train = context.getTrainService().getTrain(requireString(request, "train_id"));
+        if (train == null) {
+            return error(404, "No train " + request.get("train_id"));
+        }
+        if (request.containsKey("count")) {
+            SeatPreferences preferences = new SeatPreferences(
+                    Boolean.TRUE.equals(request.get("adjacent_only")),
+                    request.containsKey("preferred_row") ? requireInt(request, "preferred_row") : -1);
+            List<Ticket> tickets = service.bookSeats(train, journeyDate(request),
+                    requireInt(request, "count"), requireString(request, "source"),
+                    requireString(request, "destination"), preferences, idempotencyKey);
+            if (tickets.isEmpty()) {
+                return error(409, "Not enough seats available");
+            }
+            booked.addAll(tickets);
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (Ticket ticket : tickets) {
+                result.add(ticketSummary(ticket));
+            }
+            return new Response(201, result);
+        }
+        Optional<Ticket> ticket = service.bookSeat(train, journeyDate(request), requireInt(request, "row"),
+                requireInt(request, "seat"), requireString(request, "source"),
+                requireString(request, "destination"), idempotencyKey);
+        ticket.ifPresent(booked::add);
+        return ticket.map(t -> new Response(201, ticketSummary(t)))
+                .orElseGet(() -> error(409, "Seat is not available"));
+    }
+
+    /**
+     * Shard-to-shard calls. A booking through the router reserves seats on the train's node for the
+     * traveller's stand-in record there, then copies the tickets to the node that owns the account;
+     * a cancellation releases the seat on the train's node first and then drops the account's copy.
+     *
+     * <pre>
+     * POST   /internal/users                              {"name", "password", "user_id"}
+     * GET    /internal/session                            (Bearer token) -> {"user_id"}
+     * POST   /internal/reservations                       {"user_id", "idempotency_key"?, booking fields}
+     *                                                     -> {"tickets", "response"}
+     * POST   /internal/reservations/{ticketId}/cancel     {"user_id", "idempotency_key"?}
+     * POST   /internal/tickets                            {"user_id", "tickets"}
+     * GET    /internal/tickets/{ticketId}?user_id=
+     * DELETE /internal/tickets/{ticketId}?user_id=&idempotency_key=
+     * </pre>
+     *
+     * The router passes the client's idempotency key along, so a retried booking or cancellation is
+     * answered from each node's record of the first attempt.
+     */
+    private Response internal(HttpExchange exchange) throws IOException {
+        if (!isClusterCall(exchange)) {
+            return error(404, "Not found");
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+        UserRepository users = context.getUserRepository();
+
+        if (path.length == 2 && "users".equals(path[1]) && "POST".equals(method)) {
+            Map<String, Object> request = readBody(exchange);
+            return signUp(request, requireString(request, "user_id"));
+        }
+        if (path.length == 2 && "session".equals(path[1]) && "GET".equals(method)) {
+            String token = bearerToken(exchange);
+            Optional<String> userId = token == null ? Optional.empty() : context.getSessionManager().resolve(token);
+            return userId.map(id -> new Response(200, Map.of("user_id", id))).orElseGet(() -> unauthorized(exchange));
+        }
+        if (path.length == 2 && "reservations".equals(path[1]) && "POST".equals(method)) {
+            Map<String, Object> request = readBody(exchange);
+            List<Ticket> booked = new ArrayList<>();
+            String idempotencyKey = optionalKey(request.get("idempotency_key"));
+            Response response = asShardUser(requireString(request, "user_id"),
+                    service -> book(service, request, idempotencyKey, booked));
+            if (booked.isEmpty()) {
+                return response;
+            }
+            return new Response(201, Map.of("tickets", booked, "response", response.body()));
+        }
+        if (path.length == 4 && "reservations".equals(path[1]) && "cancel".equals(path[3]) && "POST".equals(method)) {
+            Map<String, Object> request = readBody(exchange);
+            String userId = requireString(request, "user_id");
+            String idempotencyKey = optionalKey(request.get("idempotency_key"));
+            if (users.findById(userId).isEmpty()) {
+                return error(404, "No ticket " + path[2]);
+            }
+            return asShardUser(userId, service -> service.cancelBooking(path[2], idempotencyKey)
+                    ? new Response(200, Map.of("ticket_id", path[2], "status", "cancelled"))
+                    : error(404, "No ticket " + path[2]));
+        }
+        if (path.length == 2 && "tickets".equals(path[1]) && "POST".equals(method)) {
+            Map<String, Object> request = readBody(exchange);
+            String userId = requireString(request, "user_id");
+            List<Ticket> missing = new ArrayList<>();
+            for (Ticket ticket : MAPPER.convertValue(request.get("tickets"), Ticket[].class)) {
+                if (users.findTicket(ticket.getTicketId()).isEmpty()) {
+                    missing.add(ticket);
+                }
+            }
+            if (!missing.isEmpty() && !users.addTickets(userId, missing)) {
+                return error(404, "No user " + userId);
+            }
+            return new Response(200, Map.of("recorded", missing.size()));
+        }
+        if (path.length == 3 && "tickets".equals(path[1])) {
+            Map<String, String> query = parseQuery(exchange);
+            String userId = require(query, "user_id");
+            Optional<UserRepository.BookedTicket> booked = users.findTicket(path[2])
+                    .filter(found -> found.userId().equals(userId));
+            if ("GET".equals(method)) {
+                return booked.map(found -> new Response(200, (Object) found.ticket()))
+                        .orElseGet(() -> error(404, "No ticket " + path[2]));
+            }
+            if ("DELETE".equals(method)) {
+                String idempotencyKey = optionalKey(query.get("idempotency_key"));
+                IdempotencyCache cache = context.getIdempotencyCache();
+                boolean removed = idempotencyKey == null ? removeTicket(users, cache, booked, path[2], null)
+                        : cache.cancel(userId, idempotencyKey, path[2],
+                        () -> removeTicket(users, cache, booked, path[2], idempotencyKey));
+                return new Response(200, Map.of("ticket_id", path[2], "removed", removed));
+            }
+        }
+        return error(404, "Not found");
+    }
+
+    private static boolean removeTicket(UserRepository users, IdempotencyCache cache,
+                                        Optional<UserRepository.BookedTicket> booked, String ticketId,
+                                        String idempotencyKey) {
+        try {
+            if (booked.isEmpty() || !users.removeTicket(booked.get().userId(), ticketId, idempotencyKey)) {
+                return false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        cache.forgetTicket(ticketId);
+        return true;
+    }
+
+    private interface ShardAction {
+        Response apply(UserBookingService service) throws IOException;
+    }
+
+    /**
+     * Runs a booking call for {@code userId} on this node through a short-lived session, creating the
+     * stand-in record first if the account lives on another node.
+     */
+    private Response asShardUser(String userId, ShardAction action) throws IOException {
+        UserRepository users = context.getUserRepository();
+        if (users.findById(userId).isEmpty()) {
+            users.add(new User(SHARD_USER_PREFIX + userId, null, null, new ArrayList<>(), userId));
+        }
+        String token = context.getSessionManager().create(userId);
+        try {
+            Optional<UserBookingService> service = UserBookingService.forSession(token, context);
+            if (service.isEmpty()) {
+                return error(404, "No user " + userId);
+            }
+            return action.apply(service.get());
+        } finally {
+            context.getSessionManager().invalidate(token);
+        }
+    }
+
+    private Response holds(HttpExchange exchange) throws IOException {
+        Optional<UserBookingService> service = authenticate(exchange);
+        if (service.isEmpty()) {
+            return unauthorized(exchange);
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 1 && "POST".equals(method)) {
+            Map<String, Object> request = readBody(exchange);
+            Train train = context.getTrainService().getTrain(requireString(request, "train_id"));
+            if (train == null) {
+                return error(404, "No train " + request.get("train_id"));
+            }
+            String source = requireString(request, "source");
+            String destination = requireString(request, "destination");
+            LocalDate date = journeyDate(request);
+            Optional<SeatHoldService.Hold> hold = request.containsKey("count")
+                    ? service.get().holdSeats(train, date, requireInt(request, "count"), source, destination,
+                    new SeatPreferences(Boolean.TRUE.equals(request.get("adjacent_only")),
+                            request.containsKey("preferred_row") ? requireInt(request, "preferred_row") : -1))
+                    : service.get().holdSeat(train, date, requireInt(request, "row"), requireInt(request, "seat"),
+                    source, destination);
+            if (hold.isEmpty()) {
+                return error(409, "Seats are not available");
+            }
+            List<Map<String, Object>> seats = new ArrayList<>();
+            for (SeatInventory.Seat seat : hold.get().seats()) {
+                seats.add(Map.of("row", seat.row(), "seat", seat.seat()));
+            }
+            return new Response(201, Map.of("hold_id", hold.get().holdId(), "train_id", train.getTrainId(),
+                    "date", date.toString(), "seats", seats, "expires_at", hold.get().expiresAtMillis()));
+        }
+        if (path.length == 3 && "confirm".equals(path[2]) && "POST".equals(method)) {
+            List<Ticket> tickets = service.get().confirmHold(path[1]);
+            if (tickets.isEmpty()) {
+                return error(410, "Hold " + path[1] + " has expired or does not exist");
+            }
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (Ticket ticket : tickets) {
+                result.add(ticketSummary(ticket));
+            }
+            return new Response(201, result);
+        }
+        if (path.length == 2 && "DELETE".equals(method)) {
+            if (!service.get().releaseHold(path[1])) {
+                return error(404, "No hold " + path[1]);
+            }
+            return new Response(200, Map.of("hold_id", path[1], "status", "released"));
+        }
+        return error(404, "Not found");
+    }
+
+    private Response waitlist(HttpExchange exchange) throws IOException {
+        Optional<UserBookingService> service = authenticate(exchange);
+        if (service.isEmpty()) {
+            return unauthorized(exchange);
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 1 && "POST".equals(method)) {
+            Map<String, Object> request = readBody(exchange);
+            Train train = context.getTrainService().getTrain(requireString(request, "train_id"));
+            if (train == null) {
+                return error(404, "No train " + request.get("train_id"));
+            }
+            LocalDate date = journeyDate(request);
+            Optional<WaitlistService.Entry> entry = service.get().joinWaitlist(train, date,
+                    requireString(request, "source"), requireString(request, "destination"));
+            if (entry.isEmpty()) {
+                return error(400, "Train does not run between these stations on " + date);
+            }
+            return new Response(201, Map.of("entry_id", entry.get().entryId(), "train_id", train.getTrainId(),
+                    "date", date.toString(), "position", context.getWaitlistService().size(train.getTrainId(), date)));
+        }
+        if (path.length == 2 && "DELETE".equals(method)) {
+            if (!service.get().leaveWaitlist(path[1])) {
+                return error(404, "No waitlist entry " + path[1]);
+            }
+            return new Response(200, Map.of("entry_id", path[1], "status", "removed"));
+        }
+        return error(404, "Not found");
+    }
+
+    private static Response unauthorized(HttpExchange exchange) {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer realm=\"booking\"");
+        return error(401, "Missing or expired session token");
+    }
+
+    private Optional<UserBookingService> authenticate(HttpExchange exchange) throws IOException {
+        String token = bearerToken(exchange);
+        return token == null ? Optional.empty() : UserBookingService.forSession(token, context);
+    }
+
+    private static String idempotencyKey(HttpExchange exchange) {
+        return optionalKey(exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY_HEADER));
+    }
+
+    private static String optionalKey(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String key = String.valueOf(value);
+        IdempotencyCache.validate(key);
+        return key;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        return header.substring(7).trim();
+    }
+
+    /**
+     * The caller's address; behind the router, the client address it forwards.
+     */
+    private String clientAddress(HttpExchange exchange) {
+        String forwarded = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+        if (forwarded != null && isClusterCall(exchange)) {
+            return forwarded;
+        }
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private boolean isClusterCall(HttpExchange exchange) {
+        String presented = exchange.getRequestHeaders().getFirst(CLUSTER_KEY_HEADER);
+        return clusterKey != null && presented != null && MessageDigest.isEqual(
+                clusterKey.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for authentication", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Map<String, Object> trainSummary(Train train) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("train_id", train.getTrainId());
+        summary.put("train_no", train.getTrainNo());
+        summary.put("stations", train.getStations());
+        summary.put("station_times", train.getStationTimes());
+        return summary;
+    }
+
+    private static Map<String, Object> ticketSummary(Ticket ticket) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("ticket_id", ticket.getTicketId());
+        summary.put("train_id", ticket.getTrainId());
+        summary.put("row", ticket.getRow());
+        summary.put("seat", ticket.getSeat());
+        summary.put("source", ticket.getSource());
+        summary.put("destination", ticket.getDestination());
+        summary.put("date_of_travel", ticket.getDateOfTravel());
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readBodyBytes(exchange);
+            if (body.length == 0) {
+                return Map.of();
+            }
+            Object parsed = MAPPER.readValue(body, Object.class);
+            if (!(parsed instanceof Map)) {
+                throw new IllegalArgumentException("Request body must be a JSON object");
+            }
+            return (Map<String, Object>) parsed;
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON body");
+        }
+    }
+
+    /**
+     * The raw request body, read up to {@link #MAX_BODY_BYTES}.
+     *
+     * @throws BodyTooLargeException if the declared or the actual length is over the limit
+     */
+    static byte[] readBodyBytes(HttpExchange exchange) throws IOException {
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null) {
+            try {
+                if (Long.parseLong(declared.trim()) > MAX_BODY_BYTES) {
+                    throw new BodyTooLargeException();
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad Content-Length: " + declared);
+            }
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new BodyTooLargeException();
+            }
+            return body;
+        }
+    }
+
+    private static String[] pathSegments(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> query = new LinkedHashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String require(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * The {@code date} query parameter or body field, today when absent; rejected with 400 when it is
+     * not a date or lies outside the booking window.
+     */
+    private LocalDate journeyDate(Map<String, ?> parameters) throws IOException {
+        Object value = parameters.get("date");
+        LocalDate date;
+        try {
+            date = value == null || value.toString().isEmpty() ? LocalDate.now() : LocalDate.parse(value.toString());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date " + value + ", expected YYYY-MM-DD");
+        }
+        context.getTrainService().getJourneyInventory().requireBookable(date);
+        return date;
+    }
+
+    private static String requireString(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (value == null || value.toString().isEmpty()) {
+            throw new IllegalArgumentException("Missing field " + name);
+        }
+        return value.toString();
+    }
+
+    private static int requireInt(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        try {
+            return Integer.parseInt(requireString(request, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Field " + name + " must be a number");
+        }
+    }
+}
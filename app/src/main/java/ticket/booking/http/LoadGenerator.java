@@ -0,0 +1,194 @@
+package ticket.booking.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.ThreadUtil;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a running {@link BookingHttpServer} with simulated users. Each virtual user signs up, logs in,
+ * then loops over search -> seat map -> book.
+ *
+ * <pre>
+ * LoadGenerator [baseUrl] [users] [iterationsPerUser] [source] [destination]
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper MAPPER = JsonMappers.TRAIN_MAPPER;
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final ConcurrentLinkedQueue<Long> latenciesMicros = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger bookings = new AtomicInteger();
+
+    public LoadGenerator(String baseUrl) {
+        this.baseUrl = baseUrl.replaceAll("/+$", "");
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:" + BookingHttpServer.DEFAULT_PORT;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String source = args.length > 3 ? args[3] : "bangalore";
+        String destination = args.length > 4 ? args[4] : "delhi";
+
+        new LoadGenerator(baseUrl).run(users, iterations, source, destination);
+    }
+
+    public void run(int users, int iterations, String source, String destination) throws Exception {
+        long started = System.nanoTime();
+        ExecutorService executor = ThreadUtil.newPerTaskExecutor();
+        List<Future<?>> running = new ArrayList<>();
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < users; i++) {
+            String name = "load-" + runId + "-" + i;
+            running.add(executor.submit(() -> simulateUser(name, iterations, source, destination)));
+        }
+        for (Future<?> future : running) {
+            future.get();
+        }
+        executor.shutdown();
+        report(System.nanoTime() - started);
+    }
+
+    private Void simulateUser(String name, int iterations, String source, String destination) {
+        String password = "pw-" + name;
+        Map<String, Object> credentials = Map.of("name", name, "password", password);
+
+        send(post("/signup", credentials, null));
+        HttpResponse<String> login = send(post("/login", credentials, null));
+        if (login == null || login.statusCode() != 200) {
+            failures.incrementAndGet();
+            return null;
+        }
+        String auth = "Bearer " + parse(login.body(), Map.class).get("token");
+
+        String route = "source=" + encode(source) + "&destination=" + encode(destination);
+        for (int i = 0; i < iterations; i++) {
+            HttpResponse<String> search = send(HttpRequest.newBuilder(uri("/trains?" + route)).GET().build());
+            List<?> trains = search == null ? List.of() : parse(search.body(), List.class);
+            if (trains.isEmpty()) {
+                continue;
+            }
+
+            Map<?, ?> train = (Map<?, ?>) trains.get(ThreadLocalRandom.current().nextInt(trains.size()));
+            String trainId = String.valueOf(train.get("train_id"));
+            HttpResponse<String> seatMap = send(HttpRequest.newBuilder(
+                    uri("/trains/" + encode(trainId) + "/seats?" + route)).GET().build());
+            if (seatMap == null) {
+                continue;
+            }
+
+            List<?> seats = (List<?>) parse(seatMap.body(), Map.class).get("seats");
+            int[] free = firstFreeSeat(seats);
+            if (free == null) {
+                continue;
+            }
+            HttpResponse<String> booked = send(post("/bookings", Map.of("train_id", trainId, "row", free[0],
+                    "seat", free[1], "source", source, "destination", destination), auth));
+            if (booked != null && booked.statusCode() == 201) {
+                bookings.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    private static int[] firstFreeSeat(List<?> seats) {
+        if (seats == null) {
+            return null;
+        }
+        int rowOffset = ThreadLocalRandom.current().nextInt(Math.max(1, seats.size()));
+        for (int i = 0; i < seats.size(); i++) {
+            int row = (rowOffset + i) % seats.size();
+            List<?> rowSeats = (List<?>) seats.get(row);
+            for (int seat = 0; seat < rowSeats.size(); seat++) {
+                if (((Number) rowSeats.get(seat)).intValue() == 0) {
+                    return new int[]{row, seat};
+                }
+            }
+        }
+        return null;
+    }
+
+    private HttpRequest post(String path, Map<String, Object> body, String authorization) {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri(path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)));
+            if (authorization != null) {
+                builder.header("Authorization", authorization);
+            }
+            return builder.build();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest request) {
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            latenciesMicros.add((System.nanoTime() - started) / 1000);
+            if (response.statusCode() >= 500) {
+                failures.incrementAndGet();
+                return null;
+            }
+            return response;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static <T> T parse(String body, Class<T> type) {
+        try {
+            return MAPPER.readValue(body, type);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unexpected response: " + body, e);
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        long[] latencies = latenciesMicros.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(latencies);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Requests: %d in %.2fs (%.1f req/s), failures: %d, bookings: %d%n",
+                latencies.length, seconds, latencies.length / seconds, failures.get(), bookings.get());
+        if (latencies.length > 0) {
+            System.out.printf("Latency us: p50=%d p90=%d p99=%d max=%d%n", percentile(latencies, 0.50),
+                    percentile(latencies, 0.90), percentile(latencies, 0.99), latencies[latencies.length - 1]);
+        }
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
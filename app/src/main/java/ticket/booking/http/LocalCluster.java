@@ -0,0 +1,133 @@
+package ticket.booking.http;
+
+import ticket.booking.entities.Train;
+import ticket.booking.services.BookingContext;
+import ticket.booking.util.ConsistentHashRing;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.JsonRecordLoader;
+import ticket.booking.util.Logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * A sharded deployment inside one JVM, on loopback: {@code node-0 .. node-(n-1)}, each a
+ * {@link BookingHttpServer} over its own directory under a base directory, and a {@link ShardRouter} in
+ * front. Nodes listen on free ports; only the node names decide placement, so a cluster can be stopped
+ * and started again over the same directories. Metrics are per process and therefore shared by all
+ * nodes here.
+ */
+public class LocalCluster implements Closeable {
+
+    private final List<BookingContext> contexts = new ArrayList<>();
+    private final List<BookingHttpServer> nodes = new ArrayList<>();
+    private final ShardRouter router;
+
+    private LocalCluster(Path baseDirectory, int nodeCount, int routerPort) throws IOException {
+        String clusterKey = UUID.randomUUID().toString();
+        Map<String, URI> addresses = new LinkedHashMap<>();
+        try {
+            for (String name : nodeNames(nodeCount)) {
+                BookingContext context = BookingContext.forDirectory(baseDirectory.resolve(name));
+                contexts.add(context);
+                context.preload();
+                BookingHttpServer node = new BookingHttpServer(context, 0, clusterKey);
+                nodes.add(node);
+                addresses.put(name, URI.create("http://127.0.0.1:" + node.getPort()));
+            }
+            router = new ShardRouter(addresses, clusterKey, routerPort);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static LocalCluster start(Path baseDirectory, int nodeCount, int routerPort) throws IOException {
+        LocalCluster cluster = new LocalCluster(baseDirectory, nodeCount, routerPort);
+        cluster.nodes.forEach(BookingHttpServer::start);
+        cluster.router.start();
+        return cluster;
+    }
+
+    public static List<String> nodeNames(int nodeCount) {
+        List<String> names = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            names.add("node-" + i);
+        }
+        return names;
+    }
+
+    /**
+     * Writes each train into the {@code trains.json} of the node that owns it, creating the node
+     * directories. Existing node catalogs are replaced.
+     */
+    public static void partitionTrains(List<Train> trains, Path baseDirectory, int nodeCount) throws IOException {
+        ConsistentHashRing ring = new ConsistentHashRing(nodeNames(nodeCount));
+        Map<String, List<Train>> byNode = new HashMap<>();
+        for (String name : ring.getNodes()) {
+            byNode.put(name, new ArrayList<>());
+        }
+        for (Train train : trains) {
+            byNode.get(ShardRouter.nodeForTrain(ring, train.getTrainId())).add(train);
+        }
+        for (Map.Entry<String, List<Train>> node : byNode.entrySet()) {
+            Path directory = Files.createDirectories(baseDirectory.resolve(node.getKey()));
+            JsonMappers.TRAIN_MAPPER.writeValue(directory.resolve("trains.json").toFile(), node.getValue());
+        }
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    public URI getRouterUri() {
+        return URI.create("http://127.0.0.1:" + router.getPort());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (router != null) {
+            router.stop();
+        }
+        nodes.forEach(BookingHttpServer::stop);
+        for (BookingContext context : contexts) {
+            context.close();
+        }
+    }
+
+    /**
+     * Usage: {@code LocalCluster [nodes] [router port] [base directory]}. On first use the base directory
+     * is filled with the bundled train catalog, split across the nodes.
+     */
+    public static void main(String[] args) throws IOException {
+        Logging.configureConsole(Level.WARNING);
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : ShardRouter.DEFAULT_PORT;
+        Path base = Path.of(args.length > 2 ? args[2] : "build/cluster");
+        if (!Files.exists(base.resolve(nodeNames(1).get(0)))) {
+            List<Train> trains = new ArrayList<>();
+            JsonRecordLoader.load(new File(BookingContext.TRAIN_DB_PATH), JsonMappers.TRAIN_MAPPER, Train.class,
+                    trains::add);
+            partitionTrains(trains, base, nodeCount);
+        }
+        LocalCluster cluster = start(base, nodeCount, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                cluster.close();
+            } catch (IOException e) {
+                System.out.println("Error stopping the cluster: " + e.getMessage());
+            }
+        }));
+    }
+}
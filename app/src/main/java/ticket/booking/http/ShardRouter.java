@@ -0,0 +1,461 @@
+package ticket.booking.http;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ticket.booking.services.RouteIndex;
+import ticket.booking.util.ConsistentHashRing;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.Metrics;
+import ticket.booking.util.ThreadUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Front door of a sharded deployment. Trains are partitioned across booking nodes by consistent hashing
+ * of the train id, users (with their tickets) by hashing the user id; the router serves the public API
+ * of {@link BookingHttpServer} by forwarding each call to the node that owns it:
+ *
+ * <ul>
+ *   <li>searches ({@code GET /trains}) go to every node in parallel and the results are concatenated;</li>
+ *   <li>seat maps go to the train's node; sign-up, login, logout and {@code GET /bookings} to the user's;</li>
+ *   <li>a booking reserves seats on the train's node and then records the tickets on the user's node,
+ *       giving the seats back if that fails; a cancellation releases the seat first, then drops the
+ *       ticket from the user's node.</li>
+ * </ul>
+ *
+ * The router issues user ids derived from the user name, so name-addressed calls (sign-up, login) land
+ * on the same node as everything else for that user. Session tokens are returned as
+ * {@code <userId>.<node token>}, which lets the router route by user without keeping any state.
+ * Holds, the waitlist and journey planning span a single node's data and are not routed.
+ */
+public class ShardRouter {
+
+    public static final int DEFAULT_PORT = 8090;
+
+    private static final Logger LOG = Logger.getLogger(ShardRouter.class.getName());
+    private static final ObjectMapper MAPPER = JsonMappers.TRAIN_MAPPER;
+    private static final Duration NODE_TIMEOUT = Duration.ofSeconds(10);
+
+    private final ConsistentHashRing ring;
+    private final Map<String, URI> nodes;
+    private final String clusterKey;
+    private final HttpClient client;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param nodes      node name -> base URI; the names place the nodes on the ring, so they must stay
+     *                   the same across restarts while the addresses may change
+     * @param clusterKey the key the nodes were started with
+     */
+    public ShardRouter(Map<String, URI> nodes, String clusterKey, int port) throws IOException {
+        this.nodes = new LinkedHashMap<>(nodes);
+        this.ring = new ConsistentHashRing(new ArrayList<>(this.nodes.keySet()));
+        this.clusterKey = clusterKey;
+        this.executor = ThreadUtil.newPerTaskExecutor();
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).executor(executor).build();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/signup", exchange -> handle(exchange, this::signUp));
+        server.createContext("/login", exchange -> handle(exchange, this::login));
+        server.createContext("/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/trains", exchange -> handle(exchange, this::trains));
+        server.createContext("/bookings", exchange -> handle(exchange, this::bookings));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        server.createContext("/", exchange -> handle(exchange,
+                e -> error(501, "Not available through the router")));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Shard router listening on port " + getPort() + " for " + nodes.size() + " nodes");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String nodeForTrain(String trainId) {
+        return nodeForTrain(ring, trainId);
+    }
+
+    public String nodeForUser(String userId) {
+        return nodeForUser(ring, userId);
+    }
+
+    static String nodeForTrain(ConsistentHashRing ring, String trainId) {
+        return ring.nodeFor("train:" + RouteIndex.normalize(trainId));
+    }
+
+    static String nodeForUser(ConsistentHashRing ring, String userId) {
+        return ring.nodeFor("user:" + userId);
+    }
+
+    /**
+     * The id the router gives the user with this name.
+     */
+    public static String userIdFor(String name) {
+        return UUID.nameUUIDFromBytes(("user:" + name).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Usage: {@code ShardRouter port clusterKey name=http://host:port ...}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: ShardRouter <port> <cluster key> <name>=<node URI>...");
+            return;
+        }
+        Map<String, URI> nodes = new LinkedHashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected name=URI, got " + args[i]);
+            }
+            nodes.put(args[i].substring(0, eq), URI.create(args[i].substring(eq + 1)));
+        }
+        ShardRouter router = new ShardRouter(nodes, args[1], Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(router::stop));
+        router.start();
+    }
+
+    private interface Handler {
+        Reply handle(HttpExchange exchange) throws IOException;
+    }
+
+    /** A node's answer, or the router's own, relayed to the client as is. */
+    private record Reply(int status, byte[] body, String contentType) {
+
+        Reply(HttpResponse<byte[]> response) {
+            this(response.statusCode(), response.body(),
+                    response.headers().firstValue("Content-Type").orElse("application/json"));
+        }
+
+        boolean ok() {
+            return status / 100 == 2;
+        }
+
+        Map<String, Object> json() throws IOException {
+            return MAPPER.readValue(body, new TypeReference<>() {});
+        }
+    }
+
+    private static Reply json(int status, Object body) throws IOException {
+        return new Reply(status, MAPPER.writeValueAsBytes(body), "application/json");
+    }
+
+    private static Reply error(int status, String message) throws IOException {
+        return json(status, Map.of("error", message));
+    }
+
+    private static final class NodeUnavailableException extends IOException {
+
+        NodeUnavailableException(String node, Throwable cause) {
+            super("Shard " + node + " is unavailable", cause);
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        long start = System.nanoTime();
+        Reply reply;
+        try {
+            reply = handler.handle(exchange);
+        } catch (IllegalArgumentException e) {
+            reply = error(400, e.getMessage());
+        } catch (BookingHttpServer.BodyTooLargeException e) {
+            reply = error(413, e.getMessage());
+        } catch (NodeUnavailableException e) {
+            LOG.warning(() -> e.getMessage() + ": " + e.getCause());
+            reply = error(502, e.getMessage());
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Request to " + exchange.getRequestURI() + " failed", e);
+            reply = error(500, "Internal error");
+        }
+        exchange.getResponseHeaders().set("Content-Type", reply.contentType());
+        exchange.sendResponseHeaders(reply.status(), reply.body().length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(reply.body());
+        }
+        Metrics.histogram("router" + exchange.getHttpContext().getPath().replace('/', '.')).recordSince(start);
+        Metrics.counter("router.status." + reply.status()).increment();
+    }
+
+    private Reply metrics(HttpExchange exchange) {
+        return new Reply(200, Metrics.render().getBytes(StandardCharsets.UTF_8), "text/plain; charset=utf-8");
+    }
+
+    private Reply signUp(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return error(405, "Use POST");
+        }
+        Map<String, Object> request = readBody(exchange);
+        String userId = userIdFor(requireString(request, "name"));
+        request.put("user_id", userId);
+        return send(nodeForUser(userId), "POST", "/internal/users", request, null, exchange);
+    }
+
+    private Reply login(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return error(405, "Use POST");
+        }
+        Map<String, Object> request = readBody(exchange);
+        String userId = userIdFor(requireString(request, "name"));
+        Reply reply = send(nodeForUser(userId), "POST", "/login", request, null, exchange);
+        if (!reply.ok()) {
+            return reply;
+        }
+        Map<String, Object> session = reply.json();
+        session.put("token", session.get("user_id") + "." + session.get("token"));
+        return json(reply.status(), session);
+    }
+
+    private Reply logout(HttpExchange exchange) throws IOException {
+        Session session = session(exchange);
+        if (session == null) {
+            return unauthorized();
+        }
+        return send(nodeForUser(session.userId()), exchange.getRequestMethod(), "/logout", null, session.token(),
+                exchange);
+    }
+
+    private Reply trains(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return error(405, "Use GET");
+        }
+        String[] path = pathSegments(exchange);
+        URI uri = exchange.getRequestURI();
+        String target = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        if (path.length > 1) {
+            return send(nodeForTrain(path[1]), "GET", target, null, null, exchange);
+        }
+
+        List<CompletableFuture<Reply>> replies = new ArrayList<>();
+        for (String node : ring.getNodes()) {
+            replies.add(sendAsync(node, "GET", target, null, null, exchange));
+        }
+        List<Object> trains = new ArrayList<>();
+        for (CompletableFuture<Reply> pending : replies) {
+            Reply reply = await(pending);
+            if (!reply.ok()) {
+                return reply;
+            }
+            trains.addAll(MAPPER.readValue(reply.body(), new TypeReference<List<Object>>() {}));
+        }
+        return json(200, trains);
+    }
+
+    private Reply bookings(HttpExchange exchange) throws IOException {
+        Session session = session(exchange);
+        if (session == null) {
+            return unauthorized();
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+        String userNode = nodeForUser(session.userId());
+
+        if (path.length == 1 && "GET".equals(method)) {
+            return send(userNode, "GET", "/bookings", null, session.token(), exchange);
+        }
+        Reply verified = send(userNode, "GET", "/internal/session", null, session.token(), exchange);
+        if (!verified.ok() || !session.userId().equals(verified.json().get("user_id"))) {
+            return unauthorized();
+        }
+        String idempotencyKey = exchange.getRequestHeaders().getFirst(BookingHttpServer.IDEMPOTENCY_KEY_HEADER);
+        if (path.length == 1 && "POST".equals(method)) {
+            return book(session.userId(), readBody(exchange), idempotencyKey, exchange);
+        }
+        if (path.length == 3 && "cancel".equals(path[2]) && "POST".equals(method)) {
+            return cancel(session.userId(), path[1], idempotencyKey, exchange);
+        }
+        return error(404, "Not found");
+    }
+
+    /**
+     * With an idempotency key, a retry gets the tickets the train's node sold the first time and records
+     * them again, which the user's node ignores for tickets it already has. Seats given back after a
+     * failed recording are released without the key, so that retry books afresh.
+     */
+    private Reply book(String userId, Map<String, Object> request, String idempotencyKey, HttpExchange exchange)
+            throws IOException {
+        String trainNode = nodeForTrain(requireString(request, "train_id"));
+        request.put("user_id", userId);
+        if (idempotencyKey != null) {
+            request.put("idempotency_key", idempotencyKey);
+        }
+        Reply reserved = send(trainNode, "POST", "/internal/reservations", request, null, exchange);
+        if (!reserved.ok()) {
+            return reserved;
+        }
+        Map<String, Object> reservation = reserved.json();
+        List<?> tickets = (List<?>) reservation.get("tickets");
+        Reply recorded;
+        try {
+            recorded = send(nodeForUser(userId), "POST", "/internal/tickets",
+                    Map.of("user_id", userId, "tickets", tickets), null, exchange);
+        } catch (NodeUnavailableException e) {
+            recorded = error(502, e.getMessage());
+        }
+        if (!recorded.ok()) {
+            for (Object ticket : tickets) {
+                String ticketId = String.valueOf(((Map<?, ?>) ticket).get("ticket_id"));
+                send(trainNode, "POST", "/internal/reservations/" + encode(ticketId) + "/cancel",
+                        Map.of("user_id", userId), null, exchange);
+            }
+            LOG.warning(() -> "Could not record " + tickets.size() + " ticket(s) for " + userId
+                    + "; their seats were released");
+            return recorded;
+        }
+        return json(reserved.status(), reservation.get("response"));
+    }
+
+    /**
+     * With an idempotency key, a retry whose ticket is already gone from the user's node asks that node
+     * whether the key removed it, and reports the cancellation again if so.
+     */
+    private Reply cancel(String userId, String ticketId, String idempotencyKey, HttpExchange exchange)
+            throws IOException {
+        String userNode = nodeForUser(userId);
+        String ticketPath = "/internal/tickets/" + encode(ticketId) + "?user_id=" + encode(userId);
+        String removePath = idempotencyKey == null ? ticketPath
+                : ticketPath + "&idempotency_key=" + encode(idempotencyKey);
+        Reply ticket = send(userNode, "GET", ticketPath, null, null, exchange);
+        if (!ticket.ok()) {
+            if (ticket.status() == 404 && idempotencyKey != null) {
+                Reply removed = send(userNode, "DELETE", removePath, null, null, exchange);
+                if (removed.ok() && Boolean.TRUE.equals(removed.json().get("removed"))) {
+                    return json(200, Map.of("ticket_id", ticketId, "status", "cancelled"));
+                }
+            }
+            return ticket;
+        }
+        String trainNode = nodeForTrain(String.valueOf(ticket.json().get("train_id")));
+        Map<String, Object> release = new LinkedHashMap<>();
+        release.put("user_id", userId);
+        if (idempotencyKey != null) {
+            release.put("idempotency_key", idempotencyKey);
+        }
+        Reply released = send(trainNode, "POST", "/internal/reservations/" + encode(ticketId) + "/cancel",
+                release, null, exchange);
+        if (!released.ok() && released.status() != 404) {
+            return released;
+        }
+        send(userNode, "DELETE", removePath, null, null, exchange);
+        return json(200, Map.of("ticket_id", ticketId, "status", "cancelled"));
+    }
+
+    private record Session(String userId, String token) {}
+
+    /**
+     * The user and node token from a router token, or null when there is none.
+     */
+    private static Session session(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        String token = header.substring(7).trim();
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        return new Session(token.substring(0, dot), token.substring(dot + 1));
+    }
+
+    private static Reply unauthorized() throws IOException {
+        return error(401, "Missing or expired session token");
+    }
+
+    private Reply send(String node, String method, String target, Object body, String token,
+                       HttpExchange exchange) throws IOException {
+        return await(sendAsync(node, method, target, body, token, exchange));
+    }
+
+    private CompletableFuture<Reply> sendAsync(String node, String method, String target, Object body, String token,
+                                               HttpExchange exchange) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(nodes.get(node).resolve(target))
+                .timeout(NODE_TIMEOUT)
+                .header(BookingHttpServer.CLUSTER_KEY_HEADER, clusterKey)
+                .header("X-Forwarded-For", exchange.getRemoteAddress().getAddress().getHostAddress())
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)));
+        if (body != null) {
+            request.header("Content-Type", "application/json");
+        }
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, failure) -> {
+                    if (failure != null) {
+                        throw new CompletionException(new NodeUnavailableException(node, failure));
+                    }
+                    return new Reply(response);
+                });
+    }
+
+    private static Reply await(CompletableFuture<Reply> reply) throws IOException {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String[] pathSegments(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = BookingHttpServer.readBodyBytes(exchange);
+            if (body.length == 0) {
+                return new LinkedHashMap<>();
+            }
+            return MAPPER.readValue(body, new TypeReference<LinkedHashMap<String, Object>>() {});
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON body");
+        }
+    }
+
+    private static String requireString(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (value == null || value.toString().isEmpty()) {
+            throw new IllegalArgumentException("Missing field " + name);
+        }
+        return value.toString();
+    }
+}
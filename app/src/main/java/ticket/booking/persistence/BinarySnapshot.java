@@ -0,0 +1,527 @@
+package ticket.booking.persistence;
+
+import ticket.booking.entities.Cancellation;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Versioned binary snapshot of the train catalog or the user list, written and read through
+ * memory-mapped {@link FileChannel}s.
+ *
+ * <pre>
+ * int magic "TBKS" | short version | byte kind
+ * int stringCount | stringCount x string        station names, times, dates, train ids
+ * int recordCount | recordCount x [int length][payload]
+ * </pre>
+ *
+ * Strings are {@code [int utf8Length][bytes]} with length -1 for null. Strings that repeat across
+ * records are stored once in the table and referenced by index. Seat maps are written as one bit per
+ * seat (booked on any leg), followed by the exact leg mask of each partially booked seat; held seats
+ * are not written. Since version 2 a user record ends with the idempotency key of each of its tickets,
+ * and since version 3 with their request fingerprints and the user's keyed cancellations
+ * ({@code [int count] count x [ticketId][key][long cancelledAt]}); records of older versions simply stop
+ * before them. A record that fails to decode is skipped; a damaged header
+ * or record framing fails the whole load.
+ */
+public final class BinarySnapshot {
+
+    private static final Logger LOG = Logger.getLogger(BinarySnapshot.class.getName());
+
+    public static final String EXTENSION = ".snap";
+
+    private static final int MAGIC = 0x54424B53;
+    private static final short VERSION = 3;
+    private static final byte KIND_TRAINS = 1;
+    private static final byte KIND_USERS = 2;
+    private static final int NULL = -1;
+    private static final int NO_SEAT = Integer.MIN_VALUE;
+    private static final int WINDOW_BYTES = 16 * 1024 * 1024;
+
+    private BinarySnapshot() {}
+
+    public static void writeTrains(Path file, List<Train> trains) throws IOException {
+        StringTable strings = new StringTable();
+        for (Train train : trains) {
+            strings.add(train.getSource());
+            strings.add(train.getDestination());
+            if (train.getStations() != null) {
+                train.getStations().forEach(strings::add);
+            }
+            if (train.getStationTimes() != null) {
+                train.getStationTimes().forEach((station, time) -> {
+                    strings.add(station);
+                    strings.add(time);
+                });
+            }
+        }
+        write(file, KIND_TRAINS, strings, trains, BinarySnapshot::encodeTrain);
+    }
+
+    public static List<Train> readTrains(Path file) throws IOException {
+        return read(file, KIND_TRAINS, BinarySnapshot::decodeTrain);
+    }
+
+    public static void writeUsers(Path file, List<User> users) throws IOException {
+        StringTable strings = new StringTable();
+        for (User user : users) {
+            if (user.getTicketsBooked() != null) {
+                for (Ticket ticket : user.getTicketsBooked()) {
+                    strings.add(ticket.getTrainId());
+                    strings.add(ticket.getSource());
+                    strings.add(ticket.getDestination());
+                    strings.add(ticket.getDateOfTravel());
+                }
+            }
+        }
+        write(file, KIND_USERS, strings, users, BinarySnapshot::encodeUser);
+    }
+
+    public static List<User> readUsers(Path file) throws IOException {
+        return read(file, KIND_USERS, BinarySnapshot::decodeUser);
+    }
+
+    private interface Encoder<T> {
+        void encode(RecordBuffer out, StringTable strings, T value);
+    }
+
+    private interface Decoder<T> {
+        T decode(ByteBuffer in, String[] strings);
+    }
+
+    private static <T> void write(Path file, byte kind, StringTable strings, List<T> records, Encoder<T> encoder)
+            throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        RecordBuffer buffer = new RecordBuffer();
+        try (MappedWriter out = new MappedWriter(temp)) {
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.put(kind);
+            buffer.putInt(strings.size());
+            for (String value : strings.values()) {
+                buffer.putString(value);
+            }
+            buffer.putInt(records.size());
+            out.write(buffer);
+
+            for (T record : records) {
+                buffer.clear();
+                buffer.putInt(0);
+                encoder.encode(buffer, strings, record);
+                buffer.patchLength();
+                out.write(buffer);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> List<T> read(Path file, byte kind, Decoder<T> decoder) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map in one piece");
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (in.remaining() < Integer.BYTES + Short.BYTES + 1 || in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a booking snapshot");
+            }
+            short version = in.getShort();
+            if (version > VERSION) {
+                throw new IOException(file + " uses snapshot version " + version + ", newer than supported " + VERSION);
+            }
+            if (in.get() != kind) {
+                throw new IOException(file + " holds a different kind of snapshot");
+            }
+
+            String[] strings = new String[count(in, Integer.BYTES, false)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = getString(in);
+            }
+
+            int count = count(in, Integer.BYTES, false);
+            List<T> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = in.getInt();
+                int start = in.position();
+                try {
+                    records.add(decoder.decode(in.slice(start, length), strings));
+                } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                    LOG.warning("Skipping corrupt record #" + (i + 1) + " in " + file.getFileName() + ": " + e);
+                }
+                in.position(start + length);
+            }
+            return records;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException(file + " is truncated or corrupt", e);
+        }
+    }
+
+    private static void encodeTrain(RecordBuffer out, StringTable strings, Train train) {
+        out.putString(train.getTrainId());
+        out.putString(train.getTrainNo());
+        out.putInt(strings.ref(train.getSource()));
+        out.putInt(strings.ref(train.getDestination()));
+
+        List<String> stations = train.getStations();
+        out.putInt(stations == null ? NULL : stations.size());
+        if (stations != null) {
+            for (String station : stations) {
+                out.putInt(strings.ref(station));
+            }
+        }
+
+        Map<String, String> stationTimes = train.getStationTimes();
+        out.putInt(stationTimes == null ? NULL : stationTimes.size());
+        if (stationTimes != null) {
+            for (Map.Entry<String, String> entry : stationTimes.entrySet()) {
+                out.putInt(strings.ref(entry.getKey()));
+                out.putInt(strings.ref(entry.getValue()));
+            }
+        }
+
+        SeatInventory inventory = train.getSeatInventory();
+        long fullRun = inventory.fullRunMask();
+        int rows = inventory.getRowCount();
+        out.putInt(rows);
+        for (int row = 0; row < rows; row++) {
+            out.putInt(inventory.getSeatCount(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            int seats = inventory.getSeatCount(row);
+            int partial = 0;
+            for (int first = 0; first < seats; first += Byte.SIZE) {
+                int bits = 0;
+                for (int bit = 0; bit < Byte.SIZE && first + bit < seats; bit++) {
+                    long legs = inventory.getBookedLegs(row, first + bit);
+                    if (legs != 0) {
+                        bits |= 1 << bit;
+                        if (legs != fullRun) {
+                            partial++;
+                        }
+                    }
+                }
+                out.put((byte) bits);
+            }
+            out.putInt(partial);
+            for (int seat = 0; seat < seats && partial > 0; seat++) {
+                long legs = inventory.getBookedLegs(row, seat);
+                if (legs != 0 && legs != fullRun) {
+                    out.putInt(seat);
+                    out.putLong(legs);
+                }
+            }
+        }
+    }
+
+    private static Train decodeTrain(ByteBuffer in, String[] strings) {
+        Train train = new Train();
+        train.setTrainId(getString(in));
+        train.setTrainNo(getString(in));
+        train.setSource(ref(in, strings));
+        train.setDestination(ref(in, strings));
+
+        int stationCount = count(in, Integer.BYTES, true);
+        if (stationCount != NULL) {
+            List<String> stations = new ArrayList<>(stationCount);
+            for (int i = 0; i < stationCount; i++) {
+                stations.add(ref(in, strings));
+            }
+            train.setStations(stations);
+        }
+
+        int timeCount = count(in, Integer.BYTES * 2, true);
+        if (timeCount != NULL) {
+            Map<String, String> stationTimes = new LinkedHashMap<>();
+            for (int i = 0; i < timeCount; i++) {
+                stationTimes.put(ref(in, strings), ref(in, strings));
+            }
+            train.setStationTimes(stationTimes);
+        }
+
+        int[] seatsPerRow = new int[count(in, Integer.BYTES, false)];
+        long seatCount = 0;
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            seatsPerRow[row] = count(in, 0, false);
+            seatCount += seatsPerRow[row];
+        }
+        if (seatCount > (long) in.remaining() * Byte.SIZE) {
+            throw new IllegalArgumentException("Seat map of " + seatCount + " seats exceeds its record");
+        }
+        SeatInventory inventory = new SeatInventory(seatsPerRow, train.getSegmentCount());
+        long fullRun = inventory.fullRunMask();
+        for (int row = 0; row < seatsPerRow.length; row++) {
+            for (int first = 0; first < seatsPerRow[row]; first += Byte.SIZE) {
+                int bits = in.get() & 0xFF;
+                for (int bit = 0; bits != 0 && bit < Byte.SIZE; bit++, bits >>>= 1) {
+                    if ((bits & 1) != 0) {
+                        inventory.tryReserve(row, first + bit, fullRun);
+                    }
+                }
+            }
+            int partial = count(in, Integer.BYTES + Long.BYTES, false);
+            for (int i = 0; i < partial; i++) {
+                int seat = in.getInt();
+                long legs = in.getLong();
+                inventory.release(row, seat, fullRun);
+                inventory.tryReserve(row, seat, legs & fullRun);
+            }
+        }
+        train.setSeatInventory(inventory);
+        return train;
+    }
+
+    private static void encodeUser(RecordBuffer out, StringTable strings, User user) {
+        out.putString(user.getName());
+        out.putString(user.getPassword());
+        out.putString(user.getHashedPassword());
+        out.putString(user.getUserId());
+
+        List<Ticket> tickets = user.getTicketsBooked();
+        out.putInt(tickets == null ? NULL : tickets.size());
+        if (tickets != null) {
+            for (Ticket ticket : tickets) {
+                out.putString(ticket.getTicketId());
+                out.putString(ticket.getUserId());
+                out.putInt(strings.ref(ticket.getTrainId()));
+                out.putInt(ticket.getRow() == null ? NO_SEAT : ticket.getRow());
+                out.putInt(ticket.getSeat() == null ? NO_SEAT : ticket.getSeat());
+                out.putInt(strings.ref(ticket.getSource()));
+                out.putInt(strings.ref(ticket.getDestination()));
+                out.putInt(strings.ref(ticket.getDateOfTravel()));
+            }
+            for (Ticket ticket : tickets) {
+                out.putString(ticket.getIdempotencyKey());
+            }
+            for (Ticket ticket : tickets) {
+                out.putString(ticket.getRequestFingerprint());
+            }
+        }
+        List<Cancellation> cancellations = user.getCancellations();
+        out.putInt(cancellations == null ? 0 : cancellations.size());
+        if (cancellations != null) {
+            for (Cancellation cancellation : cancellations) {
+                out.putString(cancellation.getTicketId());
+                out.putString(cancellation.getIdempotencyKey());
+                out.putLong(cancellation.getCancelledAt());
+            }
+        }
+    }
+
+    private static User decodeUser(ByteBuffer in, String[] strings) {
+        String name = getString(in);
+        String password = getString(in);
+        String hashedPassword = getString(in);
+        String userId = getString(in);
+
+        int ticketCount = count(in, Integer.BYTES * 8, true);
+        List<Ticket> tickets = ticketCount == NULL ? null : new ArrayList<>(ticketCount);
+        for (int i = 0; i < ticketCount; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setTicketId(getString(in));
+            ticket.setUserId(getString(in));
+            ticket.setTrainId(ref(in, strings));
+            int row = in.getInt();
+            int seat = in.getInt();
+            ticket.setRow(row == NO_SEAT ? null : row);
+            ticket.setSeat(seat == NO_SEAT ? null : seat);
+            ticket.setSource(ref(in, strings));
+            ticket.setDestination(ref(in, strings));
+            ticket.setDateOfTravel(ref(in, strings));
+            tickets.add(ticket);
+        }
+        if (tickets != null && in.hasRemaining()) {
+            for (Ticket ticket : tickets) {
+                ticket.setIdempotencyKey(getString(in));
+            }
+        }
+        if (tickets != null && in.hasRemaining()) {
+            for (Ticket ticket : tickets) {
+                ticket.setRequestFingerprint(getString(in));
+            }
+        }
+        User user = new User(name, password, hashedPassword, tickets, userId);
+        int cancellationCount = in.hasRemaining() ? count(in, Integer.BYTES * 2 + Long.BYTES, false) : 0;
+        if (cancellationCount > 0) {
+            List<Cancellation> cancellations = new ArrayList<>(cancellationCount);
+            for (int i = 0; i < cancellationCount; i++) {
+                cancellations.add(new Cancellation(getString(in), getString(in), in.getLong()));
+            }
+            user.setCancellations(cancellations);
+        }
+        return user;
+    }
+
+    /**
+     * Reads an element count and checks it against the bytes left, so that a damaged count fails the
+     * record instead of allocating a huge array.
+     *
+     * @param minBytes smallest encoded size of one element
+     */
+    private static int count(ByteBuffer in, int minBytes, boolean nullable) {
+        int count = in.getInt();
+        if (nullable && count == NULL) {
+            return count;
+        }
+        if (count < 0 || (long) count * minBytes > in.remaining()) {
+            throw new IllegalArgumentException("Invalid count " + count + " at offset " + (in.position() - 4));
+        }
+        return count;
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = count(in, 1, true);
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String ref(ByteBuffer in, String[] strings) {
+        int index = in.getInt();
+        return index == NULL ? null : strings[index];
+    }
+
+    private static final class StringTable {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        void add(String value) {
+            if (value != null && indexes.putIfAbsent(value, values.size()) == null) {
+                values.add(value);
+            }
+        }
+
+        int ref(String value) {
+            return value == null ? NULL : indexes.get(value);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        List<String> values() {
+            return values;
+        }
+    }
+
+    /**
+     * Growable heap buffer one record is encoded into before it is copied to the mapped file.
+     */
+    private static final class RecordBuffer {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        void clear() {
+            buffer.clear();
+        }
+
+        void put(byte value) {
+            ensure(Byte.BYTES).put(value);
+        }
+
+        void putShort(short value) {
+            ensure(Short.BYTES).putShort(value);
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(NULL);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length).put(bytes);
+        }
+
+        void patchLength() {
+            buffer.putInt(0, buffer.position() - Integer.BYTES);
+        }
+
+        ByteBuffer flip() {
+            return buffer.flip();
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Sequential writer that maps the target file in fixed windows and trims it to size on close.
+     */
+    private static final class MappedWriter implements Closeable {
+
+        private final FileChannel channel;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        MappedWriter(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_BYTES);
+        }
+
+        void write(RecordBuffer record) throws IOException {
+            ByteBuffer source = record.flip();
+            while (source.hasRemaining()) {
+                if (!window.hasRemaining()) {
+                    window.force();
+                    windowStart += window.position();
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, WINDOW_BYTES);
+                }
+                int limit = source.limit();
+                source.limit(source.position() + Math.min(source.remaining(), window.remaining()));
+                window.put(source);
+                source.limit(limit);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                window.force();
+                channel.truncate(windowStart + window.position());
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
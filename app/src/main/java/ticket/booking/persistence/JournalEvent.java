@@ -0,0 +1,91 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.Getter;
+import lombok.Setter;
+import ticket.booking.entities.Cancellation;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+
+import java.util.List;
+
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class JournalEvent {
+
+    public enum Type {
+        SIGNUP,
+        BOOK,
+        CANCEL,
+        PASSWORD,
+        BATCH
+    }
+
+    private Type type;
+    private String userId;
+    private User user;
+    private Ticket ticket;
+    private List<Ticket> tickets;
+    private String ticketId;
+    private String hashedPassword;
+    private List<JournalEvent> events;
+    private Cancellation cancellation;
+
+    public JournalEvent() {}
+
+    private JournalEvent(Type type, String userId, User user, Ticket ticket, String ticketId) {
+        this.type = type;
+        this.userId = userId;
+        this.user = user;
+        this.ticket = ticket;
+        this.ticketId = ticketId;
+    }
+
+    public static JournalEvent signUp(User user) {
+        return new JournalEvent(Type.SIGNUP, user.getUserId(), user, null, null);
+    }
+
+    public static JournalEvent book(String userId, Ticket ticket) {
+        return new JournalEvent(Type.BOOK, userId, null, ticket, ticket.getTicketId());
+    }
+
+    public static JournalEvent bookAll(String userId, List<Ticket> tickets) {
+        JournalEvent event = new JournalEvent(Type.BOOK, userId, null, null, null);
+        event.tickets = tickets;
+        return event;
+    }
+
+    /**
+     * Wraps several events in one journal record, so they become durable together.
+     */
+    public static JournalEvent batch(List<JournalEvent> events) {
+        JournalEvent event = new JournalEvent(Type.BATCH, null, null, null, null);
+        event.events = events;
+        return event;
+    }
+
+    public static JournalEvent cancel(String userId, String ticketId) {
+        return cancel(userId, ticketId, null);
+    }
+
+    /**
+     * A cancellation; {@code cancellation} is set when it was made with an idempotency key.
+     */
+    public static JournalEvent cancel(String userId, String ticketId, Cancellation cancellation) {
+        JournalEvent event = new JournalEvent(Type.CANCEL, userId, null, null, ticketId);
+        event.cancellation = cancellation;
+        return event;
+    }
+
+    public static JournalEvent changePassword(String userId, String hashedPassword) {
+        JournalEvent event = new JournalEvent(Type.PASSWORD, userId, null, null, null);
+        event.hashedPassword = hashedPassword;
+        return event;
+    }
+}
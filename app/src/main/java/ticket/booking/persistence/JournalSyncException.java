@@ -0,0 +1,16 @@
+package ticket.booking.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A change was appended to the journal but the journal could not be forced to disk. The change has
+ * been applied and its record stays in the journal, so it is replayed after a restart if the data
+ * reached the disk after all. Callers must not undo it as if it had never been made.
+ */
+public class JournalSyncException extends IOException {
+
+    public JournalSyncException(Path journal, IOException cause) {
+        super("Could not sync " + journal + ": " + cause.getMessage(), cause);
+    }
+}
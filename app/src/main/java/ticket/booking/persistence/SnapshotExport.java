@@ -0,0 +1,34 @@
+package ticket.booking.persistence;
+
+import ticket.booking.services.BookingContext;
+import ticket.booking.services.TrainService;
+import ticket.booking.util.JsonMappers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes the current train catalog and user list back out as JSON, e.g. for inspection or before
+ * switching {@code booking.snapshot.format} to {@code json}. State is read from the binary snapshots
+ * (falling back to the JSON files) plus any pending journal entries.
+ *
+ * <pre>
+ * SnapshotExport [trains.json] [users.json]
+ * </pre>
+ */
+public class SnapshotExport {
+
+    public static void main(String[] args) throws IOException {
+        String trainPath = args.length > 0 ? args[0] : BookingContext.TRAIN_DB_PATH;
+        String userPath = args.length > 1 ? args[1] : BookingContext.USER_FILE_PATH;
+
+        TrainService trainService = new TrainService(trainPath, SnapshotFormat.BINARY);
+        trainService.exportJson(trainPath);
+        System.out.println("Exported " + trainService.getTrains().size() + " trains to " + trainPath);
+
+        try (UserRepository users = new UserRepository(userPath, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            users.exportJson(Path.of(userPath));
+            System.out.println("Exported " + users.size() + " users to " + userPath);
+        }
+    }
+}
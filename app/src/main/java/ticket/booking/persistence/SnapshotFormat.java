@@ -0,0 +1,24 @@
+package ticket.booking.persistence;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * On-disk format for checkpoints of the train catalog and the user list. With {@link #BINARY} the
+ * snapshot is written next to the JSON file as {@code <name>.snap} and preferred on load; the JSON
+ * file is then only read when no binary snapshot exists yet, which makes it the import format.
+ */
+public enum SnapshotFormat {
+    JSON,
+    BINARY;
+
+    public static final SnapshotFormat DEFAULT =
+            valueOf(System.getProperty("booking.snapshot.format", "binary").toUpperCase(Locale.ROOT));
+
+    public static Path binaryPathFor(Path jsonPath) {
+        String fileName = jsonPath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return jsonPath.resolveSibling(baseName + BinarySnapshot.EXTENSION);
+    }
+}
@@ -0,0 +1,43 @@
+package ticket.booking.persistence;
+
+import ticket.booking.entities.User;
+import ticket.booking.services.BookingContext;
+import ticket.booking.util.JsonMappers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Rewrites a users file in the current format. Tickets from older files embed a full copy of their
+ * train; reading them keeps only the train id, so writing the list back is all the migration needs.
+ * Pending journal entries are folded into the rewritten file as well; the journal itself is kept, since
+ * replaying it again is harmless.
+ *
+ * <pre>
+ * UserFileMigration [users.json ...]
+ * </pre>
+ */
+public class UserFileMigration {
+
+    public static void main(String[] args) throws IOException {
+        String[] paths = args.length > 0 ? args : new String[]{BookingContext.USER_FILE_PATH};
+        for (String path : paths) {
+            migrate(path);
+        }
+    }
+
+    public static void migrate(String path) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) {
+            System.out.println("Skipping " + path + ": file not found.");
+            return;
+        }
+        long before = file.length();
+        try (UserStore store = new UserStore(path, JsonMappers.USER_MAPPER, SnapshotFormat.JSON)) {
+            List<User> users = store.load();
+            store.writeJson(file.toPath(), users);
+            System.out.printf("Migrated %s: %d users, %d -> %d bytes%n", path, users.size(), before, file.length());
+        }
+    }
+}
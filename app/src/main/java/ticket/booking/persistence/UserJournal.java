@@ -0,0 +1,163 @@
+package ticket.booking.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal file. Each record is {@code [int length][int crc32][payload]}; a record whose
+ * length or checksum does not match is treated as a torn write and everything from it onwards is
+ * dropped on {@link #readAll()}.
+ *
+ * <p>Writers append under one lock and then call {@link #commit(long)}. Whoever gets the sync lock
+ * first forces everything written so far, so concurrent committers share a single fsync.
+ */
+public class UserJournal implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(UserJournal.class.getName());
+
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int MAX_RECORD_BYTES = 256 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+
+    private volatile long writtenPosition;
+    private volatile long durablePosition;
+
+    public UserJournal(Path path) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.writtenPosition = channel.size();
+        this.durablePosition = writtenPosition;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long append(byte[] payload) throws IOException {
+        if (payload.length > MAX_RECORD_BYTES) {
+            throw new IOException("Journal record of " + payload.length + " bytes exceeds the "
+                    + MAX_RECORD_BYTES + " byte limit");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+
+        synchronized (writeLock) {
+            long start = channel.size();
+            long position = start;
+            try {
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+            } catch (IOException e) {
+                // A torn record would end replay there and hide every record appended after it.
+                try {
+                    channel.truncate(start);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure);
+                }
+                throw e;
+            }
+            writtenPosition = position;
+            return position;
+        }
+    }
+
+    public void commit(long position) throws IOException {
+        if (durablePosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durablePosition >= position) {
+                return;
+            }
+            long target = writtenPosition;
+            channel.force(false);
+            durablePosition = target;
+        }
+    }
+
+    public List<byte[]> readAll() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        synchronized (writeLock) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+
+            while (position + HEADER_BYTES <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                    break;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                while (payload.hasRemaining()) {
+                    if (channel.read(payload, position + HEADER_BYTES + payload.position()) < 0) {
+                        break;
+                    }
+                }
+                crc.reset();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                records.add(payload.array());
+                position += HEADER_BYTES + length;
+            }
+
+            if (position < size) {
+                LOG.warning("Discarding " + (size - position) + " bytes of incomplete journal tail in " + path);
+                channel.truncate(position);
+                channel.force(false);
+            }
+            writtenPosition = position;
+            durablePosition = position;
+        }
+        return records;
+    }
+
+    public void reset() throws IOException {
+        synchronized (writeLock) {
+            synchronized (syncLock) {
+                channel.truncate(0);
+                channel.force(false);
+                writtenPosition = 0;
+                durablePosition = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,305 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.entities.Cancellation;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory user store indexed by user id, user name and ticket id, persisted through {@link UserStore}.
+ * Lookups are single hash probes; {@link #authenticate(String, String)} runs exactly one BCrypt check.
+ * Changes are appended to the journal and then applied under one lock, but the sync happens after it
+ * is released, so concurrent bookings share fsyncs instead of queueing behind each other's. A change
+ * whose append fails is not applied; one whose sync fails stays applied and is reported with a
+ * {@link JournalSyncException}. Periodic snapshots copy the users under the lock and are written by a
+ * background thread.
+ */
+public class UserRepository implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(UserRepository.class.getName());
+
+    public record BookedTicket(String userId, Ticket ticket) {}
+
+    private final UserStore userStore;
+    private final List<User> users = new ArrayList<>();
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+    private final Map<String, BookedTicket> ticketsById = new ConcurrentHashMap<>();
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "user-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UserRepository(String snapshotPath, ObjectMapper objectMapper) throws IOException {
+        this(snapshotPath, objectMapper, SnapshotFormat.DEFAULT);
+    }
+
+    public UserRepository(String snapshotPath, ObjectMapper objectMapper, SnapshotFormat snapshotFormat)
+            throws IOException {
+        this.userStore = new UserStore(snapshotPath, objectMapper, snapshotFormat);
+        reload();
+    }
+
+    public synchronized void reload() throws IOException {
+        List<User> loaded;
+        try {
+            loaded = userStore.load();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error loading user list", e);
+            loaded = new ArrayList<>();
+        }
+
+        users.clear();
+        usersById.clear();
+        usersByName.clear();
+        ticketsById.clear();
+        for (User user : loaded) {
+            index(user);
+        }
+    }
+
+    private void index(User user) {
+        users.add(user);
+        usersById.putIfAbsent(user.getUserId(), user);
+        usersByName.putIfAbsent(user.getName(), user);
+        if (user.getTicketsBooked() != null) {
+            for (Ticket ticket : user.getTicketsBooked()) {
+                indexTicket(user.getUserId(), ticket);
+            }
+        }
+    }
+
+    private void indexTicket(String userId, Ticket ticket) {
+        if (ticket.getTicketId() != null) {
+            ticketsById.put(ticket.getTicketId(), new BookedTicket(userId, ticket));
+        }
+    }
+
+    public int size() {
+        return usersById.size();
+    }
+
+    public Optional<User> findById(String userId) {
+        return userId == null ? Optional.empty() : Optional.ofNullable(usersById.get(userId));
+    }
+
+    public Optional<User> findByName(String name) {
+        return name == null ? Optional.empty() : Optional.ofNullable(usersByName.get(name));
+    }
+
+    public Optional<User> authenticate(String name, String password) {
+        return findByName(name)
+                .filter(u -> password != null && u.getHashedPassword() != null
+                        && UserServiceUtil.checkPassword(password, u.getHashedPassword()));
+    }
+
+    public Optional<BookedTicket> findTicket(String ticketId) {
+        return ticketId == null ? Optional.empty() : Optional.ofNullable(ticketsById.get(ticketId));
+    }
+
+    public boolean add(User user) throws IOException {
+        byte[] record = userStore.encode(JournalEvent.signUp(user));
+        long position;
+        synchronized (this) {
+            if (usersByName.containsKey(user.getName()) || usersById.containsKey(user.getUserId())) {
+                return false;
+            }
+            position = userStore.append(record);
+            index(user);
+            checkpoint();
+        }
+        userStore.commit(position);
+        return true;
+    }
+
+    public boolean addTicket(String userId, Ticket ticket) throws IOException {
+        byte[] record = userStore.encode(JournalEvent.book(userId, ticket));
+        long position;
+        synchronized (this) {
+            User owner = usersById.get(userId);
+            if (owner == null) {
+                return false;
+            }
+            position = userStore.append(record);
+            owner.addTicketBooked(ticket);
+            indexTicket(userId, ticket);
+            checkpoint();
+        }
+        userStore.commit(position);
+        return true;
+    }
+
+    /**
+     * Adds a group of tickets with a single journal record, so they become durable together.
+     */
+    public boolean addTickets(String userId, List<Ticket> tickets) throws IOException {
+        byte[] record = userStore.encode(JournalEvent.bookAll(userId, tickets));
+        long position;
+        synchronized (this) {
+            User owner = usersById.get(userId);
+            if (owner == null) {
+                return false;
+            }
+            position = userStore.append(record);
+            for (Ticket ticket : tickets) {
+                owner.addTicketBooked(ticket);
+                indexTicket(userId, ticket);
+            }
+            checkpoint();
+        }
+        userStore.commit(position);
+        return true;
+    }
+
+    /**
+     * Adds tickets for many users with a single journal record and a single sync. Users that do not
+     * exist are skipped and returned, so the caller can give their seats back. Once the record is
+     * appended the batch stands: a failed snapshot afterwards is only logged, and a
+     * {@link JournalSyncException} means the tickets are applied but the sync did not complete.
+     */
+    public List<String> addTicketsBatch(Map<String, List<Ticket>> ticketsByUser) throws IOException {
+        List<String> missing = new ArrayList<>();
+        long position;
+        synchronized (this) {
+            List<JournalEvent> events = new ArrayList<>(ticketsByUser.size());
+            for (Map.Entry<String, List<Ticket>> entry : ticketsByUser.entrySet()) {
+                if (usersById.containsKey(entry.getKey())) {
+                    events.add(JournalEvent.bookAll(entry.getKey(), entry.getValue()));
+                } else {
+                    missing.add(entry.getKey());
+                }
+            }
+            if (events.isEmpty()) {
+                return missing;
+            }
+            position = userStore.append(userStore.encode(JournalEvent.batch(events)));
+            for (JournalEvent event : events) {
+                User owner = usersById.get(event.getUserId());
+                for (Ticket ticket : event.getTickets()) {
+                    owner.addTicketBooked(ticket);
+                    indexTicket(event.getUserId(), ticket);
+                }
+            }
+            checkpoint();
+        }
+        userStore.commit(position);
+        return missing;
+    }
+
+    public boolean removeTicket(String userId, String ticketId) throws IOException {
+        return removeTicket(userId, ticketId, null);
+    }
+
+    /**
+     * Cancels a ticket. With an {@code idempotencyKey} the cancellation is journalled together with the
+     * key and kept on the user, so the key can be recognised again after a restart.
+     */
+    public boolean removeTicket(String userId, String ticketId, String idempotencyKey) throws IOException {
+        Cancellation cancellation = idempotencyKey == null ? null
+                : new Cancellation(ticketId, idempotencyKey, System.currentTimeMillis());
+        byte[] record = userStore.encode(JournalEvent.cancel(userId, ticketId, cancellation));
+        long position;
+        synchronized (this) {
+            BookedTicket booked = ticketsById.get(ticketId);
+            if (booked == null || !booked.userId().equals(userId)) {
+                return false;
+            }
+            position = userStore.append(record);
+            User owner = usersById.get(userId);
+            owner.removeTicketBooked(ticketId);
+            if (cancellation != null) {
+                owner.addCancellation(cancellation, UserStore.cancellationsRetainedFrom());
+            }
+            ticketsById.remove(ticketId);
+            checkpoint();
+        }
+        userStore.commit(position);
+        return true;
+    }
+
+    public boolean updatePasswordHash(String userId, String hashedPassword) throws IOException {
+        byte[] record = userStore.encode(JournalEvent.changePassword(userId, hashedPassword));
+        long position;
+        synchronized (this) {
+            User user = usersById.get(userId);
+            if (user == null) {
+                return false;
+            }
+            position = userStore.append(record);
+            user.setHashedPassword(hashedPassword);
+            checkpoint();
+        }
+        userStore.commit(position);
+        return true;
+    }
+
+    public synchronized List<User> getUsers() {
+        return new ArrayList<>(users);
+    }
+
+    /**
+     * Starts a snapshot once enough changes have been journaled. Runs under the repository lock after
+     * the latest change has been applied, so the copy taken here includes everything in the journal
+     * segment it seals; the copy is written in the background. A failed snapshot leaves the journal
+     * intact and is only logged: the change it follows is already journaled and must not be reported as
+     * failed.
+     */
+    private void checkpoint() {
+        if (!userStore.shouldSnapshot()) {
+            return;
+        }
+        UserStore.Snapshot snapshot;
+        try {
+            snapshot = userStore.beginSnapshot(users);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error sealing the user journal for a snapshot", e);
+            return;
+        }
+        if (snapshot != null) {
+            snapshotWriter.execute(() -> {
+                try {
+                    userStore.writeSnapshot(snapshot);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Error writing user snapshot; the journal still holds every change", e);
+                }
+            });
+        }
+    }
+
+    public synchronized void snapshot() throws IOException {
+        userStore.snapshot(users);
+    }
+
+    public synchronized void exportJson(Path target) throws IOException {
+        userStore.writeJson(target, users);
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotWriter.shutdown();
+        try {
+            if (!snapshotWriter.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warning("User snapshot still being written at shutdown; the journal holds every change");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        userStore.close();
+    }
+}
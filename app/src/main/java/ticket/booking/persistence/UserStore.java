@@ -0,0 +1,353 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+import ticket.booking.util.JsonRecordLoader;
+import ticket.booking.util.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Snapshot plus journal persistence for the user list. The compacted snapshot is {@code users.snap}
+ * (or {@code users.json} with {@link SnapshotFormat#JSON}); every signup/booking/cancel after it is
+ * appended to {@code users.journal}. Replaying events is idempotent, so a crash between writing a
+ * snapshot and truncating the journal is harmless.
+ *
+ * <p>Periodic snapshots are taken in two steps so that writing one does not hold up changes:
+ * {@link #beginSnapshot} seals the journal as {@code users.journal.sealed} and copies the users, which is
+ * quick and runs under the caller's lock; {@link #writeSnapshot} then writes the copy and deletes the
+ * sealed segment. Until then the sealed segment is replayed before the journal on load.
+ */
+public class UserStore implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(UserStore.class.getName());
+
+    private static final int SNAPSHOT_INTERVAL = 1000;
+    /** Same window as the idempotency cache's {@code -Dbooking.idempotency.ttlMinutes}. */
+    private static final long CANCELLATION_RETENTION_MILLIS =
+            TimeUnit.MINUTES.toMillis(Long.getLong("booking.idempotency.ttlMinutes", 24 * 60));
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader eventReader;
+    private final File snapshotFile;
+    private final Path binarySnapshot;
+    private final SnapshotFormat snapshotFormat;
+    private final Path journalPath;
+    private final Path sealedPath;
+    private final Object snapshotLock = new Object();
+    private volatile UserJournal journal;
+    private UserJournal sealed;
+    private int eventsSinceSnapshot;
+    private volatile boolean snapshotPending;
+    private long snapshotsBegun;
+    private long snapshotsWritten;
+
+    /**
+     * Users copied by {@link #beginSnapshot}, to hand to {@link #writeSnapshot}.
+     */
+    public record Snapshot(long sequence, List<User> users) {}
+
+    public UserStore(String snapshotPath, ObjectMapper objectMapper) throws IOException {
+        this(snapshotPath, objectMapper, SnapshotFormat.DEFAULT);
+    }
+
+    public UserStore(String snapshotPath, ObjectMapper objectMapper, SnapshotFormat snapshotFormat) throws IOException {
+        this.objectMapper = objectMapper;
+        this.eventReader = objectMapper.readerFor(JournalEvent.class);
+        this.snapshotFile = new File(snapshotPath);
+        this.binarySnapshot = SnapshotFormat.binaryPathFor(snapshotFile.toPath());
+        this.snapshotFormat = snapshotFormat;
+        this.journalPath = journalPathFor(snapshotFile.toPath());
+        this.sealedPath = journalPath.resolveSibling(journalPath.getFileName() + ".sealed");
+        this.journal = new UserJournal(journalPath);
+    }
+
+    private static Path journalPathFor(Path snapshotPath) {
+        String fileName = snapshotPath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return snapshotPath.resolveSibling(baseName + ".journal");
+    }
+
+    public List<User> load() throws IOException {
+        long start = System.nanoTime();
+        List<User> users;
+        if (snapshotFormat == SnapshotFormat.BINARY && Files.exists(binarySnapshot)) {
+            users = BinarySnapshot.readUsers(binarySnapshot);
+        } else {
+            users = new ArrayList<>();
+            JsonRecordLoader.load(snapshotFile, objectMapper, User.class, users::add);
+        }
+
+        Replay replay = new Replay(users);
+        List<byte[]> records = new ArrayList<>();
+        boolean sealedSegment = Files.exists(sealedPath);
+        if (sealedSegment) {
+            try (UserJournal segment = new UserJournal(sealedPath)) {
+                records.addAll(segment.readAll());
+            }
+        }
+        records.addAll(journal.readAll());
+        for (byte[] record : records) {
+            replay.apply(eventReader.readValue(record));
+        }
+        eventsSinceSnapshot = records.size();
+        if (sealedSegment) {
+            // a snapshot was being written when the process stopped; finish it with the replayed state
+            snapshot(users);
+        }
+        Metrics.histogram("load.users").recordSince(start);
+        return users;
+    }
+
+    public void record(JournalEvent event) throws IOException {
+        commit(append(encode(event)));
+    }
+
+    public byte[] encode(JournalEvent event) throws IOException {
+        long start = System.nanoTime();
+        byte[] record = objectMapper.writeValueAsBytes(event);
+        Metrics.histogram("journal.encode").recordSince(start);
+        return record;
+    }
+
+    /**
+     * Appends an encoded event without waiting for it to reach the disk; pass the returned position
+     * to {@link #commit(long)}.
+     */
+    public long append(byte[] record) throws IOException {
+        long position = journal.append(record);
+        eventsSinceSnapshot++;
+        return position;
+    }
+
+    /**
+     * Waits until the journal is durable up to {@code position}.
+     *
+     * @throws JournalSyncException if the sync fails; the records stay in the journal
+     */
+    public void commit(long position) throws JournalSyncException {
+        long start = System.nanoTime();
+        try {
+            journal.commit(position);
+        } catch (IOException e) {
+            throw new JournalSyncException(journal.getPath(), e);
+        }
+        Metrics.histogram("journal.sync").recordSince(start);
+    }
+
+    public boolean shouldSnapshot() {
+        return eventsSinceSnapshot >= SNAPSHOT_INTERVAL;
+    }
+
+    /**
+     * Writes {@code users} as the new snapshot and empties the journal, all in the calling thread; call
+     * it under the caller's lock. If the snapshot cannot be written the journal is kept, and the next
+     * attempt waits for another {@value #SNAPSHOT_INTERVAL} events.
+     */
+    public void snapshot(List<User> users) throws IOException {
+        long sequence = ++snapshotsBegun;
+        eventsSinceSnapshot = 0;
+        synchronized (snapshotLock) {
+            write(sequence, users);
+            journal.reset();
+        }
+    }
+
+    /**
+     * Starts a periodic snapshot: seals the journal written so far, opens a fresh one and copies
+     * {@code users}. Call it under the lock that orders changes, then pass the result to
+     * {@link #writeSnapshot} after letting go of it. Returns null while an earlier snapshot is still being
+     * written. If the last write failed its sealed segment is kept and the journal is not sealed again;
+     * the next snapshot covers both.
+     */
+    public Snapshot beginSnapshot(List<User> users) throws IOException {
+        if (snapshotPending) {
+            return null;
+        }
+        eventsSinceSnapshot = 0;
+        synchronized (snapshotLock) {
+            if (sealed == null) {
+                // records appended before the seal are synced here, so later commits need only the new journal
+                journal.commit(Long.MAX_VALUE);
+                Files.move(journalPath, sealedPath, StandardCopyOption.ATOMIC_MOVE);
+                sealed = journal;
+                journal = new UserJournal(journalPath);
+            }
+        }
+        List<User> copy = new ArrayList<>(users.size());
+        for (User user : users) {
+            copy.add(user.copy());
+        }
+        snapshotPending = true;
+        return new Snapshot(++snapshotsBegun, copy);
+    }
+
+    /**
+     * Writes a snapshot begun with {@link #beginSnapshot} and deletes the sealed segment it covers. A
+     * snapshot written meanwhile by {@link #snapshot} is newer, and this one is then dropped.
+     */
+    public void writeSnapshot(Snapshot snapshot) throws IOException {
+        try {
+            synchronized (snapshotLock) {
+                write(snapshot.sequence(), snapshot.users());
+            }
+        } finally {
+            snapshotPending = false;
+        }
+    }
+
+    private void write(long sequence, List<User> users) throws IOException {
+        if (sequence <= snapshotsWritten) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (snapshotFormat == SnapshotFormat.BINARY) {
+            BinarySnapshot.writeUsers(binarySnapshot, users);
+        } else {
+            writeJson(snapshotFile.toPath(), users);
+        }
+        snapshotsWritten = sequence;
+        dropSealed();
+        Metrics.histogram("save.users").recordSince(start);
+    }
+
+    private void dropSealed() throws IOException {
+        UserJournal segment = sealed;
+        sealed = null;
+        Files.deleteIfExists(sealedPath);
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOG.warning(() -> "Could not close sealed journal segment: " + e.getMessage());
+            }
+        }
+    }
+
+    public void writeJson(Path target, List<User> users) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), users);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Oldest keyed cancellation worth keeping (epoch millis); older ones can no longer be retried.
+     */
+    static long cancellationsRetainedFrom() {
+        return System.currentTimeMillis() - CANCELLATION_RETENTION_MILLIS;
+    }
+
+    /**
+     * Replays journal events onto a user list. Users and, once a user's bookings are first replayed,
+     * their ticket ids are indexed, so a journal of many events costs hash probes instead of scans of
+     * the list and of each user's tickets.
+     */
+    private static final class Replay {
+
+        private final List<User> users;
+        private final Map<String, User> usersById = new HashMap<>();
+        private final Map<String, Set<String>> bookedIds = new HashMap<>();
+
+        Replay(List<User> users) {
+            this.users = users;
+            for (User user : users) {
+                if (user.getUserId() != null) {
+                    usersById.putIfAbsent(user.getUserId(), user);
+                }
+            }
+        }
+
+        void apply(JournalEvent event) {
+            if (event.getType() == JournalEvent.Type.BATCH) {
+                if (event.getEvents() != null) {
+                    event.getEvents().forEach(this::apply);
+                }
+                return;
+            }
+            User owner = event.getUserId() == null ? null : usersById.get(event.getUserId());
+
+            switch (event.getType()) {
+                case SIGNUP:
+                    if (owner == null && event.getUser() != null) {
+                        users.add(event.getUser());
+                        if (event.getUser().getUserId() != null) {
+                            usersById.put(event.getUser().getUserId(), event.getUser());
+                        }
+                    }
+                    break;
+                case BOOK:
+                    if (owner != null) {
+                        if (event.getTicket() != null) {
+                            addIfAbsent(owner, event.getTicket());
+                        }
+                        if (event.getTickets() != null) {
+                            event.getTickets().forEach(ticket -> addIfAbsent(owner, ticket));
+                        }
+                    }
+                    break;
+                case CANCEL:
+                    if (owner != null) {
+                        owner.removeTicketBooked(event.getTicketId());
+                        Set<String> booked = bookedIds.get(owner.getUserId());
+                        if (booked != null) {
+                            booked.remove(event.getTicketId());
+                        }
+                        if (event.getCancellation() != null) {
+                            owner.addCancellation(event.getCancellation(), cancellationsRetainedFrom());
+                        }
+                    }
+                    break;
+                case PASSWORD:
+                    if (owner != null) {
+                        owner.setHashedPassword(event.getHashedPassword());
+                    }
+                    break;
+            }
+        }
+
+        private void addIfAbsent(User owner, Ticket ticket) {
+            Set<String> booked = bookedIds.computeIfAbsent(owner.getUserId(), id -> {
+                Set<String> ids = new HashSet<>();
+                List<Ticket> tickets = owner.getTicketsBooked();
+                if (tickets != null) {
+                    tickets.forEach(t -> ids.add(t.getTicketId()));
+                }
+                return ids;
+            });
+            if (booked.add(ticket.getTicketId())) {
+                owner.addTicketBooked(ticket);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+        synchronized (snapshotLock) {
+            if (sealed != null) {
+                sealed.close();
+            }
+        }
+    }
+}
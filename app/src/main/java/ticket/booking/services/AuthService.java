@@ -0,0 +1,207 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.User;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Runs BCrypt on a dedicated, bounded pool so slow password hashing cannot starve booking threads.
+ * Attempts are rate limited per user name and per client (e.g. remote IP); when the limit is hit or
+ * the queue is full the returned future fails with {@link RejectedException} instead of queueing.
+ * Hashes weaker than the configured cost are transparently re-hashed after a successful login.
+ * A login for an unknown name is checked against a dummy hash of the same cost, so its timing does not
+ * tell whether the name exists. Idle rate-limit buckets are dropped a few at a time on each attempt.
+ */
+public class AuthService implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(AuthService.class.getName());
+
+    public static final int THREADS = Integer.getInteger("booking.auth.threads", Runtime.getRuntime().availableProcessors());
+    public static final int QUEUE_CAPACITY = Integer.getInteger("booking.auth.queue", 1024);
+    public static final int ATTEMPTS_PER_MINUTE = Integer.getInteger("booking.auth.attemptsPerMinute", 30);
+
+    private static final int SWEEP_PER_ATTEMPT = 4;
+
+    public static class RejectedException extends RuntimeException {
+
+        private final boolean rateLimited;
+
+        public RejectedException(String message, boolean rateLimited) {
+            super(message);
+            this.rateLimited = rateLimited;
+        }
+
+        public boolean isRateLimited() {
+            return rateLimited;
+        }
+    }
+
+    private final UserRepository userRepository;
+    private final int cost;
+    private final int attemptsPerMinute;
+    private final ThreadPoolExecutor pool;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Object sweepLock = new Object();
+    private Iterator<TokenBucket> sweep = Collections.emptyIterator();
+    private final CompletableFuture<String> dummyHash;
+
+    public AuthService(UserRepository userRepository) {
+        this(userRepository, UserServiceUtil.BCRYPT_COST, THREADS, QUEUE_CAPACITY);
+    }
+
+    public AuthService(UserRepository userRepository, int cost, int threads, int queueCapacity) {
+        this(userRepository, cost, threads, queueCapacity, ATTEMPTS_PER_MINUTE);
+    }
+
+    public AuthService(UserRepository userRepository, int cost, int threads, int queueCapacity,
+                       int attemptsPerMinute) {
+        this.userRepository = userRepository;
+        this.cost = cost;
+        this.attemptsPerMinute = attemptsPerMinute;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "bcrypt-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.dummyHash = CompletableFuture.supplyAsync(
+                () -> UserServiceUtil.hashPassword(UUID.randomUUID().toString(), cost), pool);
+    }
+
+    public CompletableFuture<Optional<User>> authenticate(String name, String password, String clientKey) {
+        if (!tryAcquire("user:" + name) || (clientKey != null && !tryAcquire("client:" + clientKey))) {
+            return CompletableFuture.failedFuture(new RejectedException("Too many login attempts", true));
+        }
+
+        if (password == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        Optional<User> candidate = userRepository.findByName(name);
+        if (candidate.isEmpty() || candidate.get().getHashedPassword() == null) {
+            return dummyHash.thenCompose(hash -> submit(() -> {
+                UserServiceUtil.checkPassword(password, hash);
+                return Optional.<User>empty();
+            }));
+        }
+
+        User user = candidate.get();
+        String hashedPassword = user.getHashedPassword();
+        return submit(() -> UserServiceUtil.checkPassword(password, hashedPassword))
+                .thenApply(matches -> {
+                    if (!matches) {
+                        return Optional.<User>empty();
+                    }
+                    int storedCost = UserServiceUtil.costOf(hashedPassword);
+                    if (storedCost >= 0 && storedCost < cost) {
+                        rehash(user, password);
+                    }
+                    return Optional.of(user);
+                });
+    }
+
+    public CompletableFuture<String> hashPassword(String plainPassword) {
+        return submit(() -> UserServiceUtil.hashPassword(plainPassword, cost));
+    }
+
+    private void rehash(User user, String password) {
+        hashPassword(password).thenAccept(newHash -> {
+            try {
+                userRepository.updatePasswordHash(user.getUserId(), newHash);
+            } catch (IOException e) {
+                LOG.warning("Could not store rehashed password for " + user.getName() + ": " + e.getMessage());
+            }
+        }).exceptionally(e -> null);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, pool);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new RejectedException("Authentication queue is full", false));
+        }
+    }
+
+    private boolean tryAcquire(String key) {
+        sweepIdleBuckets();
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(attemptsPerMinute, 60_000_000_000L))
+                .tryAcquire();
+    }
+
+    /**
+     * Walks the buckets round-robin, a few per attempt, and drops those that have refilled completely,
+     * i.e. whose key has been idle for about a minute. The map thus stays bounded by the keys seen
+     * recently without ever being scanned whole on a request thread.
+     */
+    private void sweepIdleBuckets() {
+        synchronized (sweepLock) {
+            for (int i = 0; i < SWEEP_PER_ATTEMPT; i++) {
+                if (!sweep.hasNext()) {
+                    sweep = buckets.values().iterator();
+                    if (!sweep.hasNext()) {
+                        return;
+                    }
+                }
+                if (sweep.next().isFull()) {
+                    sweep.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static final class TokenBucket {
+
+        private final int capacity;
+        private final long nanosPerToken;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(int capacity, long periodNanos) {
+            this.capacity = capacity;
+            this.nanosPerToken = periodNanos / Math.max(1, capacity);
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire() {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (double) (now - lastRefill) / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
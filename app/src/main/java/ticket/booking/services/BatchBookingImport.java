@@ -0,0 +1,457 @@
+package ticket.booking.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.persistence.JournalSyncException;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.util.JsonMappers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+/**
+ * Applies a file of booking requests in one batch. Rows are grouped by train and each train's rows are
+ * allocated by one task, in file order, under the same journey locks and seat compare-and-set the live
+ * booking path uses; different trains run in parallel. All resulting tickets are then written with a
+ * single journal record and one sync, and a results file lists the outcome of every row.
+ *
+ * <p>Input is CSV with a header row ({@code .csv}) or one JSON object per line (anything else). Columns:
+ * {@code user_id} or {@code user_name}, {@code train_id}, {@code source}, {@code destination}, optional
+ * {@code date} (YYYY-MM-DD, today if absent), and either {@code row} + {@code seat} (1-based, as in the
+ * console) or {@code count} with optional {@code adjacent_only}. CSV fields may be quoted, with {@code ""}
+ * for a quote inside them, and a quoted field may span lines; a row with more or fewer fields than the
+ * header is rejected as malformed.
+ *
+ * <pre>
+ * BatchBookingImport requests.csv [results.csv]
+ * </pre>
+ */
+public class BatchBookingImport {
+
+    private static final Logger LOG = Logger.getLogger(BatchBookingImport.class.getName());
+
+    private static final int MAX_ALLOCATION_ATTEMPTS = 3;
+
+    public enum Status {
+        BOOKED,
+        REJECTED,
+        INVALID,
+        FAILED
+    }
+
+    public record Request(int line, Map<String, String> fields) {
+
+        String get(String name) {
+            String value = fields.get(name);
+            return value == null || value.isBlank() ? null : value.trim();
+        }
+    }
+
+    public record Outcome(int line, Status status, String trainId, List<Ticket> tickets, String message) {}
+
+    public record Result(List<Outcome> outcomes, int booked, int rejected, long elapsedMillis) {}
+
+    private final BookingContext context;
+    private final int parallelism;
+
+    public BatchBookingImport(BookingContext context) {
+        this(context, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchBookingImport(BookingContext context, int parallelism) {
+        this.context = context;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: BatchBookingImport <requests.csv|requests.jsonl> [results.csv]");
+            return;
+        }
+        Path input = Path.of(args[0]);
+        Path output = args.length > 1 ? Path.of(args[1]) : input.resolveSibling(input.getFileName() + ".results.csv");
+        BookingContext context = BookingContext.getDefault();
+        try {
+            context.preload();
+            Result result = new BatchBookingImport(context).run(input, output);
+            System.out.printf("Processed %d rows in %d ms: %d booked, %d rejected. Results in %s%n",
+                    result.outcomes().size(), result.elapsedMillis(), result.booked(), result.rejected(), output);
+        } finally {
+            context.close();
+        }
+    }
+
+    public Result run(Path input, Path output) throws IOException {
+        Result result = process(readRequests(input));
+        writeResults(output, result.outcomes());
+        return result;
+    }
+
+    public Result process(List<Request> requests) throws IOException {
+        long start = System.currentTimeMillis();
+        TrainService trainService = context.getTrainService();
+        UserRepository userRepository = context.getUserRepository();
+        LocalDate today = LocalDate.now();
+
+        Outcome[] outcomes = new Outcome[requests.size()];
+        Map<String, List<Integer>> partitions = new LinkedHashMap<>();
+        Map<String, Train> trains = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            String trainId = requests.get(i).get("train_id");
+            Train train = trainId == null ? null : trainService.getTrain(trainId);
+            if (requests.get(i).fields().isEmpty()) {
+                outcomes[i] = reject(requests.get(i), Status.INVALID, null, "Malformed record");
+            } else if (trainId == null) {
+                outcomes[i] = reject(requests.get(i), Status.INVALID, null, "Missing train_id");
+            } else if (train == null) {
+                outcomes[i] = reject(requests.get(i), Status.REJECTED, trainId, "Unknown train");
+            } else {
+                trains.putIfAbsent(train.getTrainId(), train);
+                partitions.computeIfAbsent(train.getTrainId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, partitions.size())));
+        try {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(partitions.size());
+            for (Map.Entry<String, List<Integer>> partition : partitions.entrySet()) {
+                Train train = trains.get(partition.getKey());
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    for (int index : partition.getValue()) {
+                        Request request = requests.get(index);
+                        try {
+                            outcomes[index] = allocate(request, train, trainService, userRepository, today);
+                        } catch (RuntimeException e) {
+                            LOG.warning("Error allocating line " + request.line() + ": " + e);
+                            outcomes[index] = reject(request, Status.FAILED, train.getTrainId(), String.valueOf(e));
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        commit(requests, outcomes, trainService, userRepository);
+
+        int booked = 0;
+        int rejected = 0;
+        for (Outcome outcome : outcomes) {
+            if (outcome.status() == Status.BOOKED) {
+                booked += outcome.tickets().size();
+            } else {
+                rejected++;
+            }
+        }
+        return new Result(List.of(outcomes), booked, rejected, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reserves the seats of one request. A seat reserved here is given back if anything fails before the
+     * outcome is returned.
+     */
+    private Outcome allocate(Request request, Train train, TrainService trainService, UserRepository userRepository,
+                             LocalDate today) {
+        String source = request.get("source");
+        String destination = request.get("destination");
+        if (source == null || destination == null) {
+            return reject(request, Status.INVALID, train.getTrainId(), "Missing source or destination");
+        }
+        Optional<User> owner = request.get("user_id") != null
+                ? userRepository.findById(request.get("user_id"))
+                : Optional.ofNullable(request.get("user_name")).flatMap(userRepository::findByName);
+        if (owner.isEmpty()) {
+            return reject(request, Status.REJECTED, train.getTrainId(), "Unknown user");
+        }
+        long leg = train.legMask(source, destination);
+        if (leg == 0) {
+            return reject(request, Status.REJECTED, train.getTrainId(),
+                    "Train does not run from " + source + " to " + destination);
+        }
+        LocalDate date;
+        try {
+            date = request.get("date") == null ? today : LocalDate.parse(request.get("date"));
+        } catch (DateTimeParseException e) {
+            return reject(request, Status.INVALID, train.getTrainId(), "Bad date: " + request.get("date"));
+        }
+        if (!trainService.getJourneyInventory().isBookable(date)) {
+            return reject(request, Status.REJECTED, train.getTrainId(), date + " is outside the booking window");
+        }
+
+        int row;
+        int seat;
+        int count;
+        try {
+            row = request.get("row") == null ? -1 : Integer.parseInt(request.get("row")) - 1;
+            seat = request.get("row") == null ? -1 : Integer.parseInt(request.get("seat")) - 1;
+            count = request.get("count") == null ? 1 : Integer.parseInt(request.get("count"));
+        } catch (NumberFormatException e) {
+            return reject(request, Status.INVALID, train.getTrainId(), "Bad number: " + e.getMessage());
+        }
+
+        Train journeyTrain;
+        List<SeatInventory.Seat> seats;
+        Lock trainLock = trainService.lockFor(train.getTrainId(), date);
+        trainLock.lock();
+        try {
+            JourneyInventory.Journey journey = trainService.journey(train, date);
+            journeyTrain = journey.train();
+            long journeyLeg = journeyTrain.legMask(source, destination);
+            seats = journeyLeg == 0 ? List.of()
+                    : request.get("row") != null ? reserveSeat(journey.seats(), row, seat, journeyLeg)
+                    : reserveSeats(journey.seats(), count, Boolean.parseBoolean(request.get("adjacent_only")),
+                    journeyLeg);
+        } finally {
+            trainLock.unlock();
+        }
+        if (seats.isEmpty()) {
+            return reject(request, Status.REJECTED, train.getTrainId(), "Seats not available");
+        }
+
+        try {
+            List<Ticket> tickets = new ArrayList<>(seats.size());
+            for (SeatInventory.Seat reserved : seats) {
+                tickets.add(new Ticket(UUID.randomUUID().toString(), owner.get().getUserId(),
+                        journeyTrain.getTrainId(), reserved.row(), reserved.seat(), source, destination,
+                        date.toString()));
+            }
+            return new Outcome(request.line(), Status.BOOKED, train.getTrainId(), tickets, null);
+        } catch (RuntimeException e) {
+            trainService.release(journeyTrain, date, seats, source, destination);
+            throw e;
+        }
+    }
+
+    /**
+     * Callers hold the journey lock.
+     */
+    private static List<SeatInventory.Seat> reserveSeat(SeatInventory inventory, int row, int seat, long leg) {
+        if (!inventory.isValid(row, seat) || !inventory.tryReserve(row, seat, leg)) {
+            return List.of();
+        }
+        return List.of(new SeatInventory.Seat(row, seat));
+    }
+
+    /**
+     * Callers hold the journey lock.
+     */
+    private static List<SeatInventory.Seat> reserveSeats(SeatInventory inventory, int count, boolean adjacentOnly,
+                                                         long leg) {
+        if (count < 1) {
+            return List.of();
+        }
+        for (int attempt = 0; attempt < MAX_ALLOCATION_ATTEMPTS; attempt++) {
+            List<SeatInventory.Seat> candidates = inventory.findSeats(count, leg, adjacentOnly, -1);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            if (inventory.tryReserveAll(candidates, leg)) {
+                return candidates;
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Makes every allocated ticket durable with one journal record. If the record cannot be appended, or
+     * a user has gone away, the affected seats are given back and their rows marked as failed. A record
+     * that was appended but not synced keeps its tickets.
+     */
+    private void commit(List<Request> requests, Outcome[] outcomes, TrainService trainService,
+                        UserRepository userRepository) {
+        Map<String, List<Ticket>> ticketsByUser = new HashMap<>();
+        for (Outcome outcome : outcomes) {
+            if (outcome.status() == Status.BOOKED) {
+                for (Ticket ticket : outcome.tickets()) {
+                    ticketsByUser.computeIfAbsent(ticket.getUserId(), id -> new ArrayList<>()).add(ticket);
+                }
+            }
+        }
+        if (ticketsByUser.isEmpty()) {
+            return;
+        }
+
+        List<String> missing;
+        String failure = null;
+        try {
+            missing = userRepository.addTicketsBatch(ticketsByUser);
+        } catch (JournalSyncException e) {
+            LOG.warning("Booking batch recorded but not synced: " + e.getMessage());
+            missing = ticketsByUser.keySet().stream().filter(id -> userRepository.findById(id).isEmpty()).toList();
+        } catch (IOException e) {
+            LOG.warning("Error writing booking batch: " + e.getMessage());
+            missing = new ArrayList<>(ticketsByUser.keySet());
+            failure = "Batch could not be written: " + e.getMessage();
+        }
+        if (!missing.isEmpty()) {
+            Set<String> lost = new HashSet<>(missing);
+            for (int i = 0; i < outcomes.length; i++) {
+                Outcome outcome = outcomes[i];
+                if (outcome.status() == Status.BOOKED && lost.contains(outcome.tickets().get(0).getUserId())) {
+                    release(trainService, trainService.getTrain(outcome.trainId()), outcome.tickets());
+                    outcomes[i] = reject(requests.get(i), Status.FAILED, outcome.trainId(),
+                            failure != null ? failure : "Unknown user");
+                }
+            }
+        }
+    }
+
+    private static void release(TrainService trainService, Train train, List<Ticket> tickets) {
+        for (Ticket ticket : tickets) {
+            trainService.release(train, ticket.getJourneyDate(),
+                    List.of(new SeatInventory.Seat(ticket.getRow(), ticket.getSeat())), ticket.getSource(),
+                    ticket.getDestination());
+        }
+    }
+
+    private static Outcome reject(Request request, Status status, String trainId, String message) {
+        return new Outcome(request.line(), status, trainId, List.of(), message);
+    }
+
+    public static List<Request> readRequests(Path input) throws IOException {
+        boolean csv = input.getFileName().toString().toLowerCase().endsWith(".csv");
+        ObjectReader reader = JsonMappers.USER_MAPPER.readerFor(JsonNode.class);
+        List<Request> requests = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            List<String> header = null;
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                int firstLine = lineNumber;
+                List<String> values = null;
+                if (csv) {
+                    StringBuilder record = new StringBuilder(line);
+                    while ((values = splitCsv(record)) == null && (line = in.readLine()) != null) {
+                        lineNumber++;
+                        record.append('\n').append(line);
+                    }
+                    if (values == null) {
+                        LOG.warning("Unterminated quote in the record at line " + firstLine);
+                        values = List.of();
+                    }
+                }
+                if (csv && header == null) {
+                    header = values.stream().map(name -> name.trim().toLowerCase()).toList();
+                    continue;
+                }
+                Map<String, String> fields = new HashMap<>();
+                if (csv) {
+                    if (values.size() == header.size()) {
+                        for (int i = 0; i < header.size(); i++) {
+                            fields.put(header.get(i), values.get(i));
+                        }
+                    } else {
+                        LOG.warning("Skipping line " + firstLine + ": " + values.size() + " fields, expected "
+                                + header.size());
+                    }
+                } else {
+                    try {
+                        JsonNode node = reader.readValue(line);
+                        for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+                            Map.Entry<String, JsonNode> field = it.next();
+                            fields.put(field.getKey(), field.getValue().asText());
+                        }
+                    } catch (IOException e) {
+                        LOG.warning("Skipping malformed line " + lineNumber + ": " + e.getMessage());
+                    }
+                }
+                requests.add(new Request(firstLine, fields));
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * The fields of one CSV record, or null if it ends inside a quoted field.
+     */
+    static List<String> splitCsv(CharSequence record) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    public static void writeResults(Path output, List<Outcome> outcomes) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            out.write("line,status,train_id,ticket_ids,message");
+            out.newLine();
+            StringBuilder row = new StringBuilder();
+            for (Outcome outcome : outcomes) {
+                row.setLength(0);
+                row.append(outcome.line()).append(',').append(outcome.status()).append(',')
+                        .append(csvField(outcome.trainId())).append(',');
+                StringBuilder ticketIds = new StringBuilder();
+                for (int i = 0; i < outcome.tickets().size(); i++) {
+                    ticketIds.append(i > 0 ? ";" : "").append(outcome.tickets().get(i).getTicketId());
+                }
+                row.append(csvField(ticketIds.toString())).append(',').append(csvField(outcome.message()));
+                out.write(row.toString());
+                out.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Application-scoped holder for the train catalog and the user repository. Each is loaded from disk
+ * the first time it is asked for and then shared by every {@link UserBookingService}. The two loads use
+ * separate locks, so {@link #preload()} can read both files at the same time. Only once both are read
+ * are the users' tickets registered with the catalog's {@link JourneyInventory}.
+ */
+public class BookingContext implements Closeable {
+
+    public static final String TRAIN_DB_PATH = "app/src/main/java/ticket/booking/localDb/trains.json";
+    public static final String USER_FILE_PATH = "app/src/main/java/ticket/booking/localDb/users.json";
+
+    private static volatile BookingContext defaultContext;
+
+    private final String trainDbPath;
+    private final String userFilePath;
+    private final SessionManager sessionManager = new SessionManager();
+    private final Object trainLock = new Object();
+    private final Object userLock = new Object();
+    private TrainService unseededTrains;
+    private volatile TrainService trainService;
+    private volatile UserRepository userRepository;
+    private volatile AuthService authService;
+    private volatile SeatHoldService seatHoldService;
+    private volatile WaitlistService waitlistService;
+    private volatile IdempotencyCache idempotencyCache;
+
+    public BookingContext(String trainDbPath, String userFilePath) {
+        this.trainDbPath = trainDbPath;
+        this.userFilePath = userFilePath;
+        Metrics.gauge("sessions.active", sessionManager::size);
+    }
+
+    /**
+     * A context over {@code trains.json} and {@code users.json} in {@code directory}, e.g. one node's
+     * share of a sharded deployment.
+     */
+    public static BookingContext forDirectory(Path directory) {
+        return new BookingContext(directory.resolve("trains.json").toString(),
+                directory.resolve("users.json").toString());
+    }
+
+    public static BookingContext getDefault() {
+        BookingContext context = defaultContext;
+        if (context == null) {
+            synchronized (BookingContext.class) {
+                if (defaultContext == null) {
+                    defaultContext = new BookingContext(TRAIN_DB_PATH, USER_FILE_PATH);
+                }
+                context = defaultContext;
+            }
+        }
+        return context;
+    }
+
+    public TrainService getTrainService() throws IOException {
+        TrainService service = trainService;
+        if (service == null) {
+            synchronized (trainLock) {
+                if (trainService == null) {
+                    TrainService loaded = loadTrains();
+                    if (loaded.getJourneyInventory().seed(getUserRepository().getUsers(), loaded::getTrain)) {
+                        loaded.saveTrainListToFile();
+                    }
+                    trainService = loaded;
+                    unseededTrains = null;
+                }
+                service = trainService;
+            }
+        }
+        return service;
+    }
+
+    /**
+     * The catalog as read from disk, before any tickets are registered with it.
+     */
+    private TrainService loadTrains() throws IOException {
+        synchronized (trainLock) {
+            if (unseededTrains == null) {
+                unseededTrains = new TrainService(trainDbPath);
+            }
+            return unseededTrains;
+        }
+    }
+
+    public UserRepository getUserRepository() throws IOException {
+        UserRepository repository = userRepository;
+        if (repository == null) {
+            synchronized (userLock) {
+                if (userRepository == null) {
+                    userRepository = new UserRepository(userFilePath, JsonMappers.USER_MAPPER);
+                }
+                repository = userRepository;
+            }
+        }
+        return repository;
+    }
+
+    /**
+     * Reads the train and user files in parallel, then seeds the catalog from the users' tickets.
+     */
+    public void preload() throws IOException {
+        if (trainService != null) {
+            getUserRepository();
+            return;
+        }
+        CompletableFuture<Void> trains = CompletableFuture.runAsync(() -> {
+            try {
+                loadTrains();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        getUserRepository();
+        try {
+            trains.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+        getTrainService();
+    }
+
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    public AuthService getAuthService() throws IOException {
+        AuthService service = authService;
+        if (service == null) {
+            UserRepository repository = getUserRepository();
+            synchronized (this) {
+                if (authService == null) {
+                    authService = new AuthService(repository);
+                }
+                service = authService;
+            }
+        }
+        return service;
+    }
+
+    public WaitlistService getWaitlistService() throws IOException {
+        WaitlistService service = waitlistService;
+        if (service == null) {
+            UserRepository repository = getUserRepository();
+            TrainService trains = getTrainService();
+            synchronized (this) {
+                if (waitlistService == null) {
+                    waitlistService = new WaitlistService(repository, trains.getJourneyInventory());
+                }
+                service = waitlistService;
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Keyed booking results, seeded from the idempotency keys on the users' tickets the first time it
+     * is asked for.
+     */
+    public IdempotencyCache getIdempotencyCache() throws IOException {
+        IdempotencyCache cache = idempotencyCache;
+        if (cache == null) {
+            UserRepository repository = getUserRepository();
+            synchronized (this) {
+                if (idempotencyCache == null) {
+                    IdempotencyCache seeded = new IdempotencyCache(userId -> repository.findById(userId).orElse(null));
+                    seeded.seed(repository.getUsers());
+                    Metrics.gauge("idempotency.entries", seeded::size);
+                    idempotencyCache = seeded;
+                }
+                cache = idempotencyCache;
+            }
+        }
+        return cache;
+    }
+
+    public SeatHoldService getSeatHoldService() {
+        SeatHoldService service = seatHoldService;
+        if (service == null) {
+            synchronized (this) {
+                if (seatHoldService == null) {
+                    seatHoldService = new SeatHoldService(this::releaseHeldSeat);
+                    Metrics.gauge("holds.active", seatHoldService::size);
+                }
+                service = seatHoldService;
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Hands a seat given back by a hold to the waitlist, as a cancellation would. The hold marker is
+     * cleared under the journey lock, which leaves the seat sold until the waitlist frees it, so a train
+     * replacement in between carries it over. A hold left on a journey that has since been replaced or
+     * dropped only frees the seat in its own inventory.
+     */
+    private void releaseHeldSeat(SeatHoldService.Hold hold, SeatInventory.Seat seat) throws IOException {
+        JourneyInventory journeys = getTrainService().getJourneyInventory();
+        Lock lock = journeys.lockFor(hold.train().getTrainId(), hold.date());
+        lock.lock();
+        try {
+            if (!journeys.isBookable(hold.date()) || journeys.forDate(hold.train(), hold.date()) != hold.inventory()) {
+                hold.inventory().releaseHold(seat.row(), seat.seat(), hold.leg());
+                return;
+            }
+            hold.inventory().confirmHold(seat.row(), seat.seat(), hold.leg());
+        } finally {
+            lock.unlock();
+        }
+        getWaitlistService().releaseSeat(hold.train(), hold.date(), seat.row(), seat.seat(), hold.source(),
+                hold.destination());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (seatHoldService != null) {
+            seatHoldService.close();
+            seatHoldService = null;
+        }
+        if (authService != null) {
+            authService.close();
+            authService = null;
+        }
+        if (userRepository != null) {
+            userRepository.close();
+            userRepository = null;
+        }
+        synchronized (trainLock) {
+            trainService = null;
+            unseededTrains = null;
+        }
+        waitlistService = null;
+        idempotencyCache = null;
+    }
+}
@@ -0,0 +1,355 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.Cancellation;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+import ticket.booking.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Results of bookings and cancellations made with a client idempotency key, so that a retried request
+ * gets the original answer instead of running again. Keys are scoped by user and operation. A retry that
+ * arrives while the first call is still running waits for it; failed calls are not kept and can be
+ * retried for real.
+ *
+ * <p>Entries live in a bounded insertion-ordered map with a fixed time to live, so expired entries sit
+ * at its head and are trimmed from there. A booking is only replayed from the map while all of its tickets
+ * are held: cancelling one of them forgets the entry. A key the map does not hold, because it was trimmed
+ * or forgotten, is looked up in the user's records before the request runs again, so a retry that
+ * arrives after its entry was pushed out of a full map still gets the first answer.
+ *
+ * <p>Every entry remembers a fingerprint of the request that made it: the booking's train, date, leg and
+ * seats asked for, or the cancelled ticket. A key reused for a different request is refused with a
+ * {@link KeyReusedException} rather than answered with the first request's result. Tickets carry their
+ * key and fingerprint, and users keep their keyed cancellations, which is how both are rebuilt from the
+ * user records after a restart ({@link #seed}).
+ */
+public class IdempotencyCache {
+
+    public static final long DEFAULT_TTL_MINUTES = Long.getLong("booking.idempotency.ttlMinutes", 24 * 60);
+    public static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("booking.idempotency.maxEntries", 100_000);
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private static final LongAdder REPLAYS = Metrics.counter("idempotency.replays");
+
+    /**
+     * An idempotency key sent again with a request that differs from the one it was first used for.
+     */
+    public static class KeyReusedException extends RuntimeException {
+
+        public KeyReusedException(String key) {
+            super("Idempotency key " + key + " was already used for a different request");
+        }
+    }
+
+    private record Key(String userId, String operation, String key) {}
+
+    private static final class Entry {
+
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final long expiresAt;
+        final String fingerprint;
+        List<String> ticketIds = List.of();
+
+        Entry(long expiresAt, String fingerprint) {
+            this.expiresAt = expiresAt;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<String, Key> bookingsByTicket = new HashMap<>();
+    private final Function<String, User> users;
+
+    public IdempotencyCache() {
+        this(userId -> null);
+    }
+
+    /**
+     * @param users the current record of a user by id, or null; consulted for keys not in the cache
+     */
+    public IdempotencyCache(Function<String, User> users) {
+        this(DEFAULT_TTL_MINUTES, TimeUnit.MINUTES, DEFAULT_MAX_ENTRIES, users);
+    }
+
+    public IdempotencyCache(long ttl, TimeUnit unit, int maxEntries) {
+        this(ttl, unit, maxEntries, userId -> null);
+    }
+
+    public IdempotencyCache(long ttl, TimeUnit unit, int maxEntries, Function<String, User> users) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = maxEntries;
+        this.users = users;
+        this.entries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= IdempotencyCache.this.maxEntries) {
+                    return false;
+                }
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public static void validate(String key) {
+        if (key != null && (key.isEmpty() || key.length() > MAX_KEY_LENGTH)) {
+            throw new IllegalArgumentException("Idempotency key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+    }
+
+    /**
+     * Fingerprint of a booking request; tickets store it next to their key.
+     */
+    public static String fingerprint(String operation, String trainId, Object date, String source,
+                                     String destination, Object... seats) {
+        StringJoiner joined = new StringJoiner("|").add(operation).add(RouteIndex.normalize(trainId))
+                .add(String.valueOf(date)).add(RouteIndex.normalize(source)).add(RouteIndex.normalize(destination));
+        for (Object seat : seats) {
+            joined.add(String.valueOf(seat));
+        }
+        return joined.toString();
+    }
+
+    /**
+     * @param fingerprint what is being booked, see {@link #fingerprint}
+     * @throws KeyReusedException if the key was used for a booking with a different fingerprint
+     */
+    public List<Ticket> book(String userId, String key, String fingerprint, Supplier<List<Ticket>> booking) {
+        return run(new Key(userId, "book", key), fingerprint, booking, tickets -> !tickets.isEmpty());
+    }
+
+    /**
+     * @throws KeyReusedException if the key was used to cancel a different ticket
+     */
+    public boolean cancel(String userId, String key, String ticketId, BooleanSupplier cancellation) {
+        return run(new Key(userId, "cancel", key), ticketId, cancellation::getAsBoolean, Boolean::booleanValue);
+    }
+
+    /**
+     * Drops the booking that sold {@code ticketId}, if it was made with a key.
+     */
+    public void forgetTicket(String ticketId) {
+        synchronized (entries) {
+            Key key = bookingsByTicket.get(ticketId);
+            if (key != null) {
+                unindex(key, entries.remove(key));
+            }
+        }
+    }
+
+    /**
+     * Registers the keyed bookings found on {@code users}' tickets and their keyed cancellations. The
+     * bookings count as made now, since tickets do not record when they were sold; cancellations keep
+     * the time they were made.
+     */
+    public void seed(Collection<User> users) {
+        long now = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        long expiresAt = now + ttlNanos;
+        synchronized (entries) {
+            List<Map.Entry<String, Cancellation>> cancellations = new ArrayList<>();
+            for (User user : users) {
+                List<Cancellation> cancelled = user.getCancellations();
+                if (cancelled != null) {
+                    cancelled.forEach(c -> cancellations.add(Map.entry(user.getUserId(), c)));
+                }
+            }
+            cancellations.sort(Map.Entry.comparingByValue(Comparator.comparingLong(Cancellation::getCancelledAt)));
+            for (Map.Entry<String, Cancellation> cancelled : cancellations) {
+                Cancellation cancellation = cancelled.getValue();
+                long remaining = ttlNanos - TimeUnit.MILLISECONDS.toNanos(nowMillis - cancellation.getCancelledAt());
+                if (remaining > 0 && cancellation.getIdempotencyKey() != null) {
+                    Entry entry = new Entry(now + remaining, cancellation.getTicketId());
+                    entry.result.complete(Boolean.TRUE);
+                    entries.put(new Key(cancelled.getKey(), "cancel", cancellation.getIdempotencyKey()), entry);
+                }
+            }
+
+            for (User user : users) {
+                List<Ticket> tickets = user.getTicketsBooked();
+                if (tickets == null) {
+                    continue;
+                }
+                Map<String, List<Ticket>> byKey = new LinkedHashMap<>();
+                for (Ticket ticket : tickets) {
+                    if (ticket.getIdempotencyKey() != null) {
+                        byKey.computeIfAbsent(ticket.getIdempotencyKey(), k -> new ArrayList<>()).add(ticket);
+                    }
+                }
+                byKey.forEach((key, booked) -> {
+                    Entry entry = new Entry(expiresAt, booked.get(0).getRequestFingerprint());
+                    entry.result.complete(List.copyOf(booked));
+                    put(new Key(user.getUserId(), "book", key), entry, booked);
+                });
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T run(Key key, String fingerprint, Supplier<T> action, Predicate<T> succeeded) {
+        long now = System.nanoTime();
+        Entry entry;
+        Entry existing;
+        synchronized (entries) {
+            evictExpired(now);
+            existing = entries.get(key);
+            entry = existing == null ? new Entry(now + ttlNanos, fingerprint) : null;
+            if (entry != null) {
+                entries.put(key, entry);
+            }
+        }
+        if (existing == null) {
+            // the placeholder makes concurrent retries wait while the records are read
+            Entry found = recorded(key, now);
+            if (found != null) {
+                Object result = found.result.join();
+                synchronized (entries) {
+                    if (entries.get(key) == entry) {
+                        if (result instanceof List<?> tickets) {
+                            put(key, found, (List<Ticket>) tickets);
+                        } else {
+                            entries.put(key, found);
+                        }
+                    }
+                }
+                entry.result.complete(result);
+                existing = found;
+            }
+        }
+        if (existing != null) {
+            if (existing.fingerprint != null && !Objects.equals(existing.fingerprint, fingerprint)) {
+                throw new KeyReusedException(key.key());
+            }
+            REPLAYS.increment();
+            try {
+                return (T) existing.result.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+        }
+
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            discard(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        if (!succeeded.test(result)) {
+            discard(key, entry);
+        } else if (result instanceof List<?> tickets) {
+            synchronized (entries) {
+                if (entries.get(key) == entry) {
+                    put(key, entry, (List<Ticket>) tickets);
+                }
+            }
+        }
+        entry.result.complete(result);
+        return result;
+    }
+
+    /**
+     * What the user's records hold for a key the cache does not: the tickets still booked with it, or a
+     * cancellation made with it within the time to live. Null if there is neither.
+     */
+    private Entry recorded(Key key, long now) {
+        User user = key.userId() == null ? null : users.apply(key.userId());
+        if (user == null) {
+            return null;
+        }
+        if (key.operation().equals("book")) {
+            List<Ticket> booked = new ArrayList<>();
+            List<Ticket> tickets = user.getTicketsBooked();
+            if (tickets != null) {
+                for (Ticket ticket : tickets) {
+                    if (key.key().equals(ticket.getIdempotencyKey())) {
+                        booked.add(ticket);
+                    }
+                }
+            }
+            if (booked.isEmpty()) {
+                return null;
+            }
+            Entry entry = new Entry(now + ttlNanos, booked.get(0).getRequestFingerprint());
+            entry.result.complete(List.copyOf(booked));
+            return entry;
+        }
+        List<Cancellation> cancellations = user.getCancellations();
+        if (cancellations != null) {
+            long nowMillis = System.currentTimeMillis();
+            for (Cancellation cancellation : cancellations) {
+                long remaining = ttlNanos - TimeUnit.MILLISECONDS.toNanos(nowMillis - cancellation.getCancelledAt());
+                if (key.key().equals(cancellation.getIdempotencyKey()) && remaining > 0) {
+                    Entry entry = new Entry(now + remaining, cancellation.getTicketId());
+                    entry.result.complete(Boolean.TRUE);
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void put(Key key, Entry entry, List<Ticket> tickets) {
+        unindex(key, entries.put(key, entry));
+        List<String> ticketIds = new ArrayList<>(tickets.size());
+        for (Ticket ticket : tickets) {
+            ticketIds.add(ticket.getTicketId());
+            bookingsByTicket.put(ticket.getTicketId(), key);
+        }
+        entry.ticketIds = ticketIds;
+    }
+
+    private void discard(Key key, Entry entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private void unindex(Key key, Entry entry) {
+        if (entry != null) {
+            for (String ticketId : entry.ticketIds) {
+                bookingsByTicket.remove(ticketId, key);
+            }
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            if (now - eldest.getValue().expiresAt <= 0) {
+                break;
+            }
+            unindex(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.util.Metrics;
+import ticket.booking.util.StripedLocks;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Seat inventories per journey, i.e. per (train, date). A train's own seat grid is the coach template:
+ * it fixes the layout, and a seat marked in it is blocked on every date. A journey's inventory is
+ * copied from the template the first time the date is booked and then filled with the tickets already
+ * sold for it, so days nobody has touched take no memory.
+ *
+ * <p>Tickets are the durable record of dated bookings. At startup they are only grouped by journey
+ * ({@link #seed}); each group is applied when its journey is first used. Dates can be booked from today
+ * up to {@code -Dbooking.window.days} days ahead (120 by default). Journeys whose date has passed are
+ * dropped on the first access of a new day; their tickets stay in the users' booking history.
+ *
+ * <p>Each journey remembers the train it was built for. When the catalog replaces that train, the journey
+ * is carried over to the new one under its {@link #lockFor journey lock}; seats are reserved and released
+ * under the same lock, so nothing sold during the move is lost.
+ */
+public class JourneyInventory {
+
+    private static final Logger LOG = Logger.getLogger(JourneyInventory.class.getName());
+
+    public static final String WINDOW_PROPERTY = "booking.window.days";
+    public static final int DEFAULT_BOOKING_WINDOW_DAYS = Integer.getInteger(WINDOW_PROPERTY, 120);
+
+    public record Key(String trainId, LocalDate date) {
+
+        public static Key of(String trainId, LocalDate date) {
+            return new Key(RouteIndex.normalize(trainId), date);
+        }
+    }
+
+    /**
+     * A journey's seats and the train they are laid out for; compute legs with this train.
+     */
+    public record Journey(Train train, SeatInventory seats) {}
+
+    private static final LongAdder EVICTED = Metrics.counter("journeys.evicted");
+
+    private final Map<Key, Journey> journeys = new ConcurrentHashMap<>();
+    private final Map<Key, List<Ticket>> pending = new ConcurrentHashMap<>();
+    private final StripedLocks locks = new StripedLocks(64);
+    private final Function<String, Train> catalog;
+    private final int bookingWindowDays;
+    private volatile long sweptDay = Long.MIN_VALUE;
+
+    public JourneyInventory() {
+        this(DEFAULT_BOOKING_WINDOW_DAYS);
+    }
+
+    public JourneyInventory(int bookingWindowDays) {
+        this(bookingWindowDays, trainId -> null);
+    }
+
+    /**
+     * @param catalog the current version of a train by id, or null for a train it does not know
+     */
+    public JourneyInventory(int bookingWindowDays, Function<String, Train> catalog) {
+        this.bookingWindowDays = Math.max(0, bookingWindowDays);
+        this.catalog = catalog;
+        Metrics.gauge("journeys.materialized", journeys::size);
+    }
+
+    public int getBookingWindowDays() {
+        return bookingWindowDays;
+    }
+
+    public boolean isBookable(LocalDate date) {
+        LocalDate today = LocalDate.now();
+        return date != null && !date.isBefore(today) && !date.isAfter(today.plusDays(bookingWindowDays));
+    }
+
+    /**
+     * Per-journey mutation lock. Reserving or releasing seats of a journey must hold it, with the journey
+     * looked up after taking it; it is also what keeps a train replacement from moving the journey
+     * half-way through such a change.
+     */
+    public Lock lockFor(String trainId, LocalDate date) {
+        return locks.lockFor(Key.of(trainId, date));
+    }
+
+    /**
+     * The inventory to book against for a train on a date, created on first use.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public SeatInventory forDate(Train train, LocalDate date) {
+        return journey(train, date).seats();
+    }
+
+    /**
+     * The journey of a train on a date, created on first use and carried over first if the catalog has
+     * replaced the train it was built for.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public Journey journey(Train train, LocalDate date) {
+        requireBookable(date);
+        Key key = Key.of(train.getTrainId(), date);
+        Journey journey = journeys.get(key);
+        if (journey != null && isCurrent(journey)) {
+            return journey;
+        }
+        Lock lock = locks.lockFor(key);
+        lock.lock();
+        try {
+            return journeys.compute(key, (k, existing) -> {
+                if (existing == null) {
+                    Train current = catalog.apply(train.getTrainId());
+                    Train template = current == null ? train : current;
+                    return new Journey(template, materialize(template, k));
+                }
+                return isCurrent(existing) ? existing : carryOver(existing, catalog.apply(train.getTrainId()), k);
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inventory for reading free seats only: the journey if it exists, otherwise the template itself
+     * while nothing has been sold for that date, so browsing never creates journeys. Callers must not
+     * reserve seats through it.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public SeatInventory view(Train train, LocalDate date) {
+        requireBookable(date);
+        Key key = Key.of(train.getTrainId(), date);
+        Journey journey = journeys.get(key);
+        if (journey != null) {
+            return journey.seats();
+        }
+        return pending.containsKey(key) ? forDate(train, date) : train.getSeatInventory();
+    }
+
+    public int size() {
+        return journeys.size();
+    }
+
+    /**
+     * Registers the tickets sold before startup; call it once, before the first booking. Seat maps
+     * written before inventories were dated recorded every sale in the train's own grid, so a seat that
+     * a ticket accounts for is handed back to the template here and stays taken only on the ticket's
+     * date. Returns whether any template changed, i.e. whether the trains need saving.
+     */
+    public boolean seed(Collection<User> users, Function<String, Train> catalog) {
+        LocalDate today = LocalDate.now();
+        boolean templatesChanged = false;
+        for (User user : users) {
+            List<Ticket> tickets = user.getTicketsBooked();
+            if (tickets == null) {
+                continue;
+            }
+            for (Ticket ticket : tickets) {
+                Train train = ticket.getTrainId() == null ? null : catalog.apply(ticket.getTrainId());
+                if (train == null || ticket.getRow() == null || ticket.getSeat() == null) {
+                    continue;
+                }
+                SeatInventory template = train.getSeatInventory();
+                long leg = train.legMask(ticket.getSource(), ticket.getDestination());
+                if (leg != 0 && template.isValid(ticket.getRow(), ticket.getSeat())
+                        && template.release(ticket.getRow(), ticket.getSeat(), leg)) {
+                    templatesChanged = true;
+                }
+                LocalDate date = ticket.getJourneyDate();
+                if (date != null && !date.isBefore(today)) {
+                    pending.computeIfAbsent(Key.of(train.getTrainId(), date), key -> new ArrayList<>()).add(ticket);
+                }
+            }
+        }
+        return templatesChanged;
+    }
+
+    /**
+     * Moves the journeys of a replaced train onto its new template, each under its journey lock. Sold
+     * legs are carried over seat by seat and translated through station names, so a route that gains
+     * stations keeps its sales; a leg that no longer fits the new train is dropped with a warning. A
+     * journey not reached yet is carried over by the first {@link #journey} call that finds it.
+     */
+    public void retemplate(Train current) {
+        String trainKey = RouteIndex.normalize(current.getTrainId());
+        for (Key key : journeys.keySet()) {
+            if (!key.trainId().equals(trainKey)) {
+                continue;
+            }
+            Lock lock = locks.lockFor(key);
+            lock.lock();
+            try {
+                journeys.computeIfPresent(key, (k, journey) -> {
+                    Train latest = catalog.apply(current.getTrainId());
+                    Train target = latest == null ? current : latest;
+                    return journey.train() == target ? journey : carryOver(journey, target, k);
+                });
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops journeys, and tickets not applied yet, dated before {@code date}. Returns how many journeys
+     * were dropped.
+     */
+    public synchronized int evictBefore(LocalDate date) {
+        int dropped = 0;
+        for (Key key : journeys.keySet()) {
+            if (key.date().isBefore(date) && journeys.remove(key) != null) {
+                dropped++;
+            }
+        }
+        pending.keySet().removeIf(key -> key.date().isBefore(date));
+        sweptDay = Math.max(sweptDay, date.toEpochDay());
+        EVICTED.add(dropped);
+        return dropped;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public void requireBookable(LocalDate date) {
+        LocalDate today = LocalDate.now();
+        if (today.toEpochDay() > sweptDay) {
+            evictBefore(today);
+        }
+        if (!isBookable(date)) {
+            throw new IllegalArgumentException("Bookings are open from " + today + " to "
+                    + today.plusDays(bookingWindowDays) + "; " + date + " is outside that window");
+        }
+    }
+
+    private SeatInventory materialize(Train train, Key key) {
+        SeatInventory inventory = train.getSeatInventory().copy();
+        List<Ticket> sold = pending.remove(key);
+        if (sold != null) {
+            for (Ticket ticket : sold) {
+                long leg = train.legMask(ticket.getSource(), ticket.getDestination());
+                if (leg == 0 || !inventory.isValid(ticket.getRow(), ticket.getSeat())) {
+                    LOG.warning(() -> "Ticket " + ticket.getTicketId() + " does not fit train " + train.getTrainId()
+                            + "; its seat was not restored");
+                } else if (!inventory.tryReserve(ticket.getRow(), ticket.getSeat(), leg)) {
+                    LOG.warning(() -> "Ticket " + ticket.getTicketId() + " overlaps another booking of seat "
+                            + ticket.getRow() + "," + ticket.getSeat() + " on " + key);
+                }
+            }
+        }
+        return inventory;
+    }
+
+    private boolean isCurrent(Journey journey) {
+        Train current = catalog.apply(journey.train().getTrainId());
+        return current == null || current == journey.train();
+    }
+
+    private static Journey carryOver(Journey replaced, Train current, Key key) {
+        Train previous = replaced.train();
+        SeatInventory journey = replaced.seats();
+        SeatInventory oldTemplate = previous.getSeatInventory();
+        SeatInventory moved = current.getSeatInventory().copy();
+        List<String> stations = previous.getStations();
+        for (int row = 0; row < journey.getRowCount(); row++) {
+            for (int seat = 0; seat < journey.getSeatCount(row); seat++) {
+                long sold = journey.getBookedLegs(row, seat);
+                if (oldTemplate.isValid(row, seat)) {
+                    sold &= ~oldTemplate.getBookedLegs(row, seat);
+                }
+                while (sold != 0) {
+                    int from = Long.numberOfTrailingZeros(sold);
+                    int to = from + Long.numberOfTrailingZeros(~(sold >>> from));
+                    sold &= ~SeatInventory.segmentMask(from, to);
+                    String source = stations == null ? null : stations.get(journey.stationAt(from));
+                    String destination = stations == null ? null : stations.get(journey.stationAt(to));
+                    long leg = stations == null ? 0 : current.legMask(source, destination);
+                    if (leg == 0 || !moved.isValid(row, seat) || !moved.tryReserve(row, seat, leg)) {
+                        String lost = "Seat " + row + "," + seat + " of " + key + (stations == null ? ""
+                                : " between " + source + " and " + destination);
+                        LOG.warning(() -> lost + " does not fit the new train and was dropped");
+                    }
+                }
+            }
+        }
+        return new Journey(current, moved);
+    }
+}
@@ -0,0 +1,205 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.Train;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Round-based (RAPTOR-style) journey search over a {@link Timetable}. Round k finds the earliest
+ * arrival at every station using k trains: it scans only the routes calling at stations improved in
+ * the previous round, from the first such station on, and boards the earliest daily run that leaves
+ * after the traveller is there plus the minimum change time ({@code -Dbooking.planner.transferMinutes},
+ * 10 by default). A query therefore touches the stations and routes reachable within the allowed
+ * changes rather than every pair of trains.
+ *
+ * <p>The result is the Pareto set over (arrival, changes): the fastest direct journey, then a journey
+ * with one change only if it arrives earlier, and so on.
+ */
+public final class JourneyPlanner {
+
+    public static final int MAX_CHANGES = 2;
+    public static final int DEFAULT_TRANSFER_MINUTES = Integer.getInteger("booking.planner.transferMinutes", 10);
+
+    /** Journeys arriving more than two days after the requested departure are not considered. */
+    private static final int HORIZON_MINUTES = 2 * Timetable.MINUTES_PER_DAY;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * One train of an itinerary. {@code journeyDate} is the day the train's run starts, which is the
+     * date its seats are sold under.
+     */
+    public record Leg(Train train, LocalDate journeyDate, String source, String destination,
+                      LocalDateTime departs, LocalDateTime arrives) {}
+
+    public record Itinerary(List<Leg> legs) {
+
+        public int changes() {
+            return legs.size() - 1;
+        }
+
+        public LocalDateTime departs() {
+            return legs.get(0).departs();
+        }
+
+        public LocalDateTime arrives() {
+            return legs.get(legs.size() - 1).arrives();
+        }
+
+        public Duration duration() {
+            return Duration.between(departs(), arrives());
+        }
+    }
+
+    private JourneyPlanner() {}
+
+    public static List<Itinerary> plan(Timetable timetable, String source, String destination,
+                                       LocalDateTime earliest, int maxChanges) {
+        return plan(timetable, source, destination, earliest, maxChanges, DEFAULT_TRANSFER_MINUTES);
+    }
+
+    public static List<Itinerary> plan(Timetable timetable, String source, String destination,
+                                       LocalDateTime earliest, int maxChanges, int transferMinutes) {
+        int origin = timetable.stationId(source);
+        int target = timetable.stationId(destination);
+        if (origin < 0 || target < 0 || origin == target) {
+            return List.of();
+        }
+        int rounds = Math.max(0, Math.min(maxChanges, MAX_CHANGES)) + 1;
+        int stations = timetable.stationCount();
+        int start = earliest.getHour() * 60 + earliest.getMinute();
+        int horizon = start + HORIZON_MINUTES;
+
+        // Per round and station: earliest arrival, and how it was reached in that round (route < 0: not
+        // improved in that round, the arrival is carried over from the previous one).
+        int[][] arrival = new int[rounds + 1][];
+        int[][] viaRoute = new int[rounds + 1][stations];
+        int[][] boardedAt = new int[rounds + 1][stations];
+        int[][] alightedAt = new int[rounds + 1][stations];
+        int[][] runStart = new int[rounds + 1][stations];
+        int[] best = new int[stations];
+        Arrays.fill(best, UNREACHED);
+        arrival[0] = new int[stations];
+        Arrays.fill(arrival[0], UNREACHED);
+        arrival[0][origin] = start;
+        best[origin] = start;
+
+        int[] firstMarked = new int[timetable.routeCount()];
+        Arrays.fill(firstMarked, -1);
+        int[] queued = new int[timetable.routeCount()];
+        BitSet marked = new BitSet(stations);
+        marked.set(origin);
+
+        for (int round = 1; round <= rounds && !marked.isEmpty(); round++) {
+            int[] previous = arrival[round - 1];
+            int[] current = previous.clone();
+            arrival[round] = current;
+            Arrays.fill(viaRoute[round], -1);
+
+            int queueSize = 0;
+            for (int station = marked.nextSetBit(0); station >= 0; station = marked.nextSetBit(station + 1)) {
+                Timetable.Calls calls = timetable.callsAt(station);
+                for (int i = 0; i < calls.routes().length; i++) {
+                    int routeId = calls.routes()[i];
+                    int position = calls.positions()[i];
+                    if (firstMarked[routeId] < 0) {
+                        queued[queueSize++] = routeId;
+                        firstMarked[routeId] = position;
+                    } else if (position < firstMarked[routeId]) {
+                        firstMarked[routeId] = position;
+                    }
+                }
+            }
+            marked.clear();
+
+            for (int q = 0; q < queueSize; q++) {
+                int routeId = queued[q];
+                Timetable.Route route = timetable.route(routeId);
+                int from = firstMarked[routeId];
+                firstMarked[routeId] = -1;
+                if (route == null) {
+                    continue;
+                }
+                int[] stops = route.stops();
+                int[] minutes = route.minutes();
+                int boarded = -1;
+                int base = 0;
+                for (int position = from; position < stops.length; position++) {
+                    int station = stops[position];
+                    if (boarded >= 0) {
+                        int arrives = base + minutes[position];
+                        if (arrives <= horizon && arrives < Math.min(best[station], best[target])) {
+                            current[station] = arrives;
+                            best[station] = arrives;
+                            viaRoute[round][station] = routeId;
+                            boardedAt[round][station] = boarded;
+                            alightedAt[round][station] = position;
+                            runStart[round][station] = base;
+                            marked.set(station);
+                        }
+                    }
+                    if (previous[station] != UNREACHED) {
+                        int ready = previous[station] + (station == origin ? 0 : transferMinutes);
+                        int run = firstRunFrom(ready, minutes[position]);
+                        if (boarded < 0 || run < base) {
+                            boarded = position;
+                            base = run;
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Itinerary> itineraries = new ArrayList<>();
+        LocalDateTime midnight = earliest.toLocalDate().atStartOfDay();
+        for (int round = 1; round <= rounds && arrival[round] != null; round++) {
+            if (viaRoute[round][target] >= 0) {
+                itineraries.add(reconstruct(timetable, midnight, round, origin, target,
+                        viaRoute, boardedAt, alightedAt, runStart));
+            }
+        }
+        return itineraries;
+    }
+
+    /**
+     * Start, in minutes from the query's midnight, of the first daily run that is at a stop {@code offset}
+     * minutes into its day no earlier than {@code ready}. Runs that started before the query date are
+     * not offered.
+     */
+    private static int firstRunFrom(int ready, int offset) {
+        int day = Timetable.MINUTES_PER_DAY;
+        return Math.max(0, Math.floorDiv(ready - offset + day - 1, day)) * day;
+    }
+
+    private static Itinerary reconstruct(Timetable timetable, LocalDateTime midnight, int round, int origin,
+                                         int target, int[][] viaRoute, int[][] boardedAt, int[][] alightedAt,
+                                         int[][] runStart) {
+        List<Leg> legs = new ArrayList<>();
+        int station = target;
+        while (station != origin && round > 0) {
+            if (viaRoute[round][station] < 0) {
+                round--;
+                continue;
+            }
+            Timetable.Route route = timetable.route(viaRoute[round][station]);
+            int boarded = boardedAt[round][station];
+            int alighted = alightedAt[round][station];
+            int base = runStart[round][station];
+            Train train = route.train();
+            legs.add(0, new Leg(train,
+                    midnight.toLocalDate().plusDays(base / Timetable.MINUTES_PER_DAY),
+                    train.getStations().get(boarded),
+                    train.getStations().get(alighted),
+                    midnight.plusMinutes(base + route.minutes()[boarded]),
+                    midnight.plusMinutes(base + route.minutes()[alighted])));
+            station = route.stops()[boarded];
+            round--;
+        }
+        return new Itinerary(List.copyOf(legs));
+    }
+}
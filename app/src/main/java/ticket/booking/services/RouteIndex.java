@@ -0,0 +1,167 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.Train;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Station name -> (train, calls) postings. A source/destination query intersects the two posting lists
+ * and keeps trains that call at the source before they call at the destination. A train calling at a
+ * station more than once is posted with its first and last call there, and runs from the source to the
+ * destination exactly when its first source call comes before its last destination call.
+ *
+ * <p>An index is not modified once it has been published; {@link #withTrain(Train)} returns an updated
+ * copy so readers can keep searching the old one without locking. The copy shares the postings of every
+ * station the replaced and the new train do not call at.
+ */
+public class RouteIndex {
+
+    private record Calls(int first, int last) {}
+
+    private final Map<String, Map<String, Calls>> postings;
+    private final Map<String, Train> trainsById;
+    private final Map<String, Integer> positions;
+    private int size;
+
+    public RouteIndex() {
+        this(List.of());
+    }
+
+    public RouteIndex(List<Train> trains) {
+        postings = new HashMap<>();
+        trainsById = new LinkedHashMap<>();
+        positions = new HashMap<>();
+        for (Train train : trains) {
+            positions.putIfAbsent(normalize(train.getTrainId()), size++);
+            add(train);
+        }
+    }
+
+    private RouteIndex(RouteIndex other) {
+        postings = new HashMap<>(other.postings);
+        trainsById = new LinkedHashMap<>(other.trainsById);
+        positions = new HashMap<>(other.positions);
+        size = other.size;
+    }
+
+    /**
+     * A copy with {@code train} in place of the train of the same id, or appended to the catalog.
+     */
+    public RouteIndex withTrain(Train train) {
+        RouteIndex copy = new RouteIndex(this);
+        String trainKey = normalize(train.getTrainId());
+        Set<String> touched = new HashSet<>();
+        Train previous = trainsById.get(trainKey);
+        if (previous != null && previous.getStations() != null) {
+            previous.getStations().forEach(station -> touched.add(normalize(station)));
+        }
+        if (train.getStations() != null) {
+            train.getStations().forEach(station -> touched.add(normalize(station)));
+        }
+        for (String station : touched) {
+            Map<String, Calls> shared = postings.get(station);
+            if (shared != null) {
+                copy.postings.put(station, new LinkedHashMap<>(shared));
+            }
+        }
+        if (copy.positions.putIfAbsent(trainKey, copy.size) == null) {
+            copy.size++;
+        }
+        copy.add(train);
+        return copy;
+    }
+
+    public static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public Train get(String trainId) {
+        return trainsById.get(normalize(trainId));
+    }
+
+    public boolean contains(String trainId) {
+        return trainsById.containsKey(normalize(trainId));
+    }
+
+    /**
+     * Where the train stands in the catalog list this index was built for, or -1 if it is not in it.
+     */
+    public int position(String trainId) {
+        Integer position = positions.get(normalize(trainId));
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Only for a fresh index or for stations whose postings {@link #withTrain} has copied.
+     */
+    private void add(Train train) {
+        String trainKey = normalize(train.getTrainId());
+        remove(trainKey);
+        trainsById.put(trainKey, train);
+
+        List<String> stations = train.getStations();
+        if (stations == null) {
+            return;
+        }
+        for (int position = 0; position < stations.size(); position++) {
+            int call = position;
+            postings.computeIfAbsent(normalize(stations.get(position)), s -> new LinkedHashMap<>())
+                    .merge(trainKey, new Calls(call, call), (earlier, later) -> new Calls(earlier.first(), call));
+        }
+    }
+
+    private void remove(String trainId) {
+        String trainKey = normalize(trainId);
+        Train existing = trainsById.remove(trainKey);
+        if (existing == null || existing.getStations() == null) {
+            return;
+        }
+        for (String station : existing.getStations()) {
+            String stationKey = normalize(station);
+            Map<String, Calls> stationPostings = postings.get(stationKey);
+            if (stationPostings != null) {
+                stationPostings.remove(trainKey);
+                if (stationPostings.isEmpty()) {
+                    postings.remove(stationKey);
+                }
+            }
+        }
+    }
+
+    public List<Train> search(String source, String destination) {
+        if (normalize(source).equals(normalize(destination))) {
+            return new ArrayList<>();
+        }
+        Map<String, Calls> from = postings.getOrDefault(normalize(source), Collections.emptyMap());
+        Map<String, Calls> to = postings.getOrDefault(normalize(destination), Collections.emptyMap());
+        if (from.isEmpty() || to.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        boolean iterateFrom = from.size() <= to.size();
+        Map<String, Calls> smaller = iterateFrom ? from : to;
+        Map<String, Calls> larger = iterateFrom ? to : from;
+
+        List<Train> result = new ArrayList<>();
+        for (Map.Entry<String, Calls> posting : smaller.entrySet()) {
+            Calls other = larger.get(posting.getKey());
+            if (other == null) {
+                continue;
+            }
+            Calls sourceCalls = iterateFrom ? posting.getValue() : other;
+            Calls destinationCalls = iterateFrom ? other : posting.getValue();
+            if (sourceCalls.first() < destinationCalls.last()) {
+                result.add(trainsById.get(posting.getKey()));
+            }
+        }
+        return result;
+    }
+}
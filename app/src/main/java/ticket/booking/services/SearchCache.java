@@ -0,0 +1,219 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Train;
+import ticket.booking.util.Metrics;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Bounded cache of search results keyed by (source, destination, date). An entry keeps the matching
+ * trains together with their free seats on the searched leg.
+ *
+ * <p>A route change evicts exactly the pairs that the old or the new version of the train serves.
+ * Bookings evict nothing: every free-seat count is stamped with the inventory it was read from and
+ * that inventory's {@link SeatInventory#version(long)} for the leg, and a hit recounts only the trains
+ * whose stamp has moved, so a booking on one stretch of a route leaves the counts for other stretches
+ * cached. Counting reads the rows' running free counts (see {@link SeatInventory#freeSeatCount(int, long)}),
+ * and when many trains of one entry need recounting they are counted in parallel on the common
+ * fork-join pool ({@code -Dbooking.search.parallelThreshold}, 32 trains by default).
+ *
+ * <p>Eviction is approximate LRU. A read only stamps the entry's access time; once the cache outgrows
+ * its capacity the least recently read tenth is dropped in one pass.
+ */
+public class SearchCache {
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("booking.search.cacheSize", 10_000);
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("booking.search.parallelThreshold", 32);
+
+    public record Key(String source, String destination, LocalDate date) {
+
+        public static Key of(String source, String destination, LocalDate date) {
+            return new Key(RouteIndex.normalize(source), RouteIndex.normalize(destination), date);
+        }
+    }
+
+    /**
+     * A train with its free seats on the searched leg, in total and per coach (seat row).
+     */
+    public record Availability(Train train, int freeSeats, List<Integer> freeSeatsByCoach) {
+
+        static Availability count(Train train, SeatInventory inventory, long leg) {
+            int[] byCoach = inventory.freeSeatsByRow(leg);
+            return new Availability(train, Arrays.stream(byCoach).sum(), Arrays.stream(byCoach).boxed().toList());
+        }
+    }
+
+    private static final LongAdder HITS = Metrics.counter("search.cache.hits");
+    private static final LongAdder MISSES = Metrics.counter("search.cache.misses");
+    private static final LongAdder RECOUNTS = Metrics.counter("search.cache.recounts");
+    private static final LongAdder EVICTIONS = Metrics.counter("search.cache.evictions");
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong routeGeneration = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final BiFunction<Train, LocalDate, SeatInventory> inventories;
+    private final int capacity;
+
+    /**
+     * @param inventories the inventory to count free seats in for a train on a date
+     */
+    public SearchCache(BiFunction<Train, LocalDate, SeatInventory> inventories) {
+        this(inventories, DEFAULT_CAPACITY);
+    }
+
+    public SearchCache(BiFunction<Train, LocalDate, SeatInventory> inventories, int capacity) {
+        this.inventories = inventories;
+        this.capacity = Math.max(1, capacity);
+        Metrics.gauge("search.cache.size", entries::size);
+        Metrics.gauge("search.cache.hit_rate", SearchCache::hitRate);
+    }
+
+    /**
+     * Cached availability for the key, computing the train list with {@code routes} on a miss. The
+     * supplier must read the route index after this method is entered, so that a route change racing
+     * with the lookup is either seen by it or evicts what it stored.
+     */
+    public List<Availability> get(Key key, Supplier<List<Train>> routes) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            HITS.increment();
+            entry.lastRead = System.nanoTime();
+            return entry.availability(inventories);
+        }
+        MISSES.increment();
+        long generation = routeGeneration.get();
+        Entry created = new Entry(key, routes.get());
+        Entry existing = entries.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing.availability(inventories);
+        }
+        if (routeGeneration.get() != generation) {
+            entries.remove(key, created);
+        } else if (entries.size() > capacity) {
+            evict();
+        }
+        return created.availability(inventories);
+    }
+
+    /**
+     * Drops every cached pair served by either version of a train whose route or coaches changed.
+     */
+    public void invalidateRoute(Train previous, Train current) {
+        routeGeneration.incrementAndGet();
+        entries.keySet().removeIf(key -> serves(previous, key) || serves(current, key));
+    }
+
+    public void clear() {
+        routeGeneration.incrementAndGet();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public static double hitRate() {
+        long hits = HITS.sum();
+        long total = hits + MISSES.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static boolean serves(Train train, Key key) {
+        if (train == null) {
+            return false;
+        }
+        int source = train.indexOfStation(key.source());
+        return source >= 0 && source < train.indexOfStation(key.destination());
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int excess = entries.size() - capacity + capacity / 10;
+            if (excess <= 0) {
+                return;
+            }
+            long[] reads = entries.values().stream().mapToLong(entry -> entry.lastRead).sorted().toArray();
+            if (reads.length == 0) {
+                return;
+            }
+            long cutoff = reads[Math.min(excess, reads.length) - 1];
+            for (Entry entry : entries.values()) {
+                if (entry.lastRead <= cutoff && entries.remove(entry.key, entry)) {
+                    EVICTIONS.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private record Counts(List<Availability> availability, SeatInventory[] inventories, long[] versions) {}
+
+    private static final class Entry {
+
+        private final Key key;
+        private final Train[] trains;
+        private final long[] legs;
+        private volatile Counts counts;
+        private volatile long lastRead = System.nanoTime();
+
+        Entry(Key key, List<Train> trains) {
+            this.key = key;
+            this.trains = trains.toArray(new Train[0]);
+            this.legs = new long[this.trains.length];
+            for (int i = 0; i < this.trains.length; i++) {
+                legs[i] = this.trains[i].legMask(key.source(), key.destination());
+            }
+        }
+
+        /**
+         * The cached counts, recounting any train whose inventory changed on the searched leg since it
+         * was last counted. The version is read before counting, so a count is never older than its stamp.
+         */
+        List<Availability> availability(BiFunction<Train, LocalDate, SeatInventory> inventories) {
+            Counts current = counts;
+            SeatInventory[] sources = new SeatInventory[trains.length];
+            long[] versions = new long[trains.length];
+            int[] stale = new int[trains.length];
+            int staleCount = 0;
+            for (int i = 0; i < trains.length; i++) {
+                sources[i] = inventories.apply(trains[i], key.date());
+                versions[i] = sources[i].version(legs[i]);
+                if (current == null || current.inventories()[i] != sources[i] || current.versions()[i] != versions[i]) {
+                    stale[staleCount++] = i;
+                }
+            }
+            if (staleCount == 0) {
+                return current == null ? List.of() : current.availability();
+            }
+            Availability[] availability = current == null
+                    ? new Availability[trains.length]
+                    : current.availability().toArray(new Availability[0]);
+            IntStream recount = Arrays.stream(stale, 0, staleCount);
+            if (staleCount >= PARALLEL_THRESHOLD) {
+                recount = recount.parallel();
+            }
+            recount.forEach(i -> availability[i] = Availability.count(trains[i], sources[i], legs[i]));
+            if (current != null) {
+                RECOUNTS.add(staleCount);
+            }
+            Counts updated = new Counts(List.of(availability), sources, versions);
+            counts = updated;
+            return updated.availability();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Train;
+import ticket.booking.util.HashedWheelTimer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Short-lived seat holds for the hold -> confirm booking flow. A held seat is reserved in the journey's
+ * {@link SeatInventory}, so other searchers no longer see it, until the hold is confirmed, released or
+ * expires. Expiry is timed by one {@link HashedWheelTimer} rather than a scheduled task per hold, and
+ * expired holds give their seats back on a small pool of expiry threads, since that writes promoted
+ * waitlist tickets. Confirm, release and expiry all start by removing the hold from the table, so
+ * exactly one of them wins; confirm and release also cancel the hold's timeout.
+ *
+ * <p>Seats given back by a release or an expiry go through a {@link SeatReleaser}, which the booking
+ * context points at the waitlist. A hold stays tied to the inventory it was taken in; if the train is
+ * replaced meanwhile, {@link #reattach} moves it onto the journey's new inventory before it is confirmed.
+ */
+public class SeatHoldService implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(SeatHoldService.class.getName());
+
+    public static final long DEFAULT_TTL_SECONDS = Long.getLong("booking.hold.ttlSeconds", 300);
+    public static final int EXPIRY_THREADS = Integer.getInteger("booking.hold.expiryThreads", 2);
+
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 1024;
+
+    public record Hold(String holdId, String userId, Train train, LocalDate date, SeatInventory inventory,
+                       List<SeatInventory.Seat> seats, String source, String destination, long leg,
+                       long expiresAtMillis, HashedWheelTimer.Timeout expiry) {}
+
+    /**
+     * Frees one seat of a hold, hold marker included.
+     */
+    @FunctionalInterface
+    public interface SeatReleaser {
+        void release(Hold hold, SeatInventory.Seat seat) throws IOException;
+    }
+
+    private static final SeatReleaser FREE_SEAT = (hold, seat) ->
+            hold.inventory().releaseHold(seat.row(), seat.seat(), hold.leg());
+
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    private final HashedWheelTimer timer;
+    private final ExecutorService expiryExecutor;
+    private final long ttlMillis;
+    private final SeatReleaser releaser;
+
+    public SeatHoldService() {
+        this(FREE_SEAT);
+    }
+
+    public SeatHoldService(SeatReleaser releaser) {
+        this(DEFAULT_TTL_SECONDS, TimeUnit.SECONDS, releaser);
+    }
+
+    public SeatHoldService(long ttl, TimeUnit unit) {
+        this(ttl, unit, FREE_SEAT);
+    }
+
+    public SeatHoldService(long ttl, TimeUnit unit, SeatReleaser releaser) {
+        this.ttlMillis = unit.toMillis(ttl);
+        this.releaser = releaser;
+        this.expiryExecutor = Executors.newFixedThreadPool(Math.max(1, EXPIRY_THREADS), task -> {
+            Thread thread = new Thread(task, "seat-hold-release");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = new HashedWheelTimer("seat-hold-expiry", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL,
+                expiryExecutor);
+    }
+
+    /**
+     * Holds all of {@code seats} for {@code leg} in the journey's {@code inventory}, or none of them.
+     */
+    public Optional<Hold> hold(String userId, Train train, LocalDate date, SeatInventory inventory,
+                               List<SeatInventory.Seat> seats, String source, String destination, long leg) {
+        if (seats.isEmpty() || !inventory.tryHoldAll(seats, leg)) {
+            return Optional.empty();
+        }
+        String holdId = UUID.randomUUID().toString();
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        HashedWheelTimer.Timeout expiry = timer.schedule(() -> expire(holdId), ttlMillis, TimeUnit.MILLISECONDS);
+        Hold hold = new Hold(holdId, userId, train, date, inventory, List.copyOf(seats), source, destination, leg,
+                expiresAt, expiry);
+        holds.put(holdId, hold);
+        if (expiry.isExpired()) {
+            // fired before the hold was in the table
+            expiryExecutor.execute(() -> expire(holdId));
+        }
+        return Optional.of(hold);
+    }
+
+    /**
+     * Removes the hold so it can be confirmed. The seats stay reserved; the caller either turns them
+     * into bookings with {@link #completeHold(Hold)} or gives them back with {@link #releaseSeats(Hold)}.
+     */
+    public Optional<Hold> take(String holdId, String userId) {
+        Hold hold = holdId == null ? null : holds.get(holdId);
+        if (hold == null || !hold.userId().equals(userId) || !holds.remove(holdId, hold)) {
+            return Optional.empty();
+        }
+        return Optional.of(hold);
+    }
+
+    public boolean release(String holdId, String userId) {
+        Optional<Hold> hold = take(holdId, userId);
+        hold.ifPresent(this::releaseSeats);
+        return hold.isPresent();
+    }
+
+    /**
+     * The taken {@code hold} as it stands in {@code current}, the journey's inventory now. If the train
+     * was replaced since the seats were held, they are held again in the new inventory for the new
+     * train's leg, or the hold fails if one of them no longer fits or has been sold meanwhile; either
+     * way the seats held in the replaced inventory are dropped. Call it under the journey lock.
+     */
+    public Optional<Hold> reattach(Hold hold, Train train, SeatInventory current) {
+        if (current == hold.inventory()) {
+            return Optional.of(hold);
+        }
+        for (SeatInventory.Seat seat : hold.seats()) {
+            hold.inventory().releaseHold(seat.row(), seat.seat(), hold.leg());
+        }
+        long leg = train.legMask(hold.source(), hold.destination());
+        if (leg == 0 || !current.tryHoldAll(hold.seats(), leg)) {
+            return Optional.empty();
+        }
+        return Optional.of(new Hold(hold.holdId(), hold.userId(), train, hold.date(), current, hold.seats(),
+                hold.source(), hold.destination(), leg, hold.expiresAtMillis(), hold.expiry()));
+    }
+
+    public void completeHold(Hold hold) {
+        hold.expiry().cancel();
+        SeatInventory inventory = hold.inventory();
+        for (SeatInventory.Seat seat : hold.seats()) {
+            inventory.confirmHold(seat.row(), seat.seat(), hold.leg());
+        }
+    }
+
+    public void releaseSeats(Hold hold) {
+        hold.expiry().cancel();
+        for (SeatInventory.Seat seat : hold.seats()) {
+            try {
+                releaser.release(hold, seat);
+            } catch (IOException e) {
+                LOG.warning(() -> "Could not give back seat " + seat.row() + "," + seat.seat() + " of hold "
+                        + hold.holdId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public int size() {
+        return holds.size();
+    }
+
+    public long getTtlSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(ttlMillis);
+    }
+
+    private void expire(String holdId) {
+        Hold hold = holds.remove(holdId);
+        if (hold != null) {
+            releaseSeats(hold);
+        }
+    }
+
+    /**
+     * Stops the timer and waits briefly for expiries already handed to the pool.
+     */
+    @Override
+    public void close() {
+        timer.close();
+        expiryExecutor.shutdown();
+        try {
+            if (!expiryExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warning("Seat hold expiries still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
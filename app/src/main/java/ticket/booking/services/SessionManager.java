@@ -0,0 +1,107 @@
+package ticket.booking.services;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opaque session tokens issued after a successful login. Sessions live in a bounded access-ordered map:
+ * each lookup slides the idle timeout forward, and once the map is full the least recently used
+ * session is evicted. Because the map is ordered by last access, expired sessions always sit at its
+ * head and are trimmed from there whenever a new session is created.
+ */
+public class SessionManager {
+
+    public static final long DEFAULT_TTL_MINUTES = Long.getLong("booking.session.ttlMinutes", 30);
+    public static final int DEFAULT_MAX_SESSIONS = Integer.getInteger("booking.session.maxEntries", 100_000);
+
+    private static final int TOKEN_BYTES = 32;
+
+    private static final class Session {
+
+        final String userId;
+        long expiresAt;
+
+        Session(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlNanos;
+    private final int maxSessions;
+    private final LinkedHashMap<String, Session> sessions;
+
+    public SessionManager() {
+        this(DEFAULT_TTL_MINUTES, TimeUnit.MINUTES, DEFAULT_MAX_SESSIONS);
+    }
+
+    public SessionManager(long ttl, TimeUnit unit, int maxSessions) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSessions = maxSessions;
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > SessionManager.this.maxSessions;
+            }
+        };
+    }
+
+    public String create(String userId) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = System.nanoTime();
+        synchronized (sessions) {
+            evictExpired(now);
+            sessions.put(token, new Session(userId, now + ttlNanos));
+        }
+        return token;
+    }
+
+    public Optional<String> resolve(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        long now = System.nanoTime();
+        synchronized (sessions) {
+            Session session = sessions.get(token);
+            if (session == null) {
+                return Optional.empty();
+            }
+            if (now - session.expiresAt > 0) {
+                sessions.remove(token);
+                return Optional.empty();
+            }
+            session.expiresAt = now + ttlNanos;
+            return Optional.of(session.userId);
+        }
+    }
+
+    public void invalidate(String token) {
+        if (token == null) {
+            return;
+        }
+        synchronized (sessions) {
+            sessions.remove(token);
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext() && now - iterator.next().expiresAt > 0) {
+            iterator.remove();
+        }
+    }
+}
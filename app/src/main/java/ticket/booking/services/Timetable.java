@@ -0,0 +1,227 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.Train;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Station -> departures index for the journey planner. Every timed train is a route with one run per
+ * day: its stops are station ids with the minutes after midnight of the day the run starts, going past
+ * {@value #MINUTES_PER_DAY} for trains that run overnight. Each station lists the (route, position)
+ * pairs that call there.
+ *
+ * <p>Like {@link RouteIndex}, a published timetable is never modified. {@link #withTrain(Train)} returns
+ * a copy that shares every station and route the change did not touch, so an update rebuilds only the
+ * departure lists of the stations the old and the new version of the train call at.
+ */
+public class Timetable {
+
+    private static final Logger LOG = Logger.getLogger(Timetable.class.getName());
+
+    static final int MINUTES_PER_DAY = 1440;
+
+    record Route(Train train, int[] stops, int[] minutes) {}
+
+    /** Routes calling at a station and the position of the station in each, as parallel arrays. */
+    record Calls(int[] routes, int[] positions) {
+
+        static final Calls NONE = new Calls(new int[0], new int[0]);
+    }
+
+    private final Map<String, Integer> stationIds;
+    private final Map<String, Integer> routeIds;
+    private Calls[] calls;
+    private Route[] routes;
+    private int stationCount;
+    private int routeCount;
+
+    public Timetable() {
+        this(List.of());
+    }
+
+    public Timetable(List<Train> trains) {
+        stationIds = new HashMap<>();
+        routeIds = new HashMap<>();
+        calls = new Calls[16];
+        routes = new Route[Math.max(16, trains.size())];
+        for (Train train : trains) {
+            Route route = routeOf(train);
+            if (route == null) {
+                continue;
+            }
+            int routeId = routeIds.computeIfAbsent(RouteIndex.normalize(train.getTrainId()), key -> routeCount++);
+            routes[routeId] = route;
+        }
+        int[] callCounts = new int[stationCount];
+        for (int routeId = 0; routeId < routeCount; routeId++) {
+            for (int station : routes[routeId].stops()) {
+                callCounts[station]++;
+            }
+        }
+        for (int station = 0; station < stationCount; station++) {
+            calls[station] = new Calls(new int[callCounts[station]], new int[callCounts[station]]);
+            callCounts[station] = 0;
+        }
+        for (int routeId = 0; routeId < routeCount; routeId++) {
+            int[] stops = routes[routeId].stops();
+            for (int position = 0; position < stops.length; position++) {
+                Calls stationCalls = calls[stops[position]];
+                int slot = callCounts[stops[position]]++;
+                stationCalls.routes()[slot] = routeId;
+                stationCalls.positions()[slot] = position;
+            }
+        }
+    }
+
+    private Timetable(Timetable other) {
+        stationIds = new HashMap<>(other.stationIds);
+        routeIds = new HashMap<>(other.routeIds);
+        calls = other.calls.clone();
+        routes = other.routes.clone();
+        stationCount = other.stationCount;
+        routeCount = other.routeCount;
+    }
+
+    public Timetable withTrain(Train train) {
+        Timetable copy = new Timetable(this);
+        copy.replace(train);
+        return copy;
+    }
+
+    public int stationCount() {
+        return stationCount;
+    }
+
+    public int routeCount() {
+        return routeCount;
+    }
+
+    /** The station's id, or -1 when no timed train calls there. */
+    int stationId(String station) {
+        Integer id = stationIds.get(RouteIndex.normalize(station));
+        return id == null ? -1 : id;
+    }
+
+    Calls callsAt(int station) {
+        Calls stationCalls = calls[station];
+        return stationCalls == null ? Calls.NONE : stationCalls;
+    }
+
+    /** The route, or null when the train it belonged to has lost its timings. */
+    Route route(int routeId) {
+        return routes[routeId];
+    }
+
+    private void replace(Train train) {
+        String trainKey = RouteIndex.normalize(train.getTrainId());
+        Integer existing = routeIds.get(trainKey);
+        Route route = routeOf(train);
+        int routeId;
+        if (existing != null) {
+            routeId = existing;
+            Route old = routes[routeId];
+            if (old != null) {
+                for (int station : distinct(old.stops())) {
+                    calls[station] = without(callsAt(station), routeId);
+                }
+            }
+        } else if (route != null) {
+            routeId = routeCount++;
+            routeIds.put(trainKey, routeId);
+            if (routeId == routes.length) {
+                routes = Arrays.copyOf(routes, routeId * 2);
+            }
+        } else {
+            return;
+        }
+        routes[routeId] = route;
+        if (route == null) {
+            return;
+        }
+        int[] stops = route.stops();
+        for (int position = 0; position < stops.length; position++) {
+            Calls stationCalls = callsAt(stops[position]);
+            int[] routeList = Arrays.copyOf(stationCalls.routes(), stationCalls.routes().length + 1);
+            int[] positions = Arrays.copyOf(stationCalls.positions(), routeList.length);
+            routeList[routeList.length - 1] = routeId;
+            positions[positions.length - 1] = position;
+            calls[stops[position]] = new Calls(routeList, positions);
+        }
+    }
+
+    private static Calls without(Calls stationCalls, int routeId) {
+        int[] routeList = new int[stationCalls.routes().length];
+        int[] positions = new int[routeList.length];
+        int kept = 0;
+        for (int i = 0; i < routeList.length; i++) {
+            if (stationCalls.routes()[i] != routeId) {
+                routeList[kept] = stationCalls.routes()[i];
+                positions[kept++] = stationCalls.positions()[i];
+            }
+        }
+        return kept == 0 ? null : new Calls(Arrays.copyOf(routeList, kept), Arrays.copyOf(positions, kept));
+    }
+
+    private static int[] distinct(int[] stops) {
+        return Arrays.stream(stops).distinct().toArray();
+    }
+
+    /**
+     * The train as a route, or null when it has fewer than two stations or a station without a valid
+     * time. A time earlier than the previous stop's means the train has passed midnight.
+     */
+    private Route routeOf(Train train) {
+        List<String> stations = train.getStations();
+        Map<String, String> stationTimes = train.getStationTimes();
+        if (stations == null || stations.size() < 2 || stationTimes == null) {
+            return null;
+        }
+        Map<String, String> times = new HashMap<>();
+        stationTimes.forEach((station, time) -> times.put(RouteIndex.normalize(station), time));
+        int[] stops = new int[stations.size()];
+        int[] minutes = new int[stations.size()];
+        int day = 0;
+        for (int position = 0; position < stations.size(); position++) {
+            String station = RouteIndex.normalize(stations.get(position));
+            String time = times.get(station);
+            LocalTime parsed;
+            try {
+                parsed = time == null ? null : LocalTime.parse(time.trim());
+            } catch (DateTimeParseException e) {
+                parsed = null;
+            }
+            if (parsed == null) {
+                LOG.fine(() -> "Train " + train.getTrainId() + " has no valid time at " + station
+                        + "; it is left out of journey planning");
+                return null;
+            }
+            int minute = day + parsed.getHour() * 60 + parsed.getMinute();
+            if (position > 0 && minute < minutes[position - 1]) {
+                day += MINUTES_PER_DAY;
+                minute += MINUTES_PER_DAY;
+            }
+            stops[position] = internStation(station);
+            minutes[position] = minute;
+        }
+        return new Route(train, stops, minutes);
+    }
+
+    private int internStation(String station) {
+        Integer id = stationIds.get(station);
+        if (id != null) {
+            return id;
+        }
+        int created = stationCount++;
+        stationIds.put(station, created);
+        if (created == calls.length) {
+            calls = Arrays.copyOf(calls, created * 2);
+        }
+        return created;
+    }
+}
@@ -1,74 +1,252 @@
 package ticket.booking.services;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.entities.SeatInventory;
 import ticket.booking.entities.Train;
+import ticket.booking.persistence.BinarySnapshot;
+import ticket.booking.persistence.SnapshotFormat;
+import ticket.booking.util.JsonMappers;
+import ticket.booking.util.JsonRecordLoader;
+import ticket.booking.util.Metrics;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
-import java.util.OptionalInt;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class TrainService {
 
-    private List<Train> trainList;
-    private ObjectMapper objectMapper = new ObjectMapper();
-    private static final String TRAIN_DB_PATH = "app/src/main/java/ticket/booking/localDb/trains.json";
+    private static final Logger LOG = Logger.getLogger(TrainService.class.getName());
+
+    private volatile List<Train> trainList;
+    private volatile RouteIndex routeIndex;
+    private volatile Timetable timetable;
+    private final String trainDbPath;
+    private final SnapshotFormat snapshotFormat;
+    private final JourneyInventory journeys =
+            new JourneyInventory(JourneyInventory.DEFAULT_BOOKING_WINDOW_DAYS, this::getTrain);
+    private final SearchCache searchCache = new SearchCache(journeys::view);
+    private final Object saveLock = new Object();
+    private final AtomicLong saveRequests = new AtomicLong();
+    private long savedThrough;
 
     public TrainService() throws IOException {
-        File trains = new File(TRAIN_DB_PATH);
-        trainList = objectMapper.readValue(trains, new TypeReference<>() {
-        });
+        this(BookingContext.TRAIN_DB_PATH);
     }
 
-    public List<Train> searchTrains(String source, String destination) {
-        return trainList.stream().filter(train -> validTrain(train, source, destination)).collect(Collectors.toList());
+    public TrainService(String trainDbPath) throws IOException {
+        this(trainDbPath, SnapshotFormat.DEFAULT);
     }
 
-    public void addTrain(Train newTrain) {
-        Optional<Train> existingTrain = trainList.stream()
-                .filter(train -> train.getTrainId().equalsIgnoreCase(newTrain.getTrainId()))
-                .findFirst();
-
-        if (existingTrain.isPresent()) {
-            updateTrain(newTrain);
+    public TrainService(String trainDbPath, SnapshotFormat snapshotFormat) throws IOException {
+        long start = System.nanoTime();
+        this.trainDbPath = trainDbPath;
+        this.snapshotFormat = snapshotFormat;
+        Path binarySnapshot = SnapshotFormat.binaryPathFor(Path.of(trainDbPath));
+        List<Train> loaded;
+        if (snapshotFormat == SnapshotFormat.BINARY && Files.exists(binarySnapshot)) {
+            loaded = BinarySnapshot.readTrains(binarySnapshot);
         } else {
-            trainList.add(newTrain);
-            saveTrainListToFile();
+            loaded = new ArrayList<>();
+            JsonRecordLoader.load(new File(trainDbPath), JsonMappers.TRAIN_MAPPER, Train.class, loaded::add);
+        }
+        trainList = Collections.unmodifiableList(loaded);
+        routeIndex = new RouteIndex(trainList);
+        timetable = new Timetable(trainList);
+        for (Train train : trainList) {
+            registerOccupancyGauge(train);
         }
+        Metrics.histogram("load.trains").recordSince(start);
+    }
+
+    public List<Train> getTrains() {
+        return trainList;
+    }
+
+    public Train getTrain(String trainId) {
+        return routeIndex.get(trainId);
+    }
+
+    public JourneyInventory getJourneyInventory() {
+        return journeys;
+    }
+
+    /**
+     * The seat inventory of a train's journey on {@code date}.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public SeatInventory inventory(Train train, LocalDate date) {
+        return journeys.forDate(train, date);
+    }
+
+    /**
+     * The journey of a train on {@code date} together with the catalog train its seats are laid out for.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public JourneyInventory.Journey journey(Train train, LocalDate date) {
+        return journeys.journey(train, date);
+    }
+
+    /**
+     * Gives back seats booked between {@code source} and {@code destination} in the journey as it is now,
+     * which may have moved to a replaced train since they were reserved. Dates that can no longer be
+     * booked are left alone.
+     */
+    public void release(Train train, LocalDate date, List<SeatInventory.Seat> seats, String source,
+                        String destination) {
+        if (!journeys.isBookable(date)) {
+            return;
+        }
+        Lock lock = lockFor(train.getTrainId(), date);
+        lock.lock();
+        try {
+            JourneyInventory.Journey journey = journeys.journey(train, date);
+            long leg = journey.train().legMask(source, destination);
+            for (SeatInventory.Seat seat : seats) {
+                if (leg != 0 && journey.seats().isValid(seat.row(), seat.seat())) {
+                    journey.seats().release(seat.row(), seat.seat(), leg);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Train> searchTrains(String source, String destination) {
+        return searchAvailability(source, destination, LocalDate.now()).stream()
+                .map(SearchCache.Availability::train)
+                .toList();
+    }
+
+    /**
+     * Trains running from {@code source} to {@code destination} with their free seats on that leg on
+     * {@code date}, served from the search cache when the pair was searched before.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public List<SearchCache.Availability> searchAvailability(String source, String destination, LocalDate date) {
+        journeys.requireBookable(date);
+        long start = System.nanoTime();
+        List<SearchCache.Availability> result = searchCache.get(SearchCache.Key.of(source, destination, date),
+                () -> routeIndex.search(source, destination));
+        Metrics.histogram("search").recordSince(start);
+        return result;
+    }
+
+    /**
+     * Itineraries from {@code source} to {@code destination} leaving at or after {@code earliest}, with
+     * up to {@code maxChanges} changes of train (at most {@value JourneyPlanner#MAX_CHANGES}). Each leg
+     * carries the date its train's run starts, which is the date to book it on.
+     *
+     * @throws IllegalArgumentException if the departure date is outside the booking window
+     */
+    public List<JourneyPlanner.Itinerary> planJourneys(String source, String destination, LocalDateTime earliest,
+                                                       int maxChanges) {
+        journeys.requireBookable(earliest.toLocalDate());
+        long start = System.nanoTime();
+        List<JourneyPlanner.Itinerary> result = JourneyPlanner.plan(timetable, source, destination, earliest,
+                maxChanges);
+        Metrics.histogram("plan").recordSince(start);
+        return result;
+    }
+
+    public void addTrain(Train newTrain) {
+        upsert(newTrain);
+        saveTrainListToFile();
     }
 
     public void updateTrain(Train updatedTrain) {
-        OptionalInt index = IntStream.range(0, trainList.size())
-                .filter(i -> trainList.get(i).getTrainId().equalsIgnoreCase(updatedTrain.getTrainId()))
-                .findFirst();
+        upsert(updatedTrain);
+        saveTrainListToFile();
+    }
+
+    /**
+     * Per-journey mutation lock. Every reservation and release takes it and looks the journey up under
+     * it, so that replacing the train cannot carry the journey over half-way through a change, and two
+     * group bookings on one train and date do not keep undoing each other's partial reservations. Reads
+     * stay lock-free on the seat inventory.
+     */
+    public Lock lockFor(String trainId, LocalDate date) {
+        return journeys.lockFor(trainId, date);
+    }
 
-        if (index.isPresent()) {
-            trainList.set(index.getAsInt(), updatedTrain);
+    private synchronized void upsert(Train train) {
+        int index = routeIndex.position(train.getTrainId());
+        List<Train> updated = new ArrayList<>(trainList);
+        Train previous = null;
+        if (index >= 0) {
+            previous = updated.set(index, train);
         } else {
-            addTrain(updatedTrain);
+            updated.add(train);
         }
+        publish(updated, routeIndex.withTrain(train), timetable.withTrain(train));
+        if (previous != null) {
+            journeys.retemplate(train);
+        }
+        searchCache.invalidateRoute(previous, train);
+        registerOccupancyGauge(train);
+    }
 
-        saveTrainListToFile();
+    private void registerOccupancyGauge(Train train) {
+        Metrics.gauge("train." + train.getTrainId() + ".occupancy",
+                () -> occupancy(journeys.view(train, LocalDate.now())));
     }
 
-    private void saveTrainListToFile() {
-        try {
-            objectMapper.writeValue(new File(TRAIN_DB_PATH), trainList);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Share of the seats booked on at least one leg; the gauge reads today's journey.
+     */
+    private static double occupancy(SeatInventory inventory) {
+        int totalSeats = 0;
+        for (int row = 0; row < inventory.getRowCount(); row++) {
+            totalSeats += inventory.getSeatCount(row);
         }
+        return totalSeats == 0 ? 0 : 1 - (double) inventory.freeSeatCount(inventory.fullRunMask()) / totalSeats;
     }
 
-    private boolean validTrain(Train train, String source, String destination) {
-        List<String> stationOrder = train.getStations();
+    private void publish(List<Train> trains, RouteIndex index, Timetable updatedTimetable) {
+        trainList = Collections.unmodifiableList(trains);
+        routeIndex = index;
+        timetable = updatedTimetable;
+    }
 
-        int sourceIndex = stationOrder.indexOf(source.toLowerCase());
-        int destinationIndex = stationOrder.indexOf(destination.toLowerCase());
+    public synchronized void exportJson(String jsonPath) throws IOException {
+        JsonMappers.TRAIN_MAPPER.writeValue(new File(jsonPath), trainList);
+    }
 
-        return sourceIndex != -1 && destinationIndex != -1 && sourceIndex < destinationIndex;
+    /**
+     * Writes the current train list. Concurrent callers share writes: a caller whose changes were
+     * already covered by a write that started after it asked returns without writing again.
+     */
+    public void saveTrainListToFile() {
+        long request = saveRequests.incrementAndGet();
+        synchronized (saveLock) {
+            if (savedThrough >= request) {
+                return;
+            }
+            long covered = saveRequests.get();
+            long start = System.nanoTime();
+            try {
+                if (snapshotFormat == SnapshotFormat.BINARY) {
+                    BinarySnapshot.writeTrains(SnapshotFormat.binaryPathFor(Path.of(trainDbPath)), trainList);
+                } else {
+                    JsonMappers.TRAIN_MAPPER.writeValue(new File(trainDbPath), trainList);
+                }
+                savedThrough = covered;
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not save trains to " + trainDbPath, e);
+            } finally {
+                Metrics.histogram("save.trains").recordSince(start);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,232 +1,718 @@
 package ticket.booking.services;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.SeatPreferences;
 import ticket.booking.entities.Ticket;
 import ticket.booking.entities.Train;
 import ticket.booking.entities.User;
-import ticket.booking.util.UserServiceUtil;
+import ticket.booking.persistence.JournalSyncException;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.util.Metrics;
 
-import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public class UserBookingService {
 
-    private ObjectMapper objectMapper;
+    private static final Logger LOG = Logger.getLogger(UserBookingService.class.getName());
+    private static final int MAX_ALLOCATION_ATTEMPTS = 3;
 
-    private List<User> userList;
+    private final BookingContext context;
+    private final UserRepository userRepository;
     private User user;
-
-    private final String USER_FILE_PATH = "app/src/main/java/ticket/booking/localDb/users.json";
+    private String sessionToken;
 
     public UserBookingService(User user) throws IOException {
+        this(user, BookingContext.getDefault());
+    }
+
+    public UserBookingService(User user, BookingContext context) throws IOException {
         this.user = user;
-        this.objectMapper = new ObjectMapper();
-        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-        loadUserListFromFile();
+        this.context = context;
+        this.userRepository = context.getUserRepository();
     }
 
-    private void loadUserListFromFile() throws IOException {
-        try {
-            File usersFile = new File(USER_FILE_PATH);
-            if (usersFile.exists()) {
-                userList = objectMapper.readValue(usersFile, new TypeReference<List<User>>() {
-                });
-            } else {
-                System.out.println("Users file not found. Creating new list.");
-                userList = new ArrayList<>();
-            }
-        } catch (IOException e) {
-            System.out.println("Error loading user list: " + e.getMessage());
-            e.printStackTrace();
-            userList = new ArrayList<>();
+    public static Optional<UserBookingService> forSession(String sessionToken, BookingContext context) throws IOException {
+        Optional<User> sessionUser = context.getSessionManager().resolve(sessionToken)
+                .flatMap(context.getUserRepository()::findById);
+        if (sessionUser.isEmpty()) {
+            return Optional.empty();
         }
+        UserBookingService service = new UserBookingService(sessionUser.get(), context);
+        service.sessionToken = sessionToken;
+        return Optional.of(service);
     }
 
     public Boolean loginUser() {
-        Optional<User> foundUser = userList.stream()
-                .filter(u -> u.getName().equals(user.getName()) &&
-                        UserServiceUtil.checkPassword(user.getPassword(), u.getHashedPassword()))
-                .findFirst();
+        long start = System.nanoTime();
+        Optional<User> foundUser = authenticate();
+        foundUser.ifPresent(u -> {
+            this.user = u;
+            this.sessionToken = context.getSessionManager().create(u.getUserId());
+        });
+        recordOutcome("login", start, foundUser.isPresent());
         return foundUser.isPresent();
     }
 
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * The logged-in user, looked up once per operation and passed down from there: each lookup takes the
+     * session manager's lock.
+     */
+    private Optional<User> sessionUser() {
+        Optional<User> sessionUser = context.getSessionManager().resolve(sessionToken)
+                .flatMap(userRepository::findById);
+        if (sessionUser.isEmpty()) {
+            LOG.info(() -> "Session expired or missing. Please login again.");
+        }
+        return sessionUser;
+    }
+
+    private Optional<User> authenticate() {
+        try {
+            return context.getAuthService().authenticate(user.getName(), user.getPassword(), null).join();
+        } catch (CompletionException e) {
+            LOG.warning(() -> "Authentication failed: " + e.getCause().getMessage());
+            return Optional.empty();
+        } catch (IOException e) {
+            LOG.warning(() -> "Authentication failed: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public User getUser() {
+        return user;
+    }
+
     public Boolean signUp(User user) {
         try {
-            userList.add(user);
-            saveUserListToFile();
+            if (!userRepository.add(user)) {
+                LOG.info(() -> "User name " + user.getName() + " is already taken.");
+                return false;
+            }
             return true;
         } catch (IOException e) {
-            System.out.println("Error saving user after sign up: " + e.getMessage());
+            LOG.warning(() -> "Error saving user after sign up: " + e.getMessage());
             return false;
         }
     }
 
     public void fetchBookings() {
-        try {
-            System.out.println("Reloading user list...");
-            loadUserListFromFile();
-            System.out.println("User list reloaded. Current size: " + userList.size());
-
-            System.out.println("Attempting to fetch bookings for user: " + user.getName());
-
-            Optional<User> foundUser = userList.stream()
-                    .filter(u -> u.getUserId().equals(user.getUserId()))
-                    .findFirst();
+        Optional<User> foundUser = sessionUser();
 
-            System.out.println("Found user: " + foundUser.isPresent());
+        LOG.fine(() -> "Found user: " + foundUser.isPresent());
 
-            if (foundUser.isPresent()) {
-                User loggedInUser = foundUser.get();
-                System.out.println("Fetching bookings for user: " + loggedInUser.getName());
+        if (foundUser.isPresent()) {
+            User loggedInUser = foundUser.get();
+            System.out.println("Fetching bookings for user: " + loggedInUser.getName());
 
-                List<Ticket> bookedTickets = loggedInUser.getTicketsBooked();
-                if (bookedTickets == null || bookedTickets.isEmpty()) {
-                    System.out.println("No bookings found for user: " + loggedInUser.getName());
-                } else {
-                    System.out.println("Found " + bookedTickets.size() + " bookings:");
-                    for (Ticket ticket : bookedTickets) {
-                        System.out.println(ticket.getTicketInfo());
-                    }
-                }
+            List<Ticket> bookedTickets = loggedInUser.getTicketsBooked();
+            if (bookedTickets == null || bookedTickets.isEmpty()) {
+                System.out.println("No bookings found for user: " + loggedInUser.getName());
             } else {
-                System.out.println("No user found with the provided credentials.");
+                System.out.println("Found " + bookedTickets.size() + " bookings:");
+                TrainService trainService = trainService();
+                for (Ticket ticket : bookedTickets) {
+                    Train train = trainService == null ? null : trainService.getTrain(ticket.getTrainId());
+                    System.out.println(ticket.getTicketInfo(train));
+                }
             }
-        } catch (IOException e) {
-            System.out.println("Error fetching bookings: " + e.getMessage());
-            e.printStackTrace();
+        } else {
+            System.out.println("No user found with the provided credentials.");
         }
     }
 
     public Boolean cancelBooking(String ticketId) {
+        return cancelBooking(ticketId, null);
+    }
+
+    /**
+     * Cancels {@code ticketId}; a repeated call with the same {@code idempotencyKey} reports the first
+     * call's outcome instead of failing because the ticket is already gone, also after a restart.
+     *
+     * @throws IdempotencyCache.KeyReusedException if the key was used to cancel another ticket
+     */
+    public Boolean cancelBooking(String ticketId, String idempotencyKey) {
+        long start = System.nanoTime();
+        Optional<User> owner = sessionUser();
+        boolean cancelled;
+        if (owner.isEmpty()) {
+            LOG.info(() -> "User not found.");
+            cancelled = false;
+        } else if (idempotencyKey == null) {
+            cancelled = cancel(owner.get(), ticketId, null);
+        } else {
+            cancelled = idempotencyCache()
+                    .map(cache -> cache.cancel(owner.get().getUserId(), idempotencyKey, ticketId,
+                            () -> cancel(owner.get(), ticketId, idempotencyKey)))
+                    .orElse(false);
+        }
+        recordOutcome("cancel", start, cancelled);
+        return cancelled;
+    }
+
+    private boolean cancel(User owner, String ticketId, String idempotencyKey) {
         try {
             if (ticketId == null || ticketId.isEmpty()) {
-                System.out.println("Ticket ID cannot be null or empty.");
+                LOG.info(() -> "Ticket ID cannot be null or empty.");
                 return false;
             }
 
-            Optional<User> foundUser = userList.stream()
-                    .filter(u -> u.getName().equals(user.getName()) &&
-                            UserServiceUtil.checkPassword(user.getPassword(), u.getHashedPassword()))
-                    .findFirst();
-
-            if (foundUser.isPresent()) {
-                Optional<Ticket> ticketToRemove = foundUser.get().getTicketsBooked().stream()
-                        .filter(ticket -> ticket.getTicketId().equals(ticketId))
-                        .findFirst();
-
-                if (ticketToRemove.isPresent()) {
-                    foundUser.get().getTicketsBooked().remove(ticketToRemove.get());
-                    saveUserListToFile();
-                    System.out.println("Ticket with ID " + ticketId + " has been canceled.");
-                    return true;
-                } else {
-                    System.out.println("No ticket found with ID " + ticketId);
-                    return false;
-                }
+            Optional<UserRepository.BookedTicket> ticketToRemove = userRepository.findTicket(ticketId)
+                    .filter(booked -> booked.userId().equals(owner.getUserId()));
+
+            if (ticketToRemove.isPresent()
+                    && userRepository.removeTicket(owner.getUserId(), ticketId, idempotencyKey)) {
+                LOG.info(() -> "Ticket with ID " + ticketId + " has been canceled.");
+                context.getIdempotencyCache().forgetTicket(ticketId);
+                releaseSeat(ticketToRemove.get().ticket());
+                return true;
             } else {
-                System.out.println("User not found.");
+                LOG.info(() -> "No ticket found with ID " + ticketId);
                 return false;
             }
         } catch (Exception e) {
-            // TODO: handle exception
-            System.out.println("Error booking train seat: " + e.getMessage());
+            LOG.warning(() -> "Error cancelling booking: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void releaseSeat(Ticket ticket) throws IOException {
+        TrainService trainService = context.getTrainService();
+        Train train = trainService.getTrain(ticket.getTrainId());
+        if (train == null || ticket.getRow() == null || ticket.getSeat() == null) {
+            LOG.info(() -> "No seat recorded for ticket " + ticket.getTicketId() + "; nothing to release.");
+            return;
+        }
+        LocalDate date = ticket.getJourneyDate();
+        if (date == null || !trainService.getJourneyInventory().isBookable(date)) {
+            LOG.fine(() -> "Ticket " + ticket.getTicketId() + " is not for an upcoming journey; nothing to release.");
+            return;
+        }
+        WaitlistService waitlistService = context.getWaitlistService();
+        List<Ticket> promoted;
+        try {
+            promoted = waitlistService.releaseSeat(train, date, ticket.getRow(), ticket.getSeat(), ticket.getSource(),
+                    ticket.getDestination());
+        } catch (IOException e) {
+            LOG.warning(() -> "Seat of ticket " + ticket.getTicketId() + " freed, but the waitlist could not be "
+                    + "promoted: " + e.getMessage());
+            return;
+        }
+        if (!promoted.isEmpty()) {
+            LOG.info(() -> "Seat reallocated to " + promoted.size() + " waitlisted request(s).");
+        }
+    }
+
+    public Optional<WaitlistService.Entry> joinWaitlist(Train train, LocalDate date, String source, String dest) {
+        try {
+            Optional<User> waitingUser = sessionUser();
+            if (waitingUser.isEmpty()) {
+                return Optional.empty();
+            }
+            Train catalogTrain = catalogTrain(context.getTrainService(), train);
+            WaitlistService waitlistService = context.getWaitlistService();
+            WaitlistService.Entry entry = waitlistService.join(waitingUser.get().getUserId(), catalogTrain, date,
+                    source, dest, 0);
+            LOG.info(() -> "Added to the waitlist for " + catalogTrain.getTrainId() + " on " + date + " (" + source
+                    + " to " + dest + "), position " + waitlistService.size(catalogTrain.getTrainId(), date)
+                    + ". Waitlist ID: " + entry.entryId());
+            return Optional.of(entry);
+        } catch (IllegalArgumentException | IOException ex) {
+            LOG.warning(() -> "Could not join the waitlist: " + ex.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public boolean leaveWaitlist(String entryId) {
+        try {
+            Optional<User> waitingUser = sessionUser();
+            if (waitingUser.isEmpty()) {
+                return false;
+            }
+            WaitlistService waitlistService = context.getWaitlistService();
+            Optional<WaitlistService.Entry> entry = waitlistService.find(entryId);
+            return entry.isPresent()
+                    && waitlistService.leave(entry.get().trainId(), entry.get().date(), entryId,
+                    waitingUser.get().getUserId());
+        } catch (IOException ex) {
+            LOG.warning(() -> "Could not leave the waitlist: " + ex.getMessage());
             return false;
         }
     }
 
     public Boolean bookTrainSeat(Train train, int row, int seat, String source, String dest) {
+        return bookSeat(train, LocalDate.now(), row, seat, source, dest).isPresent();
+    }
+
+    public Optional<Ticket> bookSeat(Train train, LocalDate date, int row, int seat, String source, String dest) {
+        return bookSeat(train, date, row, seat, source, dest, null);
+    }
+
+    /**
+     * Books one seat. With an {@code idempotencyKey}, a repeated call returns the ticket sold by the
+     * first one instead of booking again; the key is stored on the ticket.
+     */
+    public Optional<Ticket> bookSeat(Train train, LocalDate date, int row, int seat, String source, String dest,
+                                     String idempotencyKey) {
+        long start = System.nanoTime();
+        Optional<User> owner = sessionUser();
+        String fingerprint = idempotencyKey == null ? null
+                : IdempotencyCache.fingerprint("seat", train.getTrainId(), date, source, dest, row, seat);
+        Optional<Ticket> ticket = owner.isEmpty() ? Optional.empty()
+                : deduplicated(owner.get(), idempotencyKey, fingerprint,
+                () -> bookOne(owner.get(), train, date, row, seat, source, dest, idempotencyKey, fingerprint)
+                        .map(List::of).orElse(List.of()))
+                .stream().findFirst();
+        recordOutcome("book", start, ticket.isPresent());
+        return ticket;
+    }
+
+    private List<Ticket> deduplicated(User owner, String idempotencyKey, String fingerprint,
+                                      Supplier<List<Ticket>> booking) {
+        if (idempotencyKey == null) {
+            return booking.get();
+        }
+        return idempotencyCache()
+                .map(cache -> cache.book(owner.getUserId(), idempotencyKey, fingerprint, booking))
+                .orElse(List.of());
+    }
+
+    private Optional<IdempotencyCache> idempotencyCache() {
+        try {
+            return Optional.of(context.getIdempotencyCache());
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error loading users: " + ex.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Optional<Ticket> bookOne(User owner, Train requestedTrain, LocalDate date, int row, int seat,
+                                     String source, String dest, String idempotencyKey, String fingerprint) {
+        try {
+            TrainService trainService = context.getTrainService();
+            Train catalogTrain = catalogTrain(trainService, requestedTrain);
+            Train train;
+            Lock trainLock = trainService.lockFor(catalogTrain.getTrainId(), date);
+            trainLock.lock();
+            try {
+                JourneyInventory.Journey journey = trainService.journey(catalogTrain, date);
+                train = journey.train();
+                long leg = train.legMask(source, dest);
+                if (leg == 0) {
+                    LOG.info(() -> "Train " + journey.train().getTrainId() + " does not run from " + source + " to "
+                            + dest + ".");
+                    return Optional.empty();
+                }
+                SeatInventory inventory = journey.seats();
+                if (!inventory.isValid(row, seat)) {
+                    LOG.info(() -> "Invalid seat selection.");
+                    return Optional.empty();
+                }
+                if (!inventory.tryReserve(row, seat, leg)) {
+                    LOG.info(() -> "Seat " + row + ", " + seat + " is already booked between " + source + " and " + dest + ".");
+                    return Optional.empty();
+                }
+            } finally {
+                trainLock.unlock();
+            }
+
+            String ticketId = generateTicketId();
+            Ticket newTicket = new Ticket(ticketId, owner.getUserId(), train.getTrainId(), row, seat, source, dest,
+                    date.toString());
+            newTicket.setIdempotencyKey(idempotencyKey);
+            newTicket.setRequestFingerprint(fingerprint);
+            List<SeatInventory.Seat> reserved = List.of(new SeatInventory.Seat(row, seat));
+            if (!record(owner, List.of(newTicket), () -> trainService.release(train, date, reserved, source, dest))) {
+                return Optional.empty();
+            }
+
+            LOG.info(() -> "New ticket details: " + newTicket.getTicketInfo(train));
+            return Optional.of(newTicket);
+        } catch (IllegalArgumentException ex) {
+            LOG.info(ex::getMessage);
+            return Optional.empty();
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error booking train seat: " + ex.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Records tickets for seats that are already reserved, and runs {@code release} to give the seats
+     * back unless the tickets were stored. A failed journal sync counts as stored: the tickets are
+     * applied and journaled, only their durability is in doubt, so their seats must stay sold.
+     */
+    private boolean record(User owner, List<Ticket> tickets, Runnable release) throws IOException {
+        boolean added;
+        try {
+            added = tickets.size() == 1 ? userRepository.addTicket(owner.getUserId(), tickets.get(0))
+                    : userRepository.addTickets(owner.getUserId(), tickets);
+        } catch (JournalSyncException ex) {
+            LOG.warning(() -> "Booked " + tickets.size() + " ticket(s) but could not sync the journal: "
+                    + ex.getMessage());
+            return true;
+        } catch (IOException ex) {
+            release.run();
+            throw ex;
+        }
+        if (!added) {
+            release.run();
+            LOG.info(() -> "No user found to book for: " + owner.getName());
+        }
+        return added;
+    }
+
+    private TrainService trainService() {
         try {
-            List<List<Integer>> seats = train.getSeats();
-            
-            if (seats != null && row >= 0 && row < seats.size() && seat >= 0 && seat < seats.get(row).size()) {
-                if (seats.get(row).get(seat) == 0) {
-                    seats.get(row).set(seat, 1);
-                    train.setSeats(seats);
-                    train.setSource(source);
-                    train.setDestination(dest);
-
-                    TrainService trainService = new TrainService();
-                    trainService.updateTrain(train);
-
-                    String ticketId = generateTicketId();
-                    Ticket newTicket = new Ticket(ticketId, user.getUserId(), train.getSource(), train.getDestination(), getCurrentDate(), train);
-                    
-                    for (int i = 0; i < userList.size(); i++) {
-                        if (userList.get(i).getUserId().equals(user.getUserId())) {
-                            userList.get(i).addTicketBooked(newTicket);
-                            break;
-                        }
+            return context.getTrainService();
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error loading trains: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    public List<Ticket> bookSeats(Train train, LocalDate date, int count, String source, String dest,
+                                  SeatPreferences preferences) {
+        return bookSeats(train, date, count, source, dest, preferences, null);
+    }
+
+    /**
+     * Books {@code count} seats. With an {@code idempotencyKey}, a repeated call returns the tickets sold
+     * by the first one instead of booking again.
+     */
+    public List<Ticket> bookSeats(Train train, LocalDate date, int count, String source, String dest,
+                                  SeatPreferences preferences, String idempotencyKey) {
+        long start = System.nanoTime();
+        Optional<User> owner = sessionUser();
+        String fingerprint = idempotencyKey == null ? null
+                : IdempotencyCache.fingerprint("group", train.getTrainId(), date, source, dest, count,
+                preferences.adjacentOnly(), preferences.preferredRow());
+        List<Ticket> tickets = owner.isEmpty() ? List.of() : deduplicated(owner.get(), idempotencyKey, fingerprint,
+                () -> bookGroup(owner.get(), train, date, count, source, dest, preferences, idempotencyKey,
+                        fingerprint));
+        recordOutcome("book", start, !tickets.isEmpty());
+        return tickets;
+    }
+
+    private List<Ticket> bookGroup(User owner, Train requestedTrain, LocalDate date, int count, String source,
+                                   String dest, SeatPreferences preferences, String idempotencyKey,
+                                   String fingerprint) {
+        try {
+            if (count < 1) {
+                LOG.info(() -> "Number of seats must be at least 1.");
+                return List.of();
+            }
+
+            TrainService trainService = context.getTrainService();
+            Train catalogTrain = catalogTrain(trainService, requestedTrain);
+            Train train;
+            List<SeatInventory.Seat> seats = List.of();
+            Lock trainLock = trainService.lockFor(catalogTrain.getTrainId(), date);
+            trainLock.lock();
+            try {
+                JourneyInventory.Journey journey = trainService.journey(catalogTrain, date);
+                train = journey.train();
+                long leg = train.legMask(source, dest);
+                if (leg == 0) {
+                    LOG.info(() -> "Train " + journey.train().getTrainId() + " does not run from " + source + " to "
+                            + dest + ".");
+                    return List.of();
+                }
+                SeatInventory inventory = journey.seats();
+                for (int attempt = 0; attempt < MAX_ALLOCATION_ATTEMPTS && seats.isEmpty(); attempt++) {
+                    List<SeatInventory.Seat> candidates = inventory.findSeats(count, leg, preferences.adjacentOnly(),
+                            preferences.preferredRow());
+                    if (candidates.isEmpty()) {
+                        break;
+                    }
+                    if (inventory.tryReserveAll(candidates, leg)) {
+                        seats = candidates;
                     }
+                }
+            } finally {
+                trainLock.unlock();
+            }
+            if (seats.isEmpty()) {
+                LOG.info(() -> "Could not find " + count + (preferences.adjacentOnly() ? " adjacent" : "")
+                        + " seats between " + source + " and " + dest + ".");
+                return List.of();
+            }
 
-                    // user.addTicketBooked(newTicket);
-                    saveUserListToFile();
-                    // userList = loadUserListFromFile();
-                    System.out.println("New ticket details: " + newTicket.getTicketInfo());
-                    System.out.println("Ticket details: " + newTicket);
+            List<Ticket> tickets = new ArrayList<>(seats.size());
+            for (SeatInventory.Seat seat : seats) {
+                Ticket ticket = new Ticket(generateTicketId(), owner.getUserId(), train.getTrainId(), seat.row(),
+                        seat.seat(), source, dest, date.toString());
+                ticket.setIdempotencyKey(idempotencyKey);
+                ticket.setRequestFingerprint(fingerprint);
+                tickets.add(ticket);
+            }
+            List<SeatInventory.Seat> reserved = seats;
+            if (!record(owner, tickets, () -> trainService.release(train, date, reserved, source, dest))) {
+                return List.of();
+            }
 
-                    return true;
-                } else {
-                    System.out.println("Seat " + row + ", " + seat + " is already booked.");
-                    return false;
+            LOG.info(() -> "Booked " + tickets.size() + " seats:");
+            for (Ticket ticket : tickets) {
+                LOG.info(() -> ticket.getTicketInfo(train));
+            }
+            return tickets;
+        } catch (IllegalArgumentException ex) {
+            LOG.info(ex::getMessage);
+            return List.of();
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error booking train seats: " + ex.getMessage());
+            return List.of();
+        }
+    }
+
+    public Optional<SeatHoldService.Hold> holdSeat(Train train, LocalDate date, int row, int seat, String source,
+                                                   String dest) {
+        return hold(train, date, source, dest, (inventory, leg) -> inventory.isValid(row, seat)
+                ? List.of(new SeatInventory.Seat(row, seat)) : List.of());
+    }
+
+    public Optional<SeatHoldService.Hold> holdSeats(Train train, LocalDate date, int count, String source,
+                                                    String dest, SeatPreferences preferences) {
+        return hold(train, date, source, dest, (inventory, leg) -> inventory.findSeats(count, leg,
+                preferences.adjacentOnly(), preferences.preferredRow()));
+    }
+
+    private Optional<SeatHoldService.Hold> hold(Train train, LocalDate date, String source, String dest,
+                                                BiFunction<SeatInventory, Long, List<SeatInventory.Seat>> picker) {
+        try {
+            Optional<User> holdingUser = sessionUser();
+            if (holdingUser.isEmpty()) {
+                return Optional.empty();
+            }
+            TrainService trainService = context.getTrainService();
+            Train catalogTrain = catalogTrain(trainService, train);
+            SeatHoldService holdService = context.getSeatHoldService();
+            Lock trainLock = trainService.lockFor(catalogTrain.getTrainId(), date);
+            trainLock.lock();
+            try {
+                JourneyInventory.Journey journey = trainService.journey(catalogTrain, date);
+                long leg = journey.train().legMask(source, dest);
+                if (leg == 0) {
+                    LOG.info(() -> "Train " + journey.train().getTrainId() + " does not run from " + source + " to "
+                            + dest + ".");
+                    return Optional.empty();
                 }
-            } else {
-                System.out.println("Invalid seat selection.");
-                return false;
+                SeatInventory inventory = journey.seats();
+                for (int attempt = 0; attempt < MAX_ALLOCATION_ATTEMPTS; attempt++) {
+                    List<SeatInventory.Seat> seats = picker.apply(inventory, leg);
+                    if (seats.isEmpty()) {
+                        break;
+                    }
+                    Optional<SeatHoldService.Hold> hold = holdService.hold(holdingUser.get().getUserId(),
+                            journey.train(), date, inventory, seats, source, dest, leg);
+                    if (hold.isPresent()) {
+                        LOG.info(() -> "Held " + seats.size() + " seat(s) for " + holdService.getTtlSeconds()
+                                + " seconds. Hold ID: " + hold.get().holdId());
+                        return hold;
+                    }
+                }
+            } finally {
+                trainLock.unlock();
             }
-        }catch(
+            LOG.info(() -> "The requested seats are not available between " + source + " and " + dest + ".");
+            return Optional.empty();
+        } catch (IllegalArgumentException ex) {
+            LOG.info(ex::getMessage);
+            return Optional.empty();
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error holding seats: " + ex.getMessage());
+            return Optional.empty();
+        }
+    }
 
-    IOException ex)
-    {
-        System.out.println("Error booking train seat: " + ex.getMessage());
-        return false;
+    /**
+     * Turns a hold into tickets. Fails if the hold has expired, was released or belongs to someone else.
+     */
+    public List<Ticket> confirmHold(String holdId) {
+        long start = System.nanoTime();
+        List<Ticket> tickets = confirm(holdId);
+        recordOutcome("book", start, !tickets.isEmpty());
+        return tickets;
     }
+
+    private List<Ticket> confirm(String holdId) {
+        Optional<User> bookingUser = sessionUser();
+        if (bookingUser.isEmpty()) {
+            return List.of();
+        }
+        User owner = bookingUser.get();
+        SeatHoldService holdService = context.getSeatHoldService();
+        Optional<SeatHoldService.Hold> taken = holdService.take(holdId, owner.getUserId());
+        if (taken.isEmpty()) {
+            LOG.info(() -> "Hold " + holdId + " has expired or does not exist.");
+            return List.of();
+        }
+
+        SeatHoldService.Hold hold;
+        try {
+            hold = complete(holdService, taken.get()).orElse(null);
+        } catch (IllegalArgumentException | IOException ex) {
+            LOG.warning(() -> "Error confirming hold: " + ex.getMessage());
+            holdService.releaseSeats(taken.get());
+            return List.of();
+        }
+        if (hold == null) {
+            LOG.info(() -> "The seats held by " + holdId + " are no longer available on the updated train.");
+            return List.of();
+        }
+        String dateOfTravel = hold.date().toString();
+        List<Ticket> tickets = new ArrayList<>(hold.seats().size());
+        for (SeatInventory.Seat seat : hold.seats()) {
+            tickets.add(new Ticket(generateTicketId(), owner.getUserId(), hold.train().getTrainId(), seat.row(),
+                    seat.seat(), hold.source(), hold.destination(), dateOfTravel));
+        }
+        try {
+            if (!record(owner, tickets, () -> releaseSeats(tickets))) {
+                return List.of();
+            }
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error confirming hold: " + ex.getMessage());
+            return List.of();
+        }
+
+        for (Ticket ticket : tickets) {
+            LOG.info(() -> "New ticket details: " + ticket.getTicketInfo(hold.train()));
+        }
+        return tickets;
     }
 
-    private void saveUserListToFile() throws IOException {
+    /**
+     * Turns the held seats into sold ones in the journey's inventory as it is now, which differs from the
+     * one the hold was taken in if the train was replaced meanwhile. This happens under the journey lock,
+     * before the tickets are written, so that a later replacement carries the sale over. Empty if the
+     * seats no longer fit the train.
+     */
+    private Optional<SeatHoldService.Hold> complete(SeatHoldService holdService, SeatHoldService.Hold hold)
+            throws IOException {
+        TrainService trainService = context.getTrainService();
+        Train train = trainService.getTrain(hold.train().getTrainId());
+        if (train == null) {
+            holdService.releaseSeats(hold);
+            return Optional.empty();
+        }
+        Lock trainLock = trainService.lockFor(train.getTrainId(), hold.date());
+        trainLock.lock();
         try {
-            System.out.println("Saving user list. Current size: " + userList.size());
-            for (User u : userList) {
-                System.out.println("User: " + u.getName() + ", Tickets: " +
-                        (u.getTicketsBooked() != null ? u.getTicketsBooked().size() : "null"));
+            JourneyInventory.Journey journey = trainService.journey(train, hold.date());
+            Optional<SeatHoldService.Hold> current = holdService.reattach(hold, journey.train(), journey.seats());
+            current.ifPresent(holdService::completeHold);
+            return current;
+        } finally {
+            trainLock.unlock();
+        }
+    }
+
+    private void releaseSeats(List<Ticket> tickets) {
+        for (Ticket ticket : tickets) {
+            try {
+                releaseSeat(ticket);
+            } catch (IOException ex) {
+                LOG.warning(() -> "Could not give back the seat of ticket " + ticket.getTicketId() + ": "
+                        + ex.getMessage());
             }
-            objectMapper.writeValue(new File(USER_FILE_PATH), userList);
-            System.out.println("User list saved successfully.");
-        } catch (IOException e) {
-            System.out.println("Error saving user list: " + e.getMessage());
-            throw e;
         }
     }
 
+    public boolean releaseHold(String holdId) {
+        Optional<User> holdingUser = sessionUser();
+        return holdingUser.isPresent()
+                && context.getSeatHoldService().release(holdId, holdingUser.get().getUserId());
+    }
+
+    private Train catalogTrain(TrainService trainService, Train train) {
+        Train catalogTrain = trainService.getTrain(train.getTrainId());
+        if (catalogTrain == null) {
+            trainService.addTrain(train);
+            return train;
+        }
+        return catalogTrain;
+    }
+
     public List<Train> getTrains(String source, String destination) {
         try {
-            TrainService trainService = new TrainService();
-            return trainService.searchTrains(source, destination);
+            return context.getTrainService().searchTrains(source, destination);
         } catch (IOException ex) {
-            System.out.println("Error searching trains: " + ex.getMessage());
+            LOG.warning(() -> "Error searching trains: " + ex.getMessage());
             return new ArrayList<>();
         }
     }
 
-    public List<List<Integer>> fetchSeats(Train train) {
-        return train.getSeats();
+    /**
+     * Trains from {@code source} to {@code destination} with their free seats on {@code date}; empty if
+     * the date cannot be booked.
+     */
+    public List<SearchCache.Availability> getAvailability(String source, String destination, LocalDate date) {
+        try {
+            return context.getTrainService().searchAvailability(source, destination, date);
+        } catch (IllegalArgumentException ex) {
+            LOG.info(ex::getMessage);
+            return List.of();
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error searching trains: " + ex.getMessage());
+            return List.of();
+        }
     }
 
-    private String generateTicketId() {
-        return UUID.randomUUID().toString();
+    /**
+     * Journeys with up to {@value JourneyPlanner#MAX_CHANGES} changes leaving on {@code date}; empty when
+     * the date is outside the booking window.
+     */
+    public List<JourneyPlanner.Itinerary> planJourneys(String source, String destination, LocalDate date) {
+        try {
+            return context.getTrainService().planJourneys(source, destination, date.atStartOfDay(),
+                    JourneyPlanner.MAX_CHANGES);
+        } catch (IllegalArgumentException ex) {
+            LOG.info(ex::getMessage);
+            return List.of();
+        } catch (IOException ex) {
+            LOG.warning(() -> "Error planning journeys: " + ex.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Seat map of the journey on {@code date}: 1 for a seat taken on any part of the route.
+     *
+     * @throws IllegalArgumentException if the date is outside the booking window
+     */
+    public List<List<Integer>> fetchSeats(Train train, LocalDate date) throws IOException {
+        return context.getTrainService().getJourneyInventory().view(train, date).toSeats();
+    }
+
+    public List<List<Integer>> fetchSeats(Train train, LocalDate date, String source, String dest) throws IOException {
+        long leg = train.legMask(source, dest);
+        return leg == 0 ? fetchSeats(train, date)
+                : context.getTrainService().getJourneyInventory().view(train, date).toSeats(leg);
+    }
+
+    private static void recordOutcome(String operation, long startNanos, boolean succeeded) {
+        Metrics.histogram(operation).recordSince(startNanos);
+        Metrics.counter(operation + (succeeded ? ".succeeded" : ".failed")).increment();
     }
 
-    private String getCurrentDate() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        return dateFormat.format(new Date(System.currentTimeMillis()));
+    private String generateTicketId() {
+        return UUID.randomUUID().toString();
     }
 
     public void logout() {
+        context.getSessionManager().invalidate(sessionToken);
+        this.sessionToken = null;
         this.user = null;
-        System.out.println("Logged out successfully.");
+        LOG.info(() -> "Logged out successfully.");
     }
 }
\ No newline at end of file
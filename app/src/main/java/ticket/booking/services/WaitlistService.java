@@ -0,0 +1,251 @@
+package ticket.booking.services;
+
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.persistence.JournalSyncException;
+import ticket.booking.persistence.UserRepository;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+/**
+ * Per-journey, per-leg waitlists. Each leg of a train on a given date has its own priority queue (lower
+ * priority value first, then first come first served). When a booked seat is given back, the best
+ * waiting request whose leg fits the seat takes it over in the same compare-and-set that frees the
+ * seat, under the journey lock, so no other booking can slip in between; whatever part of the seat is
+ * still free afterwards is offered to the next requests. The promoted tickets are written after the lock
+ * and the waitlist's monitor are let go; a write that fails hands the seat back and puts the request back
+ * in its place in the queue. Entries are also indexed by id across all journeys, for {@link #find}.
+ *
+ * <p>Waitlists live in memory only: requests still waiting when the process stops are lost and have
+ * to join again.
+ */
+public class WaitlistService {
+
+    private static final Logger LOG = Logger.getLogger(WaitlistService.class.getName());
+
+    public record Entry(String entryId, String userId, String trainId, LocalDate date, String source,
+                        String destination, long leg, int priority, long sequence) {}
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt(Entry::priority)
+            .thenComparingLong(Entry::sequence);
+
+    private final UserRepository userRepository;
+    private final JourneyInventory journeys;
+    private final Map<JourneyInventory.Key, TrainWaitlist> waitlists = new ConcurrentHashMap<>();
+    private final Map<String, Entry> entriesById = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public WaitlistService(UserRepository userRepository, JourneyInventory journeys) {
+        this.userRepository = userRepository;
+        this.journeys = journeys;
+    }
+
+    public Entry join(String userId, Train train, LocalDate date, String source, String destination, int priority) {
+        journeys.requireBookable(date);
+        long leg = train.legMask(source, destination);
+        if (leg == 0) {
+            throw new IllegalArgumentException("Train " + train.getTrainId() + " does not run from " + source
+                    + " to " + destination);
+        }
+        Entry entry = new Entry(UUID.randomUUID().toString(), userId, train.getTrainId(), date, source, destination,
+                leg, priority, sequence.incrementAndGet());
+        TrainWaitlist waitlist = waitlists.computeIfAbsent(JourneyInventory.Key.of(train.getTrainId(), date),
+                key -> new TrainWaitlist(entriesById));
+        synchronized (waitlist) {
+            waitlist.add(entry);
+        }
+        return entry;
+    }
+
+    public boolean leave(String trainId, LocalDate date, String entryId, String userId) {
+        TrainWaitlist waitlist = waitlists.get(JourneyInventory.Key.of(trainId, date));
+        if (waitlist == null) {
+            return false;
+        }
+        synchronized (waitlist) {
+            Entry entry = waitlist.byId.get(entryId);
+            if (entry == null || !entry.userId().equals(userId)) {
+                return false;
+            }
+            waitlist.remove(entry);
+            return true;
+        }
+    }
+
+    public Optional<Entry> find(String entryId) {
+        return entryId == null ? Optional.empty() : Optional.ofNullable(entriesById.get(entryId));
+    }
+
+    public int size(String trainId, LocalDate date) {
+        TrainWaitlist waitlist = waitlists.get(JourneyInventory.Key.of(trainId, date));
+        if (waitlist == null) {
+            return 0;
+        }
+        synchronized (waitlist) {
+            return waitlist.byId.size();
+        }
+    }
+
+    /**
+     * Frees the leg from {@code source} to {@code destination} on a seat of the journey on {@code date}
+     * and hands it to waiting requests. Returns the tickets issued to promoted users. The seat changes
+     * hands under the journey lock; the tickets are written after it is let go.
+     *
+     * @throws IOException if a promoted ticket could not be recorded; that request and the ones after
+     *                     it are back in the queue and their part of the seat is free again
+     */
+    public List<Ticket> releaseSeat(Train train, LocalDate date, int row, int seat, String source,
+                                    String destination) throws IOException {
+        TrainWaitlist waitlist = waitlists.get(JourneyInventory.Key.of(train.getTrainId(), date));
+        List<Entry> claimed = new ArrayList<>();
+        Train journeyTrain;
+        Lock lock = journeys.lockFor(train.getTrainId(), date);
+        lock.lock();
+        try {
+            JourneyInventory.Journey journey = journeys.journey(train, date);
+            journeyTrain = journey.train();
+            SeatInventory inventory = journey.seats();
+            long releasedLeg = journeyTrain.legMask(source, destination);
+            if (releasedLeg == 0 || !inventory.isValid(row, seat)) {
+                return List.of();
+            }
+            if (waitlist == null) {
+                inventory.release(row, seat, releasedLeg);
+                return List.of();
+            }
+            synchronized (waitlist) {
+                boolean released = false;
+                while (true) {
+                    long stillBooked = inventory.getLegs(row, seat) & (released ? ~0L : ~releasedLeg);
+                    Entry next = waitlist.best(stillBooked);
+                    if (next == null) {
+                        break;
+                    }
+                    boolean won = released
+                            ? inventory.tryReserve(row, seat, next.leg())
+                            : inventory.transfer(row, seat, releasedLeg, next.leg());
+                    if (!won) {
+                        break;
+                    }
+                    released = true;
+                    waitlist.remove(next);
+                    claimed.add(next);
+                }
+                if (!released) {
+                    inventory.release(row, seat, releasedLeg);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        List<Ticket> promoted = new ArrayList<>(claimed.size());
+        for (int i = 0; i < claimed.size(); i++) {
+            Entry next = claimed.get(i);
+            Ticket ticket = new Ticket(UUID.randomUUID().toString(), next.userId(), journeyTrain.getTrainId(), row,
+                    seat, next.source(), next.destination(), date.toString());
+            boolean recorded;
+            try {
+                recorded = userRepository.addTicket(next.userId(), ticket);
+            } catch (JournalSyncException e) {
+                LOG.warning(() -> "Ticket " + ticket.getTicketId() + " for waitlisted request " + next.entryId()
+                        + " was recorded but not synced: " + e.getMessage());
+                recorded = true;
+            } catch (IOException e) {
+                giveBack(journeyTrain, date, row, seat, claimed.subList(i, claimed.size()), waitlist);
+                throw e;
+            }
+            if (recorded) {
+                promoted.add(ticket);
+                LOG.info(() -> "Waitlisted request " + next.entryId() + " promoted: "
+                        + ticket.getTicketInfo(journeyTrain));
+            } else {
+                giveBack(journeyTrain, date, row, seat, List.of(next), null);
+            }
+        }
+        return promoted;
+    }
+
+    /**
+     * Frees the legs claimed for {@code entries} in the journey as it is now, and puts the entries back in
+     * {@code requeueTo} unless it is null.
+     */
+    private void giveBack(Train train, LocalDate date, int row, int seat, List<Entry> entries,
+                          TrainWaitlist requeueTo) {
+        Lock lock = journeys.lockFor(train.getTrainId(), date);
+        lock.lock();
+        try {
+            JourneyInventory.Journey journey = journeys.isBookable(date) ? journeys.journey(train, date) : null;
+            for (Entry entry : entries) {
+                long leg = journey == null ? 0 : journey.train().legMask(entry.source(), entry.destination());
+                if (leg != 0 && journey.seats().isValid(row, seat)) {
+                    journey.seats().release(row, seat, leg);
+                }
+            }
+            if (requeueTo != null) {
+                synchronized (requeueTo) {
+                    entries.forEach(requeueTo::add);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class TrainWaitlist {
+
+        private final Map<Long, PriorityQueue<Entry>> byLeg = new HashMap<>();
+        private final Map<String, Entry> byId = new HashMap<>();
+        private final Map<String, Entry> allById;
+
+        TrainWaitlist(Map<String, Entry> allById) {
+            this.allById = allById;
+        }
+
+        /**
+         * Best queue head whose leg does not overlap the legs still booked on the seat.
+         */
+        Entry best(long stillBooked) {
+            Entry best = null;
+            for (Map.Entry<Long, PriorityQueue<Entry>> queue : byLeg.entrySet()) {
+                Entry head = queue.getValue().peek();
+                if (head != null && (queue.getKey() & stillBooked) == 0 && (best == null || ORDER.compare(head, best) < 0)) {
+                    best = head;
+                }
+            }
+            return best;
+        }
+
+        void add(Entry entry) {
+            byLeg.computeIfAbsent(entry.leg(), l -> new PriorityQueue<>(ORDER)).add(entry);
+            byId.put(entry.entryId(), entry);
+            allById.put(entry.entryId(), entry);
+        }
+
+        void remove(Entry entry) {
+            byId.remove(entry.entryId());
+            allById.remove(entry.entryId());
+            PriorityQueue<Entry> queue = byLeg.get(entry.leg());
+            if (queue != null) {
+                queue.remove(entry);
+                if (queue.isEmpty()) {
+                    byLeg.remove(entry.leg());
+                }
+            }
+        }
+    }
+}
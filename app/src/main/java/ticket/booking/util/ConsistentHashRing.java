@@ -0,0 +1,74 @@
+package ticket.booking.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of string keys onto a fixed set of nodes. Every node is placed on a 64-bit ring at
+ * {@code virtualNodes} points derived from its name, and a key belongs to the first point at or after
+ * its own hash, so adding or removing a node only moves the keys between it and its neighbours. Points
+ * and keys are hashed with MD5 (ketama style), which spreads similar names such as {@code node-1} and
+ * {@code node-2} evenly; placement depends only on the node names, never on their addresses.
+ */
+public final class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    public ConsistentHashRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+        }
+        this.nodes = List.copyOf(nodes);
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : this.nodes) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                ring.putIfAbsent(hash(node + "#" + replica), node);
+            }
+        }
+        points = new long[ring.size()];
+        owners = new String[ring.size()];
+        int next = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[next] = point.getKey();
+            owners[next++] = point.getValue();
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public String nodeFor(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = hash << 8 | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ticket.booking.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel for large numbers of coarse timeouts. Scheduling and cancelling are O(1): new
+ * timeouts go onto a lock-free queue, and a single worker thread moves them into the wheel bucket for
+ * their deadline and empties the bucket under the hand once per tick. Due tasks are handed to an
+ * executor rather than run on the worker, so slow tasks cannot hold up the wheel. A timeout further away
+ * than one revolution waits in its bucket for the remaining rounds. Timeouts fire up to one tick late.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+        private volatile boolean expired;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Whether the task has been handed over to run.
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Timeout>[] wheel;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Executor taskExecutor;
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param taskExecutor runs the tasks that fall due
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel,
+                            Executor taskExecutor) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+        }
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = Math.max(1, size) - 1;
+        @SuppressWarnings("unchecked")
+        List<Timeout>[] buckets = new List[mask + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.wheel = buckets;
+        this.taskExecutor = taskExecutor;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            transferPending();
+            expire(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = pending.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.cancelled) {
+                continue;
+            }
+            long dueTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            wheel[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long deadline) {
+        bucket.removeIf(timeout -> {
+            if (timeout.cancelled) {
+                return true;
+            }
+            if (timeout.remainingRounds > 0 || timeout.deadline > deadline) {
+                timeout.remainingRounds--;
+                return false;
+            }
+            timeout.expired = true;
+            try {
+                taskExecutor.execute(timeout.task);
+            } catch (RejectedExecutionException e) {
+                LOG.warning("Timer task rejected: " + e.getMessage());
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+}
@@ -0,0 +1,18 @@
+package ticket.booking.util;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Shared, pre-configured Jackson mappers. {@link ObjectMapper} is thread-safe once configured, so there
+ * is one per entity family instead of one per service instance.
+ */
+public final class JsonMappers {
+
+    public static final ObjectMapper TRAIN_MAPPER = new ObjectMapper();
+    public static final ObjectMapper USER_MAPPER = new ObjectMapper()
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+    private JsonMappers() {}
+}
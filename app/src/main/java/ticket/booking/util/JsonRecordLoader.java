@@ -0,0 +1,101 @@
+package ticket.booking.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Streams a top-level JSON array one record at a time instead of materializing the whole list.
+ * Each element is read as a tree and then bound, so a record that fails to bind is logged and skipped
+ * without losing the parser's position. A syntax error (e.g. a truncated file) stops the load but keeps
+ * every record read before it. Missing and empty files load as zero records.
+ */
+public final class JsonRecordLoader {
+
+    private static final Logger LOG = Logger.getLogger(JsonRecordLoader.class.getName());
+
+    private static final long PROGRESS_MIN_BYTES = 8L * 1024 * 1024;
+    private static final int PROGRESS_STEP_PERCENT = 10;
+
+    public record Result(int loaded, int skipped) {}
+
+    private JsonRecordLoader() {}
+
+    public static <T> Result load(File file, ObjectMapper mapper, Class<T> type, Consumer<? super T> sink)
+            throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            LOG.info(file.getName() + " is missing or empty. Starting with no records.");
+            return new Result(0, 0);
+        }
+
+        long fileLength = file.length();
+        boolean reportProgress = fileLength >= PROGRESS_MIN_BYTES;
+        int nextReport = PROGRESS_STEP_PERCENT;
+        int loaded = 0;
+        int skipped = 0;
+
+        try (JsonParser parser = mapper.getFactory().createParser(file)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return new Result(0, 0);
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException(file.getName() + " must contain a JSON array, found " + token);
+            }
+
+            while (true) {
+                JsonNode node;
+                try {
+                    token = parser.nextToken();
+                    if (token == JsonToken.END_ARRAY) {
+                        break;
+                    }
+                    if (token == null) {
+                        LOG.warning(file.getName() + " ends before its closing bracket; kept "
+                                + loaded + " records.");
+                        break;
+                    }
+                    node = mapper.readTree(parser);
+                } catch (JsonProcessingException e) {
+                    LOG.warning("Stopped reading " + file.getName() + " after " + loaded + " records: "
+                            + e.getOriginalMessage());
+                    break;
+                }
+
+                int recordNumber = loaded + skipped + 1;
+                try {
+                    T record = node.isObject() ? mapper.treeToValue(node, type) : null;
+                    if (record == null) {
+                        throw new IllegalArgumentException("not a JSON object");
+                    }
+                    sink.accept(record);
+                    loaded++;
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    skipped++;
+                    LOG.warning("Skipping malformed record #" + recordNumber + " in " + file.getName()
+                            + ": " + (e instanceof JsonProcessingException json ? json.getOriginalMessage() : e.getMessage()));
+                }
+
+                if (reportProgress) {
+                    int percent = (int) (parser.currentLocation().getByteOffset() * 100 / fileLength);
+                    if (percent >= nextReport) {
+                        LOG.info("Loading " + file.getName() + ": " + percent + "% (" + loaded + " records)");
+                        nextReport = (percent / PROGRESS_STEP_PERCENT + 1) * PROGRESS_STEP_PERCENT;
+                    }
+                }
+            }
+        }
+
+        if (skipped > 0) {
+            LOG.warning("Loaded " + loaded + " records from " + file.getName() + ", skipped " + skipped + ".");
+        }
+        return new Result(loaded, skipped);
+    }
+}
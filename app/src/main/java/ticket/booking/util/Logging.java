@@ -0,0 +1,53 @@
+package ticket.booking.util;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Console setup for the {@code ticket.booking} loggers. Services log through {@link java.util.logging}
+ * with message suppliers, so a disabled level costs one check and no string building. The console app
+ * shows {@code INFO} messages as plain lines; the HTTP server only shows warnings. Either default can
+ * be overridden with {@code -Dbooking.log.level=FINE} (or any other level name).
+ */
+public final class Logging {
+
+    private static final Logger ROOT = Logger.getLogger("ticket.booking");
+
+    private Logging() {}
+
+    public static synchronized void configureConsole(Level defaultLevel) {
+        Level level = Level.parse(System.getProperty("booking.log.level", defaultLevel.getName()));
+        for (Handler handler : ROOT.getHandlers()) {
+            ROOT.removeHandler(handler);
+        }
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (!isLoggable(record)) {
+                    return;
+                }
+                String message = record.getLevel().intValue() >= Level.WARNING.intValue()
+                        ? record.getLevel().getName() + ": " + record.getMessage()
+                        : record.getMessage();
+                System.out.println(message);
+                if (record.getThrown() != null) {
+                    record.getThrown().printStackTrace(System.out);
+                }
+            }
+
+            @Override
+            public void flush() {
+                System.out.flush();
+            }
+
+            @Override
+            public void close() {}
+        };
+        handler.setLevel(level);
+        ROOT.addHandler(handler);
+        ROOT.setUseParentHandlers(false);
+        ROOT.setLevel(level);
+    }
+}
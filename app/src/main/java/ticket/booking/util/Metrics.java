@@ -0,0 +1,158 @@
+package ticket.booking.util;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide metrics: counters, latency histograms and gauges, looked up by dotted name. Updates are
+ * lock-free. {@link #render()} produces a plain-text listing (served at {@code GET /metrics}) and
+ * {@link #registerMBean()} exposes the same values as attributes of {@code ticket.booking:type=Metrics}.
+ *
+ * <p>Histogram names used by the services: {@code search}, {@code plan}, {@code login}, {@code bcrypt}, {@code book},
+ * {@code cancel}, {@code save.trains}, {@code save.users}, {@code load.trains}, {@code load.users},
+ * {@code journal.encode} and {@code journal.sync}.
+ */
+public final class Metrics {
+
+    private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+    private static final String MBEAN_NAME = "ticket.booking:type=Metrics";
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, DoubleSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers (or replaces) a gauge read on demand whenever metrics are rendered or queried.
+     */
+    public static void gauge(String name, DoubleSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    public static void removeGauge(String name) {
+        GAUGES.remove(name);
+    }
+
+    public static String render() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Object> metric : snapshot().entrySet()) {
+            out.append(metric.getKey()).append(' ').append(format(metric.getValue())).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Every current value keyed by its flat name; histograms expand into count, mean, percentiles and
+     * max, in microseconds.
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        HISTOGRAMS.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean_us", histogram.getMeanNanos() / 1_000);
+            values.put(name + ".p50_us", histogram.percentile(0.50, TimeUnit.MICROSECONDS));
+            values.put(name + ".p99_us", histogram.percentile(0.99, TimeUnit.MICROSECONDS));
+            values.put(name + ".p999_us", histogram.percentile(0.999, TimeUnit.MICROSECONDS));
+            values.put(name + ".max_us", histogram.getMaxNanos() / 1_000.0);
+        });
+        GAUGES.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+        return values;
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double number) {
+            return String.format(Locale.ROOT, "%.3f", number);
+        }
+        return String.valueOf(value);
+    }
+
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            LOG.warning("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> metric : snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(metric.getKey(), metric.getValue().getClass().getName(),
+                        metric.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Booking service metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ticket.booking.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ThreadUtil {
+
+    public static final int PLATFORM_THREADS = Integer.getInteger("booking.platformThreads", 200);
+
+    private ThreadUtil() {}
+
+    /**
+     * One virtual thread per task when the running JDK has them (21+), otherwise at most
+     * {@code -Dbooking.platformThreads} platform threads (200 by default), with further tasks queued
+     * until one is free. Looked up reflectively so the code still builds on the Java 17 toolchain.
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return newBoundedExecutor(PLATFORM_THREADS);
+        }
+    }
+
+    static ExecutorService newBoundedExecutor(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "booking-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
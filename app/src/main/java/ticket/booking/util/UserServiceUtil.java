@@ -3,11 +3,46 @@ package ticket.booking.util;
 import org.mindrot.jbcrypt.BCrypt;
 
 public class UserServiceUtil {
+
+    public static final int BCRYPT_COST = Integer.getInteger("booking.bcrypt.cost", 10);
+
     public static String hashPassword(String plainPassword) {
-        return BCrypt.hashpw(plainPassword, BCrypt.gensalt());
+        return hashPassword(plainPassword, BCRYPT_COST);
+    }
+
+    public static String hashPassword(String plainPassword, int cost) {
+        long start = System.nanoTime();
+        try {
+            return BCrypt.hashpw(plainPassword, BCrypt.gensalt(cost));
+        } finally {
+            Metrics.histogram("bcrypt").recordSince(start);
+        }
     }
 
     public static boolean checkPassword(String plainPassword, String hashedPassword) {
-        return BCrypt.checkpw(plainPassword, hashedPassword);
+        long start = System.nanoTime();
+        try {
+            return BCrypt.checkpw(plainPassword, hashedPassword);
+        } finally {
+            Metrics.histogram("bcrypt").recordSince(start);
+        }
+    }
+
+    /**
+     * Cost factor encoded in a {@code $2a$NN$...} hash, or -1 if the hash is not in that format.
+     */
+    public static int costOf(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(0) != '$') {
+            return -1;
+        }
+        int end = hashedPassword.indexOf('$', 4);
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
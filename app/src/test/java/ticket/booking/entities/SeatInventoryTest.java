@@ -0,0 +1,131 @@
+package ticket.booking.entities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeatInventoryTest {
+
+    @Test
+    public void routesLongerThanAMaskAreTrackedCoarsely() {
+        List<String> stations = new ArrayList<>();
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            stations.add("s" + i);
+            times.put("s" + i, String.format("%02d:%02d:00", i / 60, i % 60));
+        }
+        Train train = new Train("long", "1", null, null, List.of(Arrays.asList(0, 0)), times, stations);
+        SeatInventory inventory = train.getSeatInventory();
+        assertEquals(SeatInventory.MAX_SEGMENTS, inventory.getSegmentCount());
+        assertEquals(inventory.fullRunMask(), train.legMask("s0", "s99"));
+        assertEquals(99, inventory.stationAt(inventory.getSegmentCount()));
+
+        assertTrue(inventory.tryReserve(0, 0, train.legMask("s0", "s40")));
+        assertFalse(inventory.tryReserve(0, 0, train.legMask("s30", "s60")));
+        assertTrue(inventory.tryReserve(0, 0, train.legMask("s42", "s99")));
+        assertTrue(inventory.tryReserve(0, 1, train.legMask("s30", "s60")));
+        assertEquals(0, inventory.freeSeatCount(0, train.legMask("s35", "s36")));
+    }
+
+    @Test
+    public void groupsGoToTheTightestFittingRunThenTheTightestSpread() {
+        SeatInventory inventory = new SeatInventory(new int[]{8, 5}, 2);
+        long leg = inventory.fullRunMask();
+        assertTrue(inventory.tryReserve(0, 2, leg));
+        assertTrue(inventory.tryReserve(0, 7, leg));
+        assertTrue(inventory.tryReserve(1, 3, leg));
+        assertTrue(inventory.tryReserve(1, 0, inventory.legMask(1, 2)));
+
+        assertEquals(seats(0, 0, 1), inventory.findSeats(2, leg, true, -1));
+        assertEquals(seats(0, 3, 4, 5), inventory.findSeats(3, leg, true, -1));
+        assertEquals(seats(1, 0, 1, 2), inventory.findSeats(3, inventory.legMask(0, 1), true, -1));
+        assertEquals(seats(1, 4), inventory.findSeats(1, leg, true, 1));
+        assertEquals(seats(0, 3, 4, 5), inventory.findSeats(3, leg, true, 0));
+
+        assertEquals(List.of(), inventory.findSeats(5, leg, true, -1));
+        assertEquals(seats(0, 0, 1, 3, 4, 5), inventory.findSeats(5, leg, false, -1));
+        List<SeatInventory.Seat> spread = inventory.findSeats(8, leg, false, -1);
+        assertEquals(8, spread.size());
+        assertEquals(new SeatInventory.Seat(1, 1), spread.get(6));
+        assertEquals(List.of(), inventory.findSeats(10, leg, false, -1));
+    }
+
+    @Test
+    public void holdsAreNeverReportedAsSales() throws InterruptedException {
+        SeatInventory inventory = new SeatInventory(new int[]{2}, 2);
+        long whole = inventory.fullRunMask();
+        long first = inventory.legMask(0, 1);
+        assertTrue(inventory.tryReserve(0, 1, first));
+
+        assertFalse(inventory.tryHold(0, 1, whole));
+        assertEquals(first, inventory.getBookedLegs(0, 1));
+        assertTrue(inventory.tryHold(0, 0, first));
+        assertFalse(inventory.tryHold(0, 0, whole));
+        assertEquals(0, inventory.getBookedLegs(0, 0));
+        assertEquals(first, inventory.getLegs(0, 0));
+        inventory.confirmHold(0, 0, first);
+        assertEquals(first, inventory.getBookedLegs(0, 0));
+        assertTrue(inventory.release(0, 0, first));
+
+        boolean[] seen = new boolean[1];
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) {
+                if (inventory.getBookedLegs(0, 0) != 0 || inventory.toBookedSeats().get(0).get(0) != 0) {
+                    seen[0] = true;
+                }
+            }
+        });
+        reader.start();
+        while (reader.isAlive()) {
+            assertTrue(inventory.tryHold(0, 0, whole));
+            assertTrue(inventory.releaseHold(0, 0, whole));
+        }
+        reader.join();
+        assertFalse("a hold was reported as sold", seen[0]);
+        assertTrue(inventory.isFree(0, 0, whole));
+    }
+
+    private static List<SeatInventory.Seat> seats(int row, int... seats) {
+        List<SeatInventory.Seat> list = new ArrayList<>();
+        for (int seat : seats) {
+            list.add(new SeatInventory.Seat(row, seat));
+        }
+        return list;
+    }
+
+    @Test
+    public void freeSeatsPerCoachFollowBookingsAndCancellations() {
+        Train train = new Train("coaches", "1", null, null,
+                List.of(Arrays.asList(0, 0, 0), Arrays.asList(0, 0), Arrays.asList(0, 1)), null,
+                List.of("a", "b", "c", "d"));
+        SeatInventory inventory = train.getSeatInventory().copy();
+        long whole = train.legMask("a", "d");
+        long first = train.legMask("a", "b");
+        long last = train.legMask("c", "d");
+        assertArrayEquals(new int[]{3, 2, 1}, inventory.freeSeatsByRow(whole));
+
+        assertTrue(inventory.tryReserve(0, 0, first));
+        assertTrue(inventory.tryReserve(0, 1, last));
+        assertTrue(inventory.tryReserve(1, 0, whole));
+        assertArrayEquals(new int[]{1, 1, 1}, inventory.freeSeatsByRow(whole));
+        assertArrayEquals(new int[]{2, 1, 1}, inventory.freeSeatsByRow(first));
+        assertArrayEquals(new int[]{3, 1, 1}, inventory.freeSeatsByRow(train.legMask("b", "c")));
+
+        assertTrue(inventory.tryReserve(0, 0, last));
+        assertArrayEquals(new int[]{3, 1, 1}, inventory.freeSeatsByRow(train.legMask("b", "c")));
+        assertTrue(inventory.release(0, 1, last));
+        assertTrue(inventory.release(1, 0, whole));
+        assertArrayEquals(new int[]{2, 2, 1}, inventory.freeSeatsByRow(whole));
+        assertArrayEquals(new int[]{3, 2, 1}, inventory.freeSeatsByRow(train.legMask("b", "c")));
+        assertEquals(6, inventory.freeSeatCount(train.legMask("b", "c")));
+    }
+}
@@ -0,0 +1,66 @@
+package ticket.booking.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.services.BookingContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class BookingHttpServerTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Path dataDir;
+    private BookingContext context;
+    private BookingHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("http");
+        Files.writeString(dataDir.resolve("trains.json"), "[]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        context = BookingContext.forDirectory(dataDir);
+        server = new BookingHttpServer(context, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        context.close();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void oversizedBodiesAreRefusedWith413() throws Exception {
+        String padding = "x".repeat(BookingHttpServer.MAX_BODY_BYTES);
+        byte[] large = ("{\"name\":\"ann\",\"password\":\"secret\",\"padding\":\"" + padding + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(413, post(HttpRequest.BodyPublishers.ofByteArray(large)));
+        assertEquals(413, post(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(large))));
+        assertEquals(201, post(HttpRequest.BodyPublishers.ofString("{\"name\":\"ann\",\"password\":\"secret\"}")));
+    }
+
+    private int post(HttpRequest.BodyPublisher body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/signup"))
+                .POST(body).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+}
@@ -0,0 +1,197 @@
+package ticket.booking.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.Train;
+import ticket.booking.util.JsonMappers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Three nodes and a router on loopback. Searches must see every shard's trains, bookings and
+ * cancellations must work when the train and the traveller live on different nodes, and everything
+ * must survive restarting the cluster over the same directories.
+ */
+public class ShardedClusterTest {
+
+    private static final int NODES = 3;
+    private static final int TRAINS = 9;
+    private static final ObjectMapper MAPPER = JsonMappers.TRAIN_MAPPER;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Path baseDir;
+    private LocalCluster cluster;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("booking-cluster");
+        List<Train> trains = new ArrayList<>();
+        for (int i = 0; i < TRAINS; i++) {
+            Map<String, String> times = new LinkedHashMap<>();
+            times.put("a", "10:00:00");
+            times.put("b", "11:00:00");
+            times.put("c", "12:00:00");
+            trains.add(new Train("t" + i, String.valueOf(100 + i), null, null,
+                    List.of(Arrays.asList(0, 0, 0, 0), Arrays.asList(0, 0, 0, 0)), times, List.of("a", "b", "c")));
+        }
+        LocalCluster.partitionTrains(trains, baseDir, NODES);
+        cluster = LocalCluster.start(baseDir, NODES, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cluster.close();
+        try (Stream<Path> files = Files.walk(baseDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void bookingsSpanShardsAndSurviveRestart() throws Exception {
+        Set<String> trainNodes = new HashSet<>();
+        for (int i = 0; i < TRAINS; i++) {
+            trainNodes.add(cluster.getRouter().nodeForTrain("t" + i));
+        }
+        assertTrue("trains should be spread over several nodes", trainNodes.size() > 1);
+
+        String alice = signUpAndLogin("alice");
+        String bob = signUpAndLogin("bob");
+        assertEquals(409, call("POST", "/signup", Map.of("name", "alice", "password", "other"), null).status());
+
+        List<?> found = (List<?>) call("GET", "/trains?source=a&destination=c", null, null).body();
+        assertEquals(TRAINS, found.size());
+
+        for (int i = 0; i < TRAINS; i++) {
+            assertEquals(201, book(alice, "t" + i, 0, 0).status());
+        }
+        assertEquals(409, book(bob, "t3", 0, 0).status());
+        assertEquals(TRAINS, ((List<?>) call("GET", "/bookings", null, alice).body()).size());
+
+        String ticketId = ticketOn(alice, "t3");
+        assertEquals(200, call("POST", "/bookings/" + ticketId + "/cancel", null, alice).status());
+        assertEquals(201, book(bob, "t3", 0, 0).status());
+        Reply group = call("POST", "/bookings", Map.of("train_id", "t5", "count", 3, "source", "a",
+                "destination", "c"), bob);
+        assertEquals(201, group.status());
+        assertEquals(3, ((List<?>) group.body()).size());
+        assertEquals(501, call("POST", "/holds", Map.of("train_id", "t1"), bob).status());
+
+        cluster.close();
+        cluster = LocalCluster.start(baseDir, NODES, 0);
+
+        alice = login("alice");
+        bob = login("bob");
+        assertEquals(TRAINS - 1, ((List<?>) call("GET", "/bookings", null, alice).body()).size());
+        assertEquals(4, ((List<?>) call("GET", "/bookings", null, bob).body()).size());
+        assertEquals(409, book(alice, "t3", 0, 0).status());
+        assertEquals(409, book(bob, "t0", 0, 0).status());
+        Map<?, ?> seats = (Map<?, ?>) call("GET", "/trains/t5/seats", null, null).body();
+        long taken = ((List<?>) seats.get("seats")).stream()
+                .flatMap(row -> ((List<?>) row).stream())
+                .filter(seat -> ((Number) seat).intValue() != 0)
+                .count();
+        assertEquals(4, taken);
+    }
+
+    @Test
+    public void retriedRequestsWithAKeyTakeEffectOnce() throws Exception {
+        String alice = signUpAndLogin("alice");
+        Map<String, Object> group = Map.of("train_id", "t2", "count", 2, "source", "a", "destination", "c");
+        Reply first = call("POST", "/bookings", group, alice, "book-1");
+        assertEquals(201, first.status());
+        assertEquals(first, call("POST", "/bookings", group, alice, "book-1"));
+        assertEquals(2, ((List<?>) call("GET", "/bookings", null, alice).body()).size());
+
+        cluster.close();
+        cluster = LocalCluster.start(baseDir, NODES, 0);
+        alice = login("alice");
+        assertEquals(first, call("POST", "/bookings", group, alice, "book-1"));
+        assertEquals(2, ((List<?>) call("GET", "/bookings", null, alice).body()).size());
+        Map<String, Object> bigger = Map.of("train_id", "t2", "count", 3, "source", "a", "destination", "c");
+        assertEquals(422, call("POST", "/bookings", bigger, alice, "book-1").status());
+
+        String ticketId = ticketOn(alice, "t2");
+        String cancel = "/bookings/" + ticketId + "/cancel";
+        assertEquals(200, call("POST", cancel, null, alice, "cancel-1").status());
+        assertEquals(200, call("POST", cancel, null, alice, "cancel-1").status());
+        assertEquals(404, call("POST", cancel, null, alice, "cancel-2").status());
+        assertEquals(1, ((List<?>) call("GET", "/bookings", null, alice).body()).size());
+        String otherCancel = "/bookings/" + ticketOn(alice, "t2") + "/cancel";
+        assertEquals(422, call("POST", otherCancel, null, alice, "cancel-1").status());
+
+        cluster.close();
+        cluster = LocalCluster.start(baseDir, NODES, 0);
+        alice = login("alice");
+        assertEquals(200, call("POST", cancel, null, alice, "cancel-1").status());
+        assertEquals(422, call("POST", otherCancel, null, alice, "cancel-1").status());
+        assertEquals(1, ((List<?>) call("GET", "/bookings", null, alice).body()).size());
+    }
+
+    private record Reply(int status, Object body) {}
+
+    private String signUpAndLogin(String name) throws Exception {
+        assertEquals(201, call("POST", "/signup", Map.of("name", name, "password", "secret-" + name), null).status());
+        return login(name);
+    }
+
+    private String login(String name) throws Exception {
+        Reply reply = call("POST", "/login", Map.of("name", name, "password", "secret-" + name), null);
+        assertEquals(200, reply.status());
+        return (String) ((Map<?, ?>) reply.body()).get("token");
+    }
+
+    private Reply book(String token, String trainId, int row, int seat) throws Exception {
+        return call("POST", "/bookings", Map.of("train_id", trainId, "row", row, "seat", seat, "source", "a",
+                "destination", "c"), token);
+    }
+
+    private String ticketOn(String token, String trainId) throws Exception {
+        for (Object ticket : (List<?>) call("GET", "/bookings", null, token).body()) {
+            if (trainId.equals(((Map<?, ?>) ticket).get("train_id"))) {
+                return (String) ((Map<?, ?>) ticket).get("ticket_id");
+            }
+        }
+        throw new AssertionError("No ticket on " + trainId);
+    }
+
+    private Reply call(String method, String path, Object body, String token) throws Exception {
+        return call(method, path, body, token, null);
+    }
+
+    private Reply call(String method, String path, Object body, String token, String idempotencyKey)
+            throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(cluster.getRouterUri() + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        if (idempotencyKey != null) {
+            request.header(BookingHttpServer.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        }
+        HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        return new Reply(response.statusCode(), MAPPER.readValue(response.body(), Object.class));
+    }
+}
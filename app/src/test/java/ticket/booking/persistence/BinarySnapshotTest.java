@@ -0,0 +1,185 @@
+package ticket.booking.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.Cancellation;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinarySnapshotTest {
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("binary-snapshot");
+        file = dir.resolve("test.snap");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void trainsRoundTripWithPartialLegs() throws IOException {
+        Map<String, String> times = new LinkedHashMap<>();
+        times.put("a", "10:00:00");
+        times.put("b", "11:00:00");
+        times.put("c", "12:00:00");
+        Train train = new Train("t1", "101", "a", "c",
+                List.of(Arrays.asList(0, 0, 0, 0, 0, 0, 0, 0, 0, 0), Arrays.asList(0, 0)), times,
+                List.of("a", "b", "c"));
+        SeatInventory inventory = train.getSeatInventory();
+        inventory.tryReserve(0, 1, inventory.fullRunMask());
+        inventory.tryReserve(0, 9, inventory.legMask(0, 1));
+        inventory.tryReserve(1, 0, inventory.legMask(1, 2));
+
+        BinarySnapshot.writeTrains(file, List.of(train));
+        List<Train> read = BinarySnapshot.readTrains(file);
+
+        assertEquals(1, read.size());
+        Train copy = read.get(0);
+        assertEquals("101", copy.getTrainNo());
+        assertEquals(List.of("a", "b", "c"), copy.getStations());
+        assertEquals(times, copy.getStationTimes());
+        assertEquals(train.getSeats(), copy.getSeats());
+        assertEquals(train.getSeatLegs(), copy.getSeatLegs());
+    }
+
+    @Test
+    public void usersRoundTripWithIdempotencyKeys() throws IOException {
+        Ticket keyed = new Ticket("x", "u1", "t1", 0, 1, "a", "b", "2030-01-01");
+        keyed.setIdempotencyKey("key-1");
+        keyed.setRequestFingerprint("seat|t1|2030-01-01|a|b|0|1");
+        Ticket plain = new Ticket("y", "u1", "t1", 0, 2, "a", "c", "2030-01-01");
+        User bob = new User("bob", null, "hash", null, "u2");
+        bob.setCancellations(List.of(new Cancellation("z", "cancel-1", 1234L)));
+        BinarySnapshot.writeUsers(file, List.of(
+                new User("ann", null, "hash", new ArrayList<>(List.of(keyed, plain)), "u1"), bob));
+
+        List<User> read = BinarySnapshot.readUsers(file);
+
+        assertEquals(2, read.size());
+        List<Ticket> tickets = read.get(0).getTicketsBooked();
+        assertEquals(2, tickets.size());
+        assertEquals("key-1", tickets.get(0).getIdempotencyKey());
+        assertEquals("seat|t1|2030-01-01|a|b|0|1", tickets.get(0).getRequestFingerprint());
+        assertNull(tickets.get(1).getIdempotencyKey());
+        assertNull(tickets.get(1).getRequestFingerprint());
+        assertEquals("c", tickets.get(1).getDestination());
+        assertNull(read.get(0).getCancellations());
+        assertNull(read.get(1).getTicketsBooked());
+        Cancellation cancellation = read.get(1).getCancellations().get(0);
+        assertEquals("z", cancellation.getTicketId());
+        assertEquals("cancel-1", cancellation.getIdempotencyKey());
+        assertEquals(1234L, cancellation.getCancelledAt());
+    }
+
+    @Test
+    public void versionOneUserSnapshotsStillLoad() throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        out.putInt(0x54424B53).putShort((short) 1).put((byte) 2);
+        List<String> strings = List.of("t1", "a", "b", "2030-01-01");
+        out.putInt(strings.size());
+        strings.forEach(value -> putString(out, value));
+        out.putInt(1);
+        int lengthAt = out.position();
+        out.putInt(0);
+        putString(out, "ann");
+        putString(out, null);
+        putString(out, "hash");
+        putString(out, "u1");
+        out.putInt(1);
+        putString(out, "x");
+        putString(out, "u1");
+        out.putInt(0).putInt(3).putInt(5).putInt(1).putInt(2).putInt(3);
+        out.putInt(lengthAt, out.position() - lengthAt - Integer.BYTES);
+        Files.write(file, Arrays.copyOf(out.array(), out.position()));
+
+        List<User> read = BinarySnapshot.readUsers(file);
+
+        assertEquals(1, read.size());
+        Ticket ticket = read.get(0).getTicketsBooked().get(0);
+        assertEquals("t1", ticket.getTrainId());
+        assertEquals(Integer.valueOf(3), ticket.getRow());
+        assertEquals("2030-01-01", ticket.getDateOfTravel());
+        assertNull(ticket.getIdempotencyKey());
+    }
+
+    @Test
+    public void truncatedSnapshotFailsTheLoad() throws IOException {
+        BinarySnapshot.writeUsers(file, List.of(new User("ann", null, "hash", new ArrayList<>(), "u1"),
+                new User("bob", null, "hash", new ArrayList<>(), "u2")));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try {
+            BinarySnapshot.readUsers(file);
+            fail("a truncated snapshot must not load");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("truncated or corrupt"));
+        }
+    }
+
+    @Test
+    public void corruptRecordIsSkipped() throws IOException {
+        BinarySnapshot.writeUsers(file, List.of(new User("ann", null, "hash", new ArrayList<>(), "u1"),
+                new User("bob", null, "hash", new ArrayList<>(), "u2")));
+        int firstName = Integer.BYTES + Short.BYTES + 1 + Integer.BYTES + Integer.BYTES + Integer.BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.MAX_VALUE), firstName);
+        }
+
+        List<User> read = BinarySnapshot.readUsers(file);
+
+        assertEquals(1, read.size());
+        assertEquals("bob", read.get(0).getName());
+    }
+
+    @Test
+    public void newerVersionIsRejected() throws IOException {
+        BinarySnapshot.writeUsers(file, List.of());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Short.BYTES).putShort(0, Short.MAX_VALUE), Integer.BYTES);
+        }
+        try {
+            BinarySnapshot.readUsers(file);
+            fail("a newer snapshot must not load");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("newer than supported"));
+        }
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        if (value == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length).put(bytes);
+    }
+}
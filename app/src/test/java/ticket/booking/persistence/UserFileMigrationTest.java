@@ -0,0 +1,100 @@
+package ticket.booking.persistence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.services.BookingContext;
+import ticket.booking.services.TrainService;
+import ticket.booking.util.JsonMappers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * An old users file whose tickets embed their whole train ({@code legacy-users.json}) is rewritten with
+ * train ids only, and its tickets still resolve against the catalog afterwards.
+ */
+public class UserFileMigrationTest {
+
+    private Path dir;
+    private Path users;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("user-migration");
+        users = dir.resolve("users.json");
+        try (InputStream fixture = UserFileMigrationTest.class.getResourceAsStream("legacy-users.json")) {
+            Files.copy(fixture, users);
+        }
+        Files.writeString(dir.resolve("trains.json"), "[{\"train_id\":\"baca\",\"train_no\":\"12345\",\"seats\":"
+                + "[[0,0,0,0,0],[0,0,0,0,0]],\"station_times\":{\"Bangalore\":\"13:50:00\",\"Jaipur\":\"14:40:00\","
+                + "\"Delhi\":\"18:10:00\"},\"stations\":[\"Bangalore\",\"Jaipur\",\"Delhi\"]}]");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void embeddedTrainsAreReplacedByTheirIds() throws IOException {
+        UserFileMigration.migrate(users.toString());
+
+        JsonNode migrated = JsonMappers.USER_MAPPER.readTree(users.toFile());
+        assertEquals(2, migrated.size());
+        JsonNode tickets = migrated.get(0).get("tickets_booked");
+        assertEquals(2, tickets.size());
+        for (JsonNode ticket : tickets) {
+            assertFalse(ticket.has("train"));
+            assertFalse(ticket.has("ticket_info"));
+        }
+        assertEquals("baca", tickets.get(0).get("train_id").asText());
+        assertEquals("bads", tickets.get(1).get("train_id").asText());
+        assertEquals("2023-12-08T18:30:00Z", tickets.get(0).get("date_of_travel").asText());
+
+        String once = Files.readString(users);
+        UserFileMigration.migrate(users.toString());
+        assertEquals(once, Files.readString(users));
+    }
+
+    @Test
+    public void migratedTicketsStillResolve() throws IOException {
+        UserFileMigration.migrate(users.toString());
+
+        try (BookingContext context = BookingContext.forDirectory(dir)) {
+            context.preload();
+            UserRepository repository = context.getUserRepository();
+            TrainService trains = context.getTrainService();
+
+            UserRepository.BookedTicket booked = repository.findTicket("legacy-1").orElseThrow();
+            assertEquals("11111", booked.userId());
+            Ticket ticket = booked.ticket();
+            assertEquals("baca", ticket.getTrainId());
+            assertEquals("2023-12-08", ticket.getJourneyDate().toString());
+            Train train = trains.getTrain(ticket.getTrainId());
+            assertTrue(ticket.getTicketInfo(train).endsWith("Departs 13:50:00"));
+
+            Ticket retired = repository.findTicket("legacy-2").orElseThrow().ticket();
+            assertNull(trains.getTrain(retired.getTrainId()));
+            assertTrue(retired.getTicketInfo(null).endsWith("(train bads is no longer in service)"));
+            assertEquals(List.of(), repository.findByName("ubednama").orElseThrow().getTicketsBooked());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ticket.booking.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Record framing of the user journal: records must come back in order, and a torn or corrupt tail must
+ * be cut off so that records appended afterwards are replayed again.
+ */
+public class UserJournalTest {
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("user-journal");
+        file = dir.resolve("users.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void recordsAreReadBackInOrder() throws IOException {
+        try (UserJournal journal = new UserJournal(file)) {
+            journal.commit(journal.append(bytes("first")));
+            journal.commit(journal.append(bytes("second")));
+        }
+        try (UserJournal journal = new UserJournal(file)) {
+            List<byte[]> records = journal.readAll();
+            assertEquals(2, records.size());
+            assertArrayEquals(bytes("first"), records.get(0));
+            assertArrayEquals(bytes("second"), records.get(1));
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncatedAndLaterRecordsSurvive() throws IOException {
+        try (UserJournal journal = new UserJournal(file)) {
+            journal.commit(journal.append(bytes("kept")));
+            journal.commit(journal.append(bytes("torn")));
+        }
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2);
+        }
+
+        try (UserJournal journal = new UserJournal(file)) {
+            assertEquals(1, journal.readAll().size());
+            journal.commit(journal.append(bytes("after")));
+        }
+        try (UserJournal journal = new UserJournal(file)) {
+            List<byte[]> records = journal.readAll();
+            assertEquals(2, records.size());
+            assertArrayEquals(bytes("after"), records.get(1));
+        }
+    }
+
+    @Test
+    public void recordWithBadChecksumEndsTheJournal() throws IOException {
+        long second;
+        try (UserJournal journal = new UserJournal(file)) {
+            second = journal.append(bytes("kept"));
+            journal.append(bytes("flipped"));
+            journal.commit(journal.append(bytes("dropped")));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), second + Integer.BYTES * 2);
+        }
+        try (UserJournal journal = new UserJournal(file)) {
+            List<byte[]> records = journal.readAll();
+            assertEquals(1, records.size());
+            assertArrayEquals(bytes("kept"), records.get(0));
+            assertEquals(second, Files.size(file));
+        }
+    }
+
+    @Test
+    public void resetEmptiesTheJournal() throws IOException {
+        try (UserJournal journal = new UserJournal(file)) {
+            journal.commit(journal.append(bytes("old")));
+            journal.reset();
+            journal.commit(journal.append(bytes("new")));
+        }
+        try (UserJournal journal = new UserJournal(file)) {
+            List<byte[]> records = journal.readAll();
+            assertEquals(1, records.size());
+            assertArrayEquals(bytes("new"), records.get(0));
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
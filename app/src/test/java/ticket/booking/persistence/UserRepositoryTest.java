@@ -0,0 +1,166 @@
+package ticket.booking.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+import ticket.booking.util.JsonMappers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Restart round trips of the user repository: every change acknowledged before a restart must be there
+ * afterwards, including changes journaled on both sides of a snapshot.
+ */
+public class UserRepositoryTest {
+
+    private static final int CHANGES = 2500;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("user-repository");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void binarySnapshotsAndJournalSurviveRestart() throws IOException {
+        roundTrip(SnapshotFormat.BINARY);
+    }
+
+    @Test
+    public void jsonSnapshotsAndJournalSurviveRestart() throws IOException {
+        roundTrip(SnapshotFormat.JSON);
+    }
+
+    @Test
+    public void batchThatTriggersASnapshotSurvivesRestart() throws IOException {
+        String path = dir.resolve("users.json").toString();
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            assertTrue(users.add(new User("ann", null, "hash-1", new ArrayList<>(), "u1")));
+            assertTrue(users.add(new User("bob", null, "hash-2", new ArrayList<>(), "u2")));
+            for (int i = 0; i < 997; i++) {
+                assertTrue(users.addTicket("u1", ticket("single-" + i, "u1")));
+            }
+            Map<String, List<Ticket>> batch = new LinkedHashMap<>();
+            for (String userId : List.of("u1", "u2", "ghost")) {
+                List<Ticket> tickets = new ArrayList<>();
+                for (int i = 0; i < 300; i++) {
+                    tickets.add(ticket(userId + "-batch-" + i, userId));
+                }
+                batch.put(userId, tickets);
+            }
+            assertEquals(List.of("ghost"), users.addTicketsBatch(batch));
+        }
+
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            assertEquals(997 + 300, users.findById("u1").orElseThrow().getTicketsBooked().size());
+            assertEquals(300, users.findById("u2").orElseThrow().getTicketsBooked().size());
+            assertEquals("u2", users.findTicket("u2-batch-299").orElseThrow().userId());
+            assertTrue(users.findTicket("ghost-batch-0").isEmpty());
+        }
+    }
+
+    @Test
+    public void periodicSnapshotSealsTheJournalAndIsWrittenInTheBackground() throws Exception {
+        String path = dir.resolve("users.json").toString();
+        Path snapshot = SnapshotFormat.binaryPathFor(Path.of(path));
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            assertTrue(users.add(new User("ann", null, "hash-1", new ArrayList<>(), "u1")));
+            for (int i = 0; i < 1100; i++) {
+                assertTrue(users.addTicket("u1", ticket("t" + i, "u1")));
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (Files.exists(dir.resolve("users.journal.sealed")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.exists(snapshot));
+            assertFalse(Files.exists(dir.resolve("users.journal.sealed")));
+            assertTrue(users.removeTicket("u1", "t0"));
+        }
+
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            assertEquals(1099, users.findById("u1").orElseThrow().getTicketsBooked().size());
+            assertTrue(users.findTicket("t0").isEmpty());
+        }
+    }
+
+    @Test
+    public void sealedSegmentLeftByACrashIsReplayedAndFolded() throws IOException {
+        String path = dir.resolve("users.json").toString();
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            assertTrue(users.add(new User("ann", null, "hash-1", new ArrayList<>(), "u1")));
+            assertTrue(users.addTicket("u1", ticket("t1", "u1")));
+            assertTrue(users.addTicket("u1", ticket("t2", "u1")));
+        }
+        Files.move(dir.resolve("users.journal"), dir.resolve("users.journal.sealed"));
+
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            assertFalse(Files.exists(dir.resolve("users.journal.sealed")));
+            assertTrue(users.removeTicket("u1", "t1"));
+        }
+
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, SnapshotFormat.BINARY)) {
+            List<Ticket> tickets = users.findById("u1").orElseThrow().getTicketsBooked();
+            assertEquals(1, tickets.size());
+            assertEquals("t2", tickets.get(0).getTicketId());
+        }
+    }
+
+    private void roundTrip(SnapshotFormat format) throws IOException {
+        String path = dir.resolve("users.json").toString();
+        List<String> cancelled = new ArrayList<>();
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, format)) {
+            assertTrue(users.add(new User("ann", null, "hash-1", new ArrayList<>(), "u1")));
+            assertTrue(users.add(new User("bob", null, "hash-2", new ArrayList<>(), "u2")));
+            assertFalse(users.add(new User("ann", null, "hash-3", new ArrayList<>(), "u3")));
+            for (int i = 0; i < CHANGES; i++) {
+                assertTrue(users.addTicket(i % 2 == 0 ? "u1" : "u2", ticket("t" + i, i % 2 == 0 ? "u1" : "u2")));
+                if (i % 5 == 0) {
+                    String owner = i % 2 == 0 ? "u1" : "u2";
+                    assertTrue(users.removeTicket(owner, "t" + i));
+                    cancelled.add("t" + i);
+                }
+            }
+            assertTrue(users.updatePasswordHash("u2", "hash-new"));
+        }
+
+        try (UserRepository users = new UserRepository(path, JsonMappers.USER_MAPPER, format)) {
+            assertEquals(2, users.size());
+            assertEquals("hash-new", users.findByName("bob").orElseThrow().getHashedPassword());
+            int tickets = users.findById("u1").orElseThrow().getTicketsBooked().size()
+                    + users.findById("u2").orElseThrow().getTicketsBooked().size();
+            assertEquals(CHANGES - cancelled.size(), tickets);
+            assertEquals("u2", users.findTicket("t" + (CHANGES - 1)).orElseThrow().userId());
+            for (String ticketId : cancelled) {
+                assertTrue(users.findTicket(ticketId).isEmpty());
+            }
+        }
+    }
+
+    private static Ticket ticket(String ticketId, String userId) {
+        return new Ticket(ticketId, userId, "train", 0, 0, "a", "b", "2030-01-01");
+    }
+}
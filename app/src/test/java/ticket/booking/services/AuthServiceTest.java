@@ -0,0 +1,116 @@
+package ticket.booking.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.User;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AuthServiceTest {
+
+    private Path dataDir;
+    private BookingContext context;
+    private UserRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("auth");
+        Files.writeString(dataDir.resolve("trains.json"), "[]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        context = BookingContext.forDirectory(dataDir);
+        repository = context.getUserRepository();
+        for (String name : new String[] {"ann", "bob"}) {
+            new UserBookingService(null, context).signUp(new User(name, null,
+                    UserServiceUtil.hashPassword("secret", 4), new ArrayList<>(), "id-" + name));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void attemptsAreLimitedPerUser() throws Exception {
+        try (AuthService auth = new AuthService(repository, 4, 2, 16, 3)) {
+            for (int i = 0; i < 3; i++) {
+                assertFalse(auth.authenticate("ann", "wrong", "client-" + i).get().isPresent());
+            }
+
+            assertRejected(auth.authenticate("ann", "secret", "client-9"), true);
+            assertTrue(auth.authenticate("bob", "secret", "client-9").get().isPresent());
+        }
+    }
+
+    @Test
+    public void attemptsAreLimitedPerClient() throws Exception {
+        try (AuthService auth = new AuthService(repository, 4, 2, 16, 3)) {
+            for (String name : new String[] {"ann", "bob", "nobody"}) {
+                auth.authenticate(name, "wrong", "10.0.0.1").get();
+            }
+
+            assertRejected(auth.authenticate("ann", "secret", "10.0.0.1"), true);
+            assertTrue(auth.authenticate("ann", "secret", "10.0.0.2").get().isPresent());
+        }
+    }
+
+    @Test
+    public void fullQueueRejectsInsteadOfWaiting() throws Exception {
+        // the dummy hash of cost 12 keeps the only thread busy while the queue fills up
+        try (AuthService auth = new AuthService(repository, 12, 1, 1, 100)) {
+            CompletableFuture<String> queued = auth.hashPassword("first");
+
+            assertRejected(auth.hashPassword("second"), false);
+            assertEquals(12, UserServiceUtil.costOf(queued.get()));
+        }
+    }
+
+    @Test
+    public void weakHashIsReplacedAfterLogin() throws Exception {
+        try (AuthService auth = new AuthService(repository, 5, 2, 16, 100)) {
+            Optional<User> user = auth.authenticate("ann", "secret", null).get();
+            assertTrue(user.isPresent());
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (UserServiceUtil.costOf(repository.findByName("ann").orElseThrow().getHashedPassword()) != 5) {
+                assertTrue("hash was not upgraded", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            assertTrue(UserServiceUtil.checkPassword("secret",
+                    repository.findByName("ann").orElseThrow().getHashedPassword()));
+            assertTrue(auth.authenticate("ann", "secret", null).get().isPresent());
+            assertEquals(4, UserServiceUtil.costOf(repository.findByName("bob").orElseThrow().getHashedPassword()));
+        }
+    }
+
+    private static void assertRejected(CompletableFuture<?> attempt, boolean rateLimited) throws InterruptedException {
+        try {
+            attempt.get();
+            fail("the attempt should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AuthService.RejectedException);
+            assertEquals(rateLimited, ((AuthService.RejectedException) e.getCause()).isRateLimited());
+        }
+    }
+}
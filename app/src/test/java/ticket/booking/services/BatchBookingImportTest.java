@@ -0,0 +1,125 @@
+package ticket.booking.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The whole import: a requests file in, a results file out, and the seats and tickets in between.
+ */
+public class BatchBookingImportTest {
+
+    private static final LocalDate DATE = LocalDate.now().plusDays(1);
+
+    private Path dataDir;
+    private BookingContext context;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("batch");
+        Files.writeString(dataDir.resolve("trains.json"), "[{\"train_id\":\"w\",\"train_no\":\"1\",\"seats\":"
+                + "[[0,0,0,0]],\"station_times\":{\"a\":\"10:00:00\",\"b\":\"11:00:00\",\"c\":\"12:00:00\","
+                + "\"d\":\"13:00:00\"},\"stations\":[\"a\",\"b\",\"c\",\"d\"]}]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        context = BookingContext.forDirectory(dataDir);
+        signUp("ann");
+        signUp("Doe, Jane");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void everyRowGetsItsOutcomeInTheResultsFile() throws IOException {
+        Path input = dataDir.resolve("requests.csv");
+        Files.writeString(input, String.join("\n",
+                "user_name, train_id, source, destination, date, row, seat, count",
+                "ann,w,a,d," + DATE + ",1,1,",
+                "\"Doe, Jane\",w,a,c," + DATE + ",,,2",
+                "ann,w,a,d,\"2026/1,2\",1,2,",
+                "ann,nowhere,a,b," + DATE + ",,,",
+                "ann,w,a,d",
+                "\"ann\",w,\"b\",d," + DATE + ",1,1,",
+                "\"Doe, Jane\",w,\"c",
+                "\",d," + DATE + ",,,1",
+                ""));
+        Path output = dataDir.resolve("results.csv");
+
+        BatchBookingImport.Result result = new BatchBookingImport(context, 2).run(input, output);
+
+        assertEquals(4, result.booked());
+        assertEquals(4, result.rejected());
+        List<List<String>> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(output)) {
+            rows.add(BatchBookingImport.splitCsv(line));
+        }
+        assertEquals(List.of("line", "status", "train_id", "ticket_ids", "message"), rows.get(0));
+        assertEquals(List.of("2", "BOOKED", "w"), rows.get(1).subList(0, 3));
+        assertEquals(List.of("3", "BOOKED", "w"), rows.get(2).subList(0, 3));
+        assertEquals(2, rows.get(2).get(3).split(";").length);
+        assertEquals(List.of("4", "INVALID", "w", "", "Bad date: 2026/1,2"), rows.get(3));
+        assertEquals(List.of("5", "REJECTED", "nowhere", "", "Unknown train"), rows.get(4));
+        assertEquals(List.of("6", "INVALID", "", "", "Malformed record"), rows.get(5));
+        assertEquals(List.of("7", "REJECTED", "w", "", "Seats not available"), rows.get(6));
+        assertEquals(List.of("8", "BOOKED", "w"), rows.get(7).subList(0, 3));
+        assertEquals(8, rows.size());
+
+        assertEquals(1, tickets("ann").size());
+        assertEquals(3, tickets("Doe, Jane").size());
+        SeatInventory inventory = context.getTrainService().inventory(context.getTrainService().getTrain("w"), DATE);
+        assertEquals(inventory.fullRunMask(), inventory.getLegs(0, 0));
+    }
+
+    @Test
+    public void seatsAreGivenBackWhenTheBatchCannotBeWritten() throws IOException {
+        List<BatchBookingImport.Request> requests = List.of(
+                new BatchBookingImport.Request(2, Map.of("user_name", "ann", "train_id", "w",
+                        "source", "a", "destination", "d", "date", DATE.toString(), "count", "3")),
+                new BatchBookingImport.Request(3, Map.of("user_name", "nobody", "train_id", "w",
+                        "source", "a", "destination", "b", "date", DATE.toString())));
+        context.getTrainService();
+        context.getUserRepository().close();
+
+        BatchBookingImport.Result result = new BatchBookingImport(context).process(requests);
+
+        assertEquals(0, result.booked());
+        assertEquals(BatchBookingImport.Status.FAILED, result.outcomes().get(0).status());
+        assertTrue(result.outcomes().get(0).message().startsWith("Batch could not be written"));
+        assertEquals(BatchBookingImport.Status.REJECTED, result.outcomes().get(1).status());
+        SeatInventory inventory = context.getTrainService().inventory(context.getTrainService().getTrain("w"), DATE);
+        assertEquals(4, inventory.freeSeatCount(inventory.fullRunMask()));
+    }
+
+    private void signUp(String name) throws IOException {
+        assertTrue(new UserBookingService(null, context).signUp(new User(name, null,
+                UserServiceUtil.hashPassword("secret", 4), new ArrayList<>(), "id-" + name)));
+    }
+
+    private List<Ticket> tickets(String name) throws IOException {
+        return context.getUserRepository().findByName(name).orElseThrow().getTicketsBooked();
+    }
+}
@@ -0,0 +1,247 @@
+package ticket.booking.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.SeatPreferences;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many users booking, group booking and cancelling on the same train at once. Afterwards every seat
+ * leg must belong to at most one ticket, the inventory must hold exactly the legs of the surviving
+ * tickets, and a fresh load from disk must see the same state.
+ */
+public class BookingConcurrencyTest {
+
+    private static final String[] STATIONS = {"a", "b", "c", "d"};
+    private static final int ROWS = 6;
+    private static final int SEATS_PER_ROW = 8;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 400;
+    private static final LocalDate DATE = LocalDate.now().plusDays(1);
+
+    private Path dataDir;
+    private BookingContext context;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("booking-concurrency");
+        StringBuilder seats = new StringBuilder();
+        for (int row = 0; row < ROWS; row++) {
+            seats.append(row > 0 ? "," : "").append('[');
+            for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+                seats.append(seat > 0 ? "," : "").append('0');
+            }
+            seats.append(']');
+        }
+        Files.writeString(dataDir.resolve("trains.json"), "[{\"train_id\":\"stress\",\"train_no\":\"1\",\"seats\":["
+                + seats + "],\"station_times\":{\"a\":\"10:00:00\",\"b\":\"11:00:00\",\"c\":\"12:00:00\","
+                + "\"d\":\"13:00:00\"},\"stations\":[\"a\",\"b\",\"c\",\"d\"]}]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        context = newContext();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentBookingsNeverDoubleBookOrLoseUpdates() throws Exception {
+        List<UserBookingService> sessions = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            sessions.add(login("user" + i));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            UserBookingService session = sessions.get(i);
+            Random random = new Random(i);
+            workers.add(executor.submit(() -> {
+                start.await();
+                Train train = context.getTrainService().getTrain("stress");
+                for (int op = 0; op < OPERATIONS_PER_THREAD; op++) {
+                    int from = random.nextInt(STATIONS.length - 1);
+                    int to = from + 1 + random.nextInt(STATIONS.length - 1 - from);
+                    int action = random.nextInt(10);
+                    if (action < 6) {
+                        session.bookSeat(train, DATE, random.nextInt(ROWS), random.nextInt(SEATS_PER_ROW),
+                                STATIONS[from], STATIONS[to]);
+                    } else if (action < 8) {
+                        session.bookSeats(train, DATE, 2 + random.nextInt(2), STATIONS[from], STATIONS[to],
+                                random.nextBoolean() ? SeatPreferences.ADJACENT : SeatPreferences.ANY);
+                    } else {
+                        List<Ticket> booked = session.getUser().getTicketsBooked();
+                        if (booked != null && !booked.isEmpty()) {
+                            session.cancelBooking(booked.get(random.nextInt(booked.size())).getTicketId());
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+
+        Map<Long, Long> legsBySeat = assertNoOverlap(context);
+        assertInventoryMatches(context, legsBySeat);
+
+        context.close();
+        context = newContext();
+        assertEquals(legsBySeat, assertNoOverlap(context));
+        assertInventoryMatches(context, legsBySeat);
+    }
+
+    @Test
+    public void replacingTheTrainWhileBookingKeepsEverySale() throws Exception {
+        List<UserBookingService> sessions = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            sessions.add(login("user" + i));
+        }
+        Train original = context.getTrainService().getTrain("stress");
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean booking = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        Future<?> replacer = executor.submit(() -> {
+            start.await();
+            for (int round = 0; booking.get(); round++) {
+                context.getTrainService().updateTrain(round % 2 == 0
+                        ? replacement("a", "b", "x", "c", "d") : replacement(STATIONS));
+            }
+            return null;
+        });
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            UserBookingService session = sessions.get(i);
+            Random random = new Random(i);
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int op = 0; op < OPERATIONS_PER_THREAD / 4; op++) {
+                    int from = random.nextInt(STATIONS.length - 1);
+                    int to = from + 1 + random.nextInt(STATIONS.length - 1 - from);
+                    if (random.nextInt(4) < 3) {
+                        session.bookSeat(original, DATE, random.nextInt(ROWS), random.nextInt(SEATS_PER_ROW),
+                                STATIONS[from], STATIONS[to]);
+                    } else {
+                        session.bookSeats(original, DATE, 2, STATIONS[from], STATIONS[to], SeatPreferences.ANY);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        booking.set(false);
+        replacer.get();
+        context.getTrainService().updateTrain(replacement(STATIONS));
+        executor.shutdown();
+
+        Map<Long, Long> legsBySeat = assertNoOverlap(context);
+        assertTrue(!legsBySeat.isEmpty());
+        assertInventoryMatches(context, legsBySeat);
+    }
+
+    private static Train replacement(String... stations) {
+        List<List<Integer>> seats = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            seats.add(new ArrayList<>(Collections.nCopies(SEATS_PER_ROW, 0)));
+        }
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < stations.length; i++) {
+            times.put(stations[i], (10 + i) + ":00:00");
+        }
+        return new Train("stress", "1", null, null, seats, times, List.of(stations));
+    }
+
+    private BookingContext newContext() {
+        return new BookingContext(dataDir.resolve("trains.json").toString(), dataDir.resolve("users.json").toString());
+    }
+
+    private UserBookingService login(String name) throws IOException {
+        new UserBookingService(null, context).signUp(new User(name, null,
+                UserServiceUtil.hashPassword("secret", 4), new ArrayList<>(), "id-" + name));
+        UserBookingService session = new UserBookingService(new User(name, "secret", null, null, null), context);
+        assertTrue(session.loginUser());
+        return session;
+    }
+
+    /**
+     * Checks that no two tickets share a leg of a seat and returns the booked legs per seat.
+     */
+    private static Map<Long, Long> assertNoOverlap(BookingContext context) throws IOException {
+        Train train = context.getTrainService().getTrain("stress");
+        Map<Long, Long> legsBySeat = new HashMap<>();
+        for (User user : context.getUserRepository().getUsers()) {
+            for (Ticket ticket : user.getTicketsBooked()) {
+                long seatKey = (long) ticket.getRow() * SEATS_PER_ROW + ticket.getSeat();
+                long leg = train.legMask(ticket.getSource(), ticket.getDestination());
+                long before = legsBySeat.getOrDefault(seatKey, 0L);
+                assertEquals("seat " + ticket.getRow() + "," + ticket.getSeat() + " double-booked", 0, before & leg);
+                legsBySeat.put(seatKey, before | leg);
+            }
+        }
+        return legsBySeat;
+    }
+
+    private static void assertInventoryMatches(BookingContext context, Map<Long, Long> legsBySeat) throws IOException {
+        TrainService trainService = context.getTrainService();
+        SeatInventory inventory = trainService.inventory(trainService.getTrain("stress"), DATE);
+        for (int row = 0; row < ROWS; row++) {
+            for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+                long expected = legsBySeat.getOrDefault((long) row * SEATS_PER_ROW + seat, 0L);
+                assertEquals("legs of seat " + row + "," + seat, expected, inventory.getLegs(row, seat));
+            }
+            assertEquals("free seats in row " + row, countFree(legsBySeat, row, inventory.fullRunMask()),
+                    inventory.freeSeatCount(row, inventory.fullRunMask()));
+        }
+    }
+
+    private static int countFree(Map<Long, Long> legsBySeat, int row, long leg) {
+        int free = 0;
+        for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+            if ((legsBySeat.getOrDefault((long) row * SEATS_PER_ROW + seat, 0L) & leg) == 0) {
+                free++;
+            }
+        }
+        return free;
+    }
+}
@@ -0,0 +1,108 @@
+package ticket.booking.services;
+
+import org.junit.Test;
+import ticket.booking.entities.Cancellation;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IdempotencyCacheTest {
+
+    private final IdempotencyCache cache = new IdempotencyCache(10, TimeUnit.MINUTES, 100);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    public void keyReusedForAnotherRequestIsRefused() {
+        String seat = IdempotencyCache.fingerprint("seat", "T1", "2030-01-01", "A", "B", 0, 1);
+        assertEquals(seat, IdempotencyCache.fingerprint("seat", "t1", "2030-01-01", "a", "b", 0, 1));
+        List<Ticket> first = cache.book("u1", "k", seat, () -> book("x"));
+        assertEquals(first, cache.book("u1", "k", seat, () -> book("y")));
+        try {
+            cache.book("u1", "k", IdempotencyCache.fingerprint("seat", "t1", "2030-01-01", "a", "b", 0, 2),
+                    () -> book("z"));
+            fail("a key reused for another seat must be refused");
+        } catch (IdempotencyCache.KeyReusedException expected) {
+            assertEquals(1, runs.get());
+        }
+
+        assertTrue(cache.cancel("u1", "c", "x", () -> true));
+        try {
+            cache.cancel("u1", "c", "y", () -> true);
+            fail("a key reused for another ticket must be refused");
+        } catch (IdempotencyCache.KeyReusedException expected) {
+            assertTrue(cache.cancel("u1", "c", "x", () -> false));
+        }
+    }
+
+    @Test
+    public void seededCancellationsReplayUntilTheyExpire() {
+        long now = System.currentTimeMillis();
+        User user = new User("ann", null, "hash", new ArrayList<>(), "u1");
+        user.setCancellations(List.of(new Cancellation("old", "stale", now - TimeUnit.MINUTES.toMillis(11)),
+                new Cancellation("x", "recent", now - TimeUnit.MINUTES.toMillis(1))));
+        cache.seed(List.of(user));
+
+        assertTrue(cache.cancel("u1", "recent", "x", () -> false));
+        assertFalse(cache.cancel("u1", "stale", "old", () -> false));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void bookingsFromBeforeFingerprintsReplayForAnyRequest() {
+        Ticket legacy = new Ticket("x", "u1", "t1", 0, 1, "a", "b", "2030-01-01");
+        legacy.setIdempotencyKey("k");
+        cache.seed(List.of(new User("ann", null, "hash", new ArrayList<>(List.of(legacy)), "u1")));
+
+        List<Ticket> replayed = cache.book("u1", "k", "seat|t1|2030-01-01|a|b|0|1", () -> book("y"));
+        assertEquals("x", replayed.get(0).getTicketId());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void retryAfterEvictionIsAnsweredFromTheUsersRecords() {
+        User user = new User("ann", null, "hash", new ArrayList<>(), "u1");
+        IdempotencyCache small = new IdempotencyCache(10, TimeUnit.MINUTES, 2,
+                userId -> userId.equals("u1") ? user : null);
+        String seat = IdempotencyCache.fingerprint("seat", "t1", "2030-01-01", "a", "b", 0, 1);
+        List<Ticket> first = small.book("u1", "k1", seat, () -> bookFor(user, "x", "k1", seat));
+        small.book("u1", "k2", "other", () -> bookFor(user, "y", "k2", "other"));
+        small.book("u1", "k3", "third", () -> bookFor(user, "z", "k3", "third"));
+        assertEquals(2, small.size());
+
+        assertEquals(first, small.book("u1", "k1", seat, () -> bookFor(user, "again", "k1", seat)));
+        assertEquals(3, runs.get());
+        try {
+            small.book("u1", "k1", "different", () -> bookFor(user, "w", "k1", "different"));
+            fail("a key reused for another request must be refused after eviction too");
+        } catch (IdempotencyCache.KeyReusedException expected) {
+            assertEquals(3, runs.get());
+        }
+
+        user.addCancellation(new Cancellation("x", "c1", System.currentTimeMillis()), 0);
+        small.book("u1", "k4", "fourth", () -> bookFor(user, "v", "k4", "fourth"));
+        small.book("u1", "k5", "fifth", () -> bookFor(user, "u", "k5", "fifth"));
+        assertTrue(small.cancel("u1", "c1", "x", () -> false));
+    }
+
+    private List<Ticket> bookFor(User user, String ticketId, String key, String fingerprint) {
+        Ticket ticket = book(ticketId).get(0);
+        ticket.setIdempotencyKey(key);
+        ticket.setRequestFingerprint(fingerprint);
+        user.addTicketBooked(ticket);
+        return List.of(ticket);
+    }
+
+    private List<Ticket> book(String ticketId) {
+        runs.incrementAndGet();
+        return List.of(new Ticket(ticketId, "u1", "t1", 0, 1, "a", "b", "2030-01-01"));
+    }
+}
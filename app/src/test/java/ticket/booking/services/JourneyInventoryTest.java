@@ -0,0 +1,122 @@
+package ticket.booking.services;
+
+import org.junit.Test;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JourneyInventoryTest {
+
+    private static final LocalDate TOMORROW = LocalDate.now().plusDays(1);
+    private static final LocalDate LATER = LocalDate.now().plusDays(3);
+
+    private final Map<String, Train> catalog = new ConcurrentHashMap<>();
+    private final JourneyInventory journeys = new JourneyInventory(30, catalog::get);
+
+    private static Train train(List<String> stations, Integer... firstRow) {
+        Train train = new Train("t1", "1", null, null, List.of(Arrays.asList(firstRow), Arrays.asList(0, 0)), null,
+                stations);
+        train.getSeatInventory();
+        return train;
+    }
+
+    private static User user(Ticket... tickets) {
+        return new User("ann", null, "hash", new ArrayList<>(List.of(tickets)), "u1");
+    }
+
+    @Test
+    public void seedHandsLegacySalesBackToTheTemplateAndDefersTheRest() {
+        Train train = train(List.of("a", "b", "c"), 1, 0, 0);
+        catalog.put("t1", train);
+        Ticket upcoming = new Ticket("x", "u1", "t1", 0, 0, "a", "c", TOMORROW.toString());
+        Ticket past = new Ticket("y", "u1", "t1", 0, 1, "a", "b", LocalDate.now().minusDays(2).toString());
+
+        assertTrue(journeys.seed(List.of(user(upcoming, past)), catalog::get));
+
+        assertEquals(0, train.getSeatInventory().getLegs(0, 0));
+        assertEquals(0, journeys.size());
+        assertEquals(0, journeys.view(train, LATER).getLegs(0, 0));
+        assertEquals(0, journeys.size());
+        assertFalse(journeys.seed(List.of(user(upcoming)), catalog::get));
+    }
+
+    @Test
+    public void pendingTicketsAreAppliedWhenTheJourneyIsFirstUsed() {
+        Train train = train(List.of("a", "b", "c"), 0, 0, 0);
+        catalog.put("t1", train);
+        journeys.seed(List.of(user(new Ticket("x", "u1", "t1", 0, 2, "b", "c", TOMORROW.toString()),
+                new Ticket("z", "u1", "t1", 9, 9, "a", "c", TOMORROW.toString()))), catalog::get);
+
+        SeatInventory journey = journeys.view(train, TOMORROW);
+
+        assertEquals(1, journeys.size());
+        assertEquals(train.legMask("b", "c"), journey.getLegs(0, 2));
+        assertSame(journey, journeys.forDate(train, TOMORROW));
+        assertEquals(0, journeys.forDate(train, LATER).getLegs(0, 2));
+        assertEquals(0, train.getSeatInventory().getLegs(0, 2));
+    }
+
+    @Test
+    public void evictionDropsEarlierJourneysAndTheirPendingTickets() {
+        Train train = train(List.of("a", "b"), 0, 0, 0);
+        catalog.put("t1", train);
+        LocalDate dayAfter = TOMORROW.plusDays(1);
+        journeys.seed(List.of(user(new Ticket("x", "u1", "t1", 0, 0, "a", "b", TOMORROW.toString()))), catalog::get);
+        journeys.forDate(train, dayAfter).tryReserve(1, 1, train.legMask("a", "b"));
+        journeys.forDate(train, LATER);
+
+        assertEquals(1, journeys.evictBefore(LATER));
+
+        assertEquals(1, journeys.size());
+        assertEquals(0, journeys.forDate(train, TOMORROW).getLegs(0, 0));
+        assertEquals(0, journeys.forDate(train, dayAfter).getLegs(1, 1));
+    }
+
+    @Test
+    public void replacedTrainKeepsSalesOnItsNewRoute() {
+        Train original = train(List.of("a", "b", "c"), 0, 0, 0);
+        catalog.put("t1", original);
+        JourneyInventory.Journey before = journeys.journey(original, TOMORROW);
+        before.seats().tryReserve(0, 1, original.legMask("a", "c"));
+        before.seats().tryReserve(1, 0, original.legMask("b", "c"));
+
+        Train extended = train(List.of("a", "b", "x", "c"), 0, 0, 0);
+        catalog.put("t1", extended);
+        journeys.retemplate(extended);
+
+        JourneyInventory.Journey after = journeys.journey(original, TOMORROW);
+        assertSame(extended, after.train());
+        assertNotSame(before.seats(), after.seats());
+        assertEquals(extended.legMask("a", "c"), after.seats().getLegs(0, 1));
+        assertEquals(extended.legMask("b", "c"), after.seats().getLegs(1, 0));
+    }
+
+    @Test
+    public void journeyNotReachedByTheReplacementIsCarriedOverOnNextUse() {
+        Train original = train(List.of("a", "b"), 0, 0, 0);
+        catalog.put("t1", original);
+        journeys.forDate(original, TOMORROW).tryReserve(0, 0, original.legMask("a", "b"));
+
+        Train shorter = train(List.of("a", "b"), 0, 0);
+        catalog.put("t1", shorter);
+
+        JourneyInventory.Journey after = journeys.journey(original, TOMORROW);
+        assertSame(shorter, after.train());
+        assertEquals(2, after.seats().getSeatCount(0));
+        assertEquals(shorter.legMask("a", "b"), after.seats().getLegs(0, 0));
+    }
+}
@@ -0,0 +1,153 @@
+package ticket.booking.services;
+
+import org.junit.Test;
+import ticket.booking.entities.Train;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Journey planning over a small network. Every train runs daily:
+ *
+ * <pre>
+ * fast    a 08:00 - b 09:00 - c 10:00
+ * branch  b 09:30 - d 10:30
+ * link    d 10:45 - e 11:30
+ * slow    a 07:00 - e 13:00
+ * shuttle b 09:20 - c 10:00
+ * </pre>
+ */
+public class JourneyPlannerTest {
+
+    private static final LocalDate DATE = LocalDate.of(2030, 1, 1);
+    private static final LocalDateTime MORNING = DATE.atTime(6, 0);
+    private static final int TRANSFER_MINUTES = 10;
+
+    private static final Train FAST = train("fast", "a", "08:00", "b", "09:00", "c", "10:00");
+    private static final Train BRANCH = train("branch", "b", "09:30", "d", "10:30");
+    private static final Train LINK = train("link", "d", "10:45", "e", "11:30");
+    private static final Train SLOW = train("slow", "a", "07:00", "e", "13:00");
+    private static final Train SHUTTLE = train("shuttle", "b", "09:20", "c", "10:00");
+
+    private static final Timetable NETWORK = new Timetable(List.of(FAST, BRANCH, LINK, SLOW, SHUTTLE));
+
+    @Test
+    public void directTrainIsTheOnlyItineraryWhenNothingArrivesEarlier() {
+        List<JourneyPlanner.Itinerary> itineraries = plan(NETWORK, "a", "b", 2);
+
+        assertEquals(1, itineraries.size());
+        JourneyPlanner.Leg leg = itineraries.get(0).legs().get(0);
+        assertEquals("fast", leg.train().getTrainId());
+        assertEquals(DATE, leg.journeyDate());
+        assertEquals(DATE.atTime(8, 0), leg.departs());
+        assertEquals(DATE.atTime(9, 0), leg.arrives());
+    }
+
+    @Test
+    public void oneChangeWaitsAtLeastTheTransferTime() {
+        List<JourneyPlanner.Itinerary> itineraries = plan(NETWORK, "a", "d", 2);
+
+        assertEquals(1, itineraries.size());
+        assertEquals(List.of("fast", "branch"), trainIds(itineraries.get(0)));
+        assertEquals(DATE.atTime(10, 30), itineraries.get(0).arrives());
+
+        List<JourneyPlanner.Itinerary> tight = JourneyPlanner.plan(NETWORK, "a", "d", MORNING, 2, 45);
+        assertEquals(1, tight.size());
+        assertEquals(DATE.plusDays(1), tight.get(0).legs().get(1).journeyDate());
+    }
+
+    @Test
+    public void twoChangesAreListedOnlyIfTheyArriveEarlier() {
+        List<JourneyPlanner.Itinerary> itineraries = plan(NETWORK, "a", "e", 2);
+
+        assertEquals(2, itineraries.size());
+        assertEquals(List.of("slow"), trainIds(itineraries.get(0)));
+        assertEquals(DATE.atTime(13, 0), itineraries.get(0).arrives());
+        assertEquals(List.of("fast", "branch", "link"), trainIds(itineraries.get(1)));
+        assertEquals(2, itineraries.get(1).changes());
+        assertEquals(DATE.atTime(11, 30), itineraries.get(1).arrives());
+
+        List<JourneyPlanner.Itinerary> oneChange = plan(NETWORK, "a", "e", 1);
+        assertEquals(1, oneChange.size());
+        assertEquals(List.of("slow"), trainIds(oneChange.get(0)));
+    }
+
+    @Test
+    public void changeArrivingAtTheSameTimeAsTheDirectTrainIsDropped() {
+        List<JourneyPlanner.Itinerary> itineraries = plan(NETWORK, "a", "c", 2);
+
+        assertEquals(1, itineraries.size());
+        assertEquals(List.of("fast"), trainIds(itineraries.get(0)));
+        assertEquals(DATE.atTime(10, 0), itineraries.get(0).arrives());
+    }
+
+    @Test
+    public void publishedTimetableIsUnchangedByUpdates() {
+        Train extended = train("branch", "b", "09:30", "d", "10:30", "f", "11:00");
+        Timetable updated = NETWORK.withTrain(extended);
+        Timetable untimed = updated.withTrain(new Train("branch", "2", null, null, List.of(Arrays.asList(0)), null,
+                List.of("b", "d", "f")));
+
+        assertTrue(plan(NETWORK, "a", "f", 2).isEmpty());
+        assertEquals(DATE.atTime(11, 0), plan(updated, "a", "f", 2).get(0).arrives());
+        assertTrue(plan(untimed, "a", "f", 2).isEmpty());
+        assertTrue(plan(untimed, "a", "d", 2).isEmpty());
+        assertEquals(DATE.atTime(10, 30), plan(NETWORK, "a", "d", 2).get(0).arrives());
+        assertEquals(DATE.atTime(10, 30), plan(updated, "a", "d", 2).get(0).arrives());
+    }
+
+    @Test
+    public void queriesSeeOneTimetableWhileItIsSwapped() throws InterruptedException {
+        Train early = train("branch", "b", "09:30", "d", "10:30");
+        Train late = train("branch", "b", "09:40", "d", "10:40");
+        AtomicReference<Timetable> published = new AtomicReference<>(NETWORK);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread updater = new Thread(() -> {
+            for (int i = 0; running.get(); i++) {
+                published.set(published.get().withTrain(i % 2 == 0 ? late : early));
+            }
+        });
+        updater.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                List<JourneyPlanner.Itinerary> itineraries = plan(published.get(), "a", "d", 2);
+                assertEquals(1, itineraries.size());
+                LocalDateTime arrives = itineraries.get(0).arrives();
+                assertTrue(arrives.toString(), arrives.equals(DATE.atTime(10, 30))
+                        || arrives.equals(DATE.atTime(10, 40)));
+            }
+        } finally {
+            running.set(false);
+            updater.join();
+        }
+    }
+
+    private static List<JourneyPlanner.Itinerary> plan(Timetable timetable, String source, String destination,
+                                                       int maxChanges) {
+        return JourneyPlanner.plan(timetable, source, destination, MORNING, maxChanges, TRANSFER_MINUTES);
+    }
+
+    private static List<String> trainIds(JourneyPlanner.Itinerary itinerary) {
+        return itinerary.legs().stream().map(leg -> leg.train().getTrainId()).toList();
+    }
+
+    private static Train train(String trainId, String... stationsAndTimes) {
+        List<String> stations = new ArrayList<>();
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < stationsAndTimes.length; i += 2) {
+            stations.add(stationsAndTimes[i]);
+            times.put(stationsAndTimes[i], stationsAndTimes[i + 1] + ":00");
+        }
+        return new Train(trainId, "1", null, null, List.of(Arrays.asList(0)), times, stations);
+    }
+}
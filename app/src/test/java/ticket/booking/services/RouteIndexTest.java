@@ -0,0 +1,83 @@
+package ticket.booking.services;
+
+import org.junit.Test;
+import ticket.booking.entities.Train;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RouteIndexTest {
+
+    private static final Train NORTH = train("North-1", "a", "b", "c");
+    private static final Train SOUTH = train("south-1", "c", "b", "a");
+    private static final Train LOOP = train("loop", "a", "b", "a", "d");
+
+    @Test
+    public void searchKeepsTrainsCallingAtTheSourceBeforeTheDestination() {
+        RouteIndex index = new RouteIndex(List.of(NORTH, SOUTH, LOOP));
+
+        assertEquals(List.of(NORTH, LOOP), index.search("a", "b"));
+        assertEquals(List.of(SOUTH), index.search(" C ", "A"));
+        assertEquals(List.of(LOOP), index.search("a", "d"));
+        assertEquals(List.of(SOUTH, LOOP), index.search("b", "a"));
+        assertTrue(index.search("a", "a").isEmpty());
+        assertTrue(index.search("b", "b").isEmpty());
+        assertTrue(index.search("a", "nowhere").isEmpty());
+    }
+
+    @Test
+    public void loopIsBookedToTheNextCallAfterTheSource() {
+        assertEquals(LOOP.getSeatInventory().legMask(1, 2), LOOP.legMask("b", "a"));
+        assertEquals(LOOP.getSeatInventory().legMask(0, 3), LOOP.legMask("a", "d"));
+        assertEquals(0, LOOP.legMask("a", "a"));
+        assertEquals(0, LOOP.legMask("d", "b"));
+    }
+
+    @Test
+    public void catalogPositionsFollowReplacementsAndAdditions() {
+        RouteIndex index = new RouteIndex(List.of(NORTH, SOUTH));
+        RouteIndex updated = index.withTrain(train("SOUTH-1", "c", "a")).withTrain(LOOP);
+
+        assertEquals(1, updated.position("south-1"));
+        assertEquals(2, updated.position("loop"));
+        assertEquals(-1, index.position("loop"));
+        assertEquals(List.of(LOOP), updated.search("b", "a"));
+        assertEquals(List.of(SOUTH), index.search("b", "a"));
+        assertEquals(List.of(NORTH), updated.search("b", "c"));
+    }
+
+    @Test
+    public void trainsAreFoundByIdInAnyCase() {
+        RouteIndex index = new RouteIndex(List.of(NORTH));
+
+        assertSame(NORTH, index.get("north-1"));
+        assertTrue(index.contains(" NORTH-1"));
+        assertNull(index.get("south-1"));
+    }
+
+    @Test
+    public void replacingATrainMovesItsPostingsAndLeavesTheOldIndexAlone() {
+        RouteIndex index = new RouteIndex(List.of(NORTH, SOUTH));
+        Train rerouted = train("north-1", "a", "d");
+
+        RouteIndex updated = index.withTrain(rerouted);
+
+        assertEquals(List.of(SOUTH), updated.search("b", "a"));
+        assertTrue(updated.search("a", "c").isEmpty());
+        assertEquals(List.of(rerouted), updated.search("a", "d"));
+        assertSame(rerouted, updated.get("NORTH-1"));
+
+        assertEquals(List.of(NORTH), index.search("a", "c"));
+        assertTrue(index.search("a", "d").isEmpty());
+        assertSame(NORTH, index.get("north-1"));
+    }
+
+    private static Train train(String trainId, String... stations) {
+        return new Train(trainId, "1", null, null, List.of(Arrays.asList(0)), null, List.of(stations));
+    }
+}
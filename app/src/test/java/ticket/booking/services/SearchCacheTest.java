@@ -0,0 +1,109 @@
+package ticket.booking.services;
+
+import org.junit.Test;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Train;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchCacheTest {
+
+    private static final LocalDate DAY_ONE = LocalDate.of(2030, 1, 1);
+    private static final LocalDate DAY_TWO = DAY_ONE.plusDays(1);
+
+    private final Train train = new Train("t1", "1", null, null,
+            List.of(Arrays.asList(0, 0, 0), Arrays.asList(0, 0)), null, List.of("a", "b", "c"));
+    private final Map<LocalDate, SeatInventory> journeys = new HashMap<>();
+    private final AtomicInteger routeLookups = new AtomicInteger();
+
+    private SeatInventory journey(Train train, LocalDate date) {
+        return journeys.computeIfAbsent(date, d -> train.getSeatInventory().copy());
+    }
+
+    private List<SearchCache.Availability> search(SearchCache cache, String source, String destination,
+                                                  LocalDate date) {
+        return cache.get(SearchCache.Key.of(source, destination, date), () -> {
+            routeLookups.incrementAndGet();
+            return List.of(train);
+        });
+    }
+
+    @Test
+    public void bookingRecountsOnlyTheLegsItTouches() {
+        SearchCache cache = new SearchCache(this::journey);
+        assertEquals(5, search(cache, "a", "c", DAY_ONE).get(0).freeSeats());
+        assertEquals(5, search(cache, "b", "c", DAY_ONE).get(0).freeSeats());
+
+        journey(train, DAY_ONE).tryReserve(1, 0, train.legMask("a", "b"));
+
+        SearchCache.Availability whole = search(cache, "a", "c", DAY_ONE).get(0);
+        assertEquals(4, whole.freeSeats());
+        assertEquals(List.of(3, 1), whole.freeSeatsByCoach());
+        assertEquals(5, search(cache, "b", "c", DAY_ONE).get(0).freeSeats());
+        assertEquals(2, routeLookups.get());
+
+        journey(train, DAY_ONE).release(1, 0, train.legMask("a", "b"));
+        assertEquals(List.of(3, 2), search(cache, "a", "c", DAY_ONE).get(0).freeSeatsByCoach());
+    }
+
+    @Test
+    public void datesAreCachedAndCountedSeparately() {
+        SearchCache cache = new SearchCache(this::journey);
+        search(cache, "a", "c", DAY_ONE);
+        search(cache, "a", "c", DAY_TWO);
+
+        journey(train, DAY_TWO).tryReserve(0, 2, train.legMask("a", "c"));
+
+        assertEquals(5, search(cache, "a", "c", DAY_ONE).get(0).freeSeats());
+        assertEquals(List.of(2, 2), search(cache, "a", "c", DAY_TWO).get(0).freeSeatsByCoach());
+        assertEquals(2, cache.size());
+        assertEquals(2, routeLookups.get());
+    }
+
+    @Test
+    public void replacedInventoryIsRecounted() {
+        SearchCache cache = new SearchCache(this::journey);
+        search(cache, "a", "c", DAY_ONE);
+
+        SeatInventory replaced = train.getSeatInventory().copy();
+        replaced.tryReserve(0, 0, train.legMask("a", "c"));
+        journeys.put(DAY_ONE, replaced);
+
+        assertEquals(4, search(cache, "a", "c", DAY_ONE).get(0).freeSeats());
+    }
+
+    @Test
+    public void routeChangeEvictsOnlyThePairsEitherVersionServes() {
+        SearchCache cache = new SearchCache(this::journey);
+        search(cache, "a", "b", DAY_ONE);
+        search(cache, "x", "y", DAY_ONE);
+
+        Train shortened = new Train("t1", "1", null, null, List.of(Arrays.asList(0)), null, List.of("a", "c"));
+        cache.invalidateRoute(train, shortened);
+
+        assertEquals(1, cache.size());
+        search(cache, "a", "b", DAY_ONE);
+        search(cache, "x", "y", DAY_ONE);
+        assertEquals(3, routeLookups.get());
+    }
+
+    @Test
+    public void overflowEvictsTheLeastRecentlyRead() {
+        SearchCache cache = new SearchCache(this::journey, 10);
+        search(cache, "a", "c", DAY_ONE);
+        for (int i = 0; i < 50; i++) {
+            cache.get(SearchCache.Key.of("x" + i, "y", DAY_ONE), List::of);
+            search(cache, "a", "c", DAY_ONE);
+        }
+        assertTrue(cache.size() <= 10);
+        assertEquals(1, routeLookups.get());
+    }
+}
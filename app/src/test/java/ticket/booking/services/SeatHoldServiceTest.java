@@ -0,0 +1,78 @@
+package ticket.booking.services;
+
+import org.junit.After;
+import org.junit.Test;
+import ticket.booking.entities.SeatInventory;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeatHoldServiceTest {
+
+    private static final long LEG = 0b11;
+    private static final List<SeatInventory.Seat> SEATS = List.of(new SeatInventory.Seat(0, 0),
+            new SeatInventory.Seat(0, 1));
+
+    private final SeatInventory inventory = new SeatInventory(new int[] {4}, 2);
+    private final List<String> released = new CopyOnWriteArrayList<>();
+    private final SeatHoldService holds = new SeatHoldService(50, TimeUnit.MILLISECONDS, (hold, seat) -> {
+        released.add(Thread.currentThread().getName());
+        hold.inventory().releaseHold(seat.row(), seat.seat(), hold.leg());
+    });
+
+    @After
+    public void tearDown() {
+        holds.close();
+    }
+
+    private SeatHoldService.Hold hold() {
+        return holds.hold("u1", null, LocalDate.now(), inventory, SEATS, "a", "c", LEG).orElseThrow();
+    }
+
+    @Test
+    public void expiredHoldGivesItsSeatsBackOffTheWheelThread() throws InterruptedException {
+        SeatHoldService.Hold hold = hold();
+        assertFalse(inventory.isFree(0, 0, LEG));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (released.size() < SEATS.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("seat-hold-release", "seat-hold-release"), released);
+        assertTrue(inventory.isFree(0, 0, LEG) && inventory.isFree(0, 1, LEG));
+        assertEquals(0, holds.size());
+        assertTrue(hold.expiry().isExpired());
+        assertFalse(holds.take(hold.holdId(), "u1").isPresent());
+    }
+
+    @Test
+    public void confirmedHoldCancelsItsExpiry() throws InterruptedException {
+        SeatHoldService.Hold hold = holds.take(hold().holdId(), "u1").orElseThrow();
+        holds.completeHold(hold);
+        Thread.sleep(300);
+
+        assertTrue(hold.expiry().isCancelled());
+        assertFalse(hold.expiry().isExpired());
+        assertEquals(List.of(), released);
+        assertEquals(LEG, inventory.getBookedLegs(0, 0));
+    }
+
+    @Test
+    public void releasedHoldCancelsItsExpiryAndFreesEachSeatOnce() throws InterruptedException {
+        SeatHoldService.Hold hold = hold();
+        assertFalse(holds.release(hold.holdId(), "u2"));
+        assertTrue(holds.release(hold.holdId(), "u1"));
+        Thread.sleep(300);
+
+        assertTrue(hold.expiry().isCancelled());
+        assertEquals(SEATS.size(), released.size());
+        assertTrue(inventory.isFree(0, 0, LEG) && inventory.isFree(0, 1, LEG));
+    }
+}
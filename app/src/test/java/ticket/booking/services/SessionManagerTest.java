@@ -0,0 +1,84 @@
+package ticket.booking.services;
+
+import org.junit.Test;
+import ticket.booking.entities.User;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionManagerTest {
+
+    @Test
+    public void eachLookupSlidesTheTimeout() throws InterruptedException {
+        SessionManager sessions = new SessionManager(500, TimeUnit.MILLISECONDS, 10);
+        String token = sessions.create("u1");
+
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(300);
+            assertEquals(Optional.of("u1"), sessions.resolve(token));
+        }
+        Thread.sleep(700);
+
+        assertEquals(Optional.empty(), sessions.resolve(token));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsEvictedAtCapacity() {
+        SessionManager sessions = new SessionManager(1, TimeUnit.HOURS, 2);
+        String first = sessions.create("u1");
+        String second = sessions.create("u2");
+        assertTrue(sessions.resolve(first).isPresent());
+
+        String third = sessions.create("u3");
+
+        assertEquals(2, sessions.size());
+        assertEquals(Optional.of("u1"), sessions.resolve(first));
+        assertEquals(Optional.empty(), sessions.resolve(second));
+        assertEquals(Optional.of("u3"), sessions.resolve(third));
+        assertEquals(Optional.empty(), sessions.resolve("unknown"));
+        assertEquals(Optional.empty(), sessions.resolve(null));
+    }
+
+    @Test
+    public void logoutInvalidatesTheSession() throws IOException {
+        Path dataDir = Files.createTempDirectory("sessions");
+        Files.writeString(dataDir.resolve("trains.json"), "[]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        BookingContext context = BookingContext.forDirectory(dataDir);
+        try {
+            new UserBookingService(null, context).signUp(new User("ann", null,
+                    UserServiceUtil.hashPassword("secret", 4), new ArrayList<>(), "id-ann"));
+            UserBookingService session = new UserBookingService(new User("ann", "secret", null, null, null), context);
+            assertTrue(session.loginUser());
+            String token = session.getSessionToken();
+            assertEquals("id-ann", UserBookingService.forSession(token, context).orElseThrow().getUser().getUserId());
+
+            session.logout();
+
+            assertNull(session.getSessionToken());
+            assertFalse(UserBookingService.forSession(token, context).isPresent());
+            assertEquals(0, context.getSessionManager().size());
+            assertFalse(session.cancelBooking("any-ticket"));
+        } finally {
+            context.close();
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ticket.booking.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ticket.booking.entities.SeatInventory;
+import ticket.booking.entities.Ticket;
+import ticket.booking.entities.Train;
+import ticket.booking.entities.User;
+import ticket.booking.persistence.UserRepository;
+import ticket.booking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Waitlist promotion when booked seats are given back: who gets a freed seat, what happens when the
+ * promoted ticket cannot be written, and that a seat freed while others try to book it goes to the
+ * waiting requests, each exactly once.
+ */
+public class WaitlistServiceTest {
+
+    private static final int SEATS = 4;
+    private static final LocalDate DATE = LocalDate.now().plusDays(1);
+
+    private Path dataDir;
+    private BookingContext context;
+    private Train train;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("waitlist");
+        Files.writeString(dataDir.resolve("trains.json"), "[{\"train_id\":\"w\",\"train_no\":\"1\",\"seats\":"
+                + "[[0,0,0,0]],\"station_times\":{\"a\":\"10:00:00\",\"b\":\"11:00:00\",\"c\":\"12:00:00\","
+                + "\"d\":\"13:00:00\"},\"stations\":[\"a\",\"b\",\"c\",\"d\"]}]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        context = new BookingContext(dataDir.resolve("trains.json").toString(),
+                dataDir.resolve("users.json").toString());
+        train = context.getTrainService().getTrain("w");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void freedSeatGoesToTheBestRequestsThatFit() throws IOException {
+        UserBookingService holder = login("holder");
+        Ticket booked = holder.bookSeat(train, DATE, 0, 0, "a", "d").orElseThrow();
+        login("u1");
+        login("u2");
+        login("u3");
+        WaitlistService waitlist = context.getWaitlistService();
+        WaitlistService.Entry shortLow = waitlist.join("id-u1", train, DATE, "a", "b", 2);
+        WaitlistService.Entry longHigh = waitlist.join("id-u2", train, DATE, "a", "c", 1);
+        WaitlistService.Entry tail = waitlist.join("id-u3", train, DATE, "c", "d", 5);
+
+        assertTrue(holder.cancelBooking(booked.getTicketId()));
+
+        assertEquals(List.of("a-c"), legsOf("id-u2"));
+        assertEquals(List.of("c-d"), legsOf("id-u3"));
+        assertEquals(List.of(), legsOf("id-u1"));
+        assertEquals(1, waitlist.size("w", DATE));
+        assertTrue(waitlist.find(shortLow.entryId()).isPresent());
+        assertFalse(waitlist.find(longHigh.entryId()).isPresent());
+        assertFalse(waitlist.find(tail.entryId()).isPresent());
+        SeatInventory inventory = context.getTrainService().inventory(train, DATE);
+        assertEquals(inventory.fullRunMask(), inventory.getLegs(0, 0));
+    }
+
+    @Test
+    public void entriesAreFoundByIdUntilTheyLeave() throws IOException {
+        login("u1");
+        WaitlistService waitlist = context.getWaitlistService();
+        WaitlistService.Entry entry = waitlist.join("id-u1", train, DATE, "a", "c", 0);
+
+        assertEquals(entry, waitlist.find(entry.entryId()).orElseThrow());
+        assertFalse(waitlist.leave("w", DATE, entry.entryId(), "id-u2"));
+        assertTrue(waitlist.leave("w", DATE, entry.entryId(), "id-u1"));
+        assertFalse(waitlist.find(entry.entryId()).isPresent());
+        assertFalse(waitlist.find("unknown").isPresent());
+    }
+
+    @Test
+    public void failedTicketWriteRequeuesTheRequestAndFreesTheSeat() throws IOException {
+        login("u1");
+        UserRepository repository = context.getUserRepository();
+        JourneyInventory journeys = context.getTrainService().getJourneyInventory();
+        WaitlistService waitlist = new WaitlistService(repository, journeys);
+        SeatInventory inventory = journeys.forDate(train, DATE);
+        assertTrue(inventory.tryReserve(0, 1, train.legMask("a", "d")));
+        WaitlistService.Entry entry = waitlist.join("id-u1", train, DATE, "a", "d", 0);
+        repository.close();
+
+        try {
+            waitlist.releaseSeat(train, DATE, 0, 1, "a", "d");
+            fail("the promoted ticket cannot be journaled");
+        } catch (IOException expected) {
+            // the journal is closed
+        }
+
+        assertEquals(entry, waitlist.find(entry.entryId()).orElseThrow());
+        assertEquals(1, waitlist.size("w", DATE));
+        assertEquals(0, inventory.getLegs(0, 1));
+    }
+
+    @Test
+    public void requestOfAnUnknownUserIsDroppedAndTheSeatFreed() throws IOException {
+        WaitlistService waitlist = context.getWaitlistService();
+        SeatInventory inventory = context.getTrainService().inventory(train, DATE);
+        assertTrue(inventory.tryReserve(0, 2, train.legMask("a", "d")));
+        WaitlistService.Entry ghost = waitlist.join("ghost", train, DATE, "b", "c", 0);
+
+        assertEquals(List.of(), waitlist.releaseSeat(train, DATE, 0, 2, "a", "d"));
+
+        assertFalse(waitlist.find(ghost.entryId()).isPresent());
+        assertEquals(0, inventory.getLegs(0, 2));
+    }
+
+    @Test
+    public void seatsFreedUnderContentionGoToTheFirstWaitersExactlyOnce() throws Exception {
+        UserBookingService holder = login("holder");
+        List<Ticket> booked = new ArrayList<>();
+        for (int seat = 0; seat < SEATS; seat++) {
+            booked.add(holder.bookSeat(train, DATE, 0, seat, "a", "d").orElseThrow());
+        }
+        List<String> waiters = new ArrayList<>();
+        for (int i = 0; i < 2 * SEATS; i++) {
+            UserBookingService waiter = login("waiter" + i);
+            assertTrue(waiter.joinWaitlist(train, DATE, "a", "d").isPresent());
+            waiters.add("id-waiter" + i);
+        }
+        List<UserBookingService> snipers = new ArrayList<>();
+        for (int i = 0; i < SEATS; i++) {
+            snipers.add(login("sniper" + i));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2 * SEATS);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < SEATS; i++) {
+            Ticket ticket = booked.get(i);
+            UserBookingService sniper = snipers.get(i);
+            tasks.add(executor.submit(() -> {
+                start.await();
+                return holder.cancelBooking(ticket.getTicketId());
+            }));
+            tasks.add(executor.submit(() -> {
+                start.await();
+                for (int attempt = 0; attempt < 200; attempt++) {
+                    sniper.bookSeat(train, DATE, 0, attempt % SEATS, "a", "d");
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+
+        boolean[] taken = new boolean[SEATS];
+        for (int i = 0; i < waiters.size(); i++) {
+            List<Ticket> tickets = context.getUserRepository().findById(waiters.get(i)).orElseThrow()
+                    .getTicketsBooked();
+            assertEquals("tickets of " + waiters.get(i), i < SEATS ? 1 : 0, tickets.size());
+            for (Ticket ticket : tickets) {
+                assertFalse("seat " + ticket.getSeat() + " promoted twice", taken[ticket.getSeat()]);
+                taken[ticket.getSeat()] = true;
+            }
+        }
+        for (int i = 0; i < SEATS; i++) {
+            assertEquals(List.of(), context.getUserRepository().findById("id-sniper" + i).orElseThrow()
+                    .getTicketsBooked());
+        }
+        assertEquals(SEATS, context.getWaitlistService().size("w", DATE));
+        SeatInventory inventory = context.getTrainService().inventory(train, DATE);
+        assertEquals(0, inventory.freeSeatCount(inventory.fullRunMask()));
+    }
+
+    private UserBookingService login(String name) throws IOException {
+        new UserBookingService(null, context).signUp(new User(name, null,
+                UserServiceUtil.hashPassword("secret", 4), new ArrayList<>(), "id-" + name));
+        UserBookingService session = new UserBookingService(new User(name, "secret", null, null, null), context);
+        assertTrue(session.loginUser());
+        return session;
+    }
+
+    private List<String> legsOf(String userId) throws IOException {
+        List<String> legs = new ArrayList<>();
+        for (Ticket ticket : context.getUserRepository().findById(userId).orElseThrow().getTicketsBooked()) {
+            legs.add(ticket.getSource() + "-" + ticket.getDestination());
+        }
+        return legs;
+    }
+}
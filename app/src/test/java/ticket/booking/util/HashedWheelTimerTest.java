@@ -0,0 +1,73 @@
+package ticket.booking.util;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+    @Test
+    public void timeoutsFireInDeadlineOrder() throws InterruptedException {
+        List<Integer> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        try (HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, TimeUnit.MILLISECONDS, 64, Runnable::run)) {
+            for (int delay : new int[] {120, 20, 60}) {
+                timer.schedule(() -> {
+                    fired.add(delay);
+                    done.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of(20, 60, 120), fired);
+    }
+
+    @Test
+    public void deadlineBeyondOneRevolutionWaitsForItsRound() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        try (HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, TimeUnit.MILLISECONDS, 4, Runnable::run)) {
+            HashedWheelTimer.Timeout timeout = timer.schedule(done::countDown, 150, TimeUnit.MILLISECONDS);
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+            assertTrue(timeout.isExpired());
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void cancelledTimeoutNeverRuns() throws InterruptedException {
+        CountDownLatch later = new CountDownLatch(1);
+        List<String> fired = new CopyOnWriteArrayList<>();
+        try (HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, TimeUnit.MILLISECONDS, 64, Runnable::run)) {
+            HashedWheelTimer.Timeout cancelled = timer.schedule(() -> fired.add("cancelled"), 30, TimeUnit.MILLISECONDS);
+            timer.schedule(later::countDown, 80, TimeUnit.MILLISECONDS);
+            cancelled.cancel();
+            assertTrue(later.await(2, TimeUnit.SECONDS));
+            assertTrue(cancelled.isCancelled());
+            assertFalse(cancelled.isExpired());
+        }
+        assertEquals(List.of(), fired);
+    }
+
+    @Test
+    public void dueTasksRunOnTheExecutor() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        try (HashedWheelTimer timer = new HashedWheelTimer("test-wheel", 10, TimeUnit.MILLISECONDS, 64,
+                task -> new Thread(task, "test-expiry").start())) {
+            timer.schedule(() -> {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            }, 10, TimeUnit.MILLISECONDS);
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("test-expiry"), threads);
+    }
+}
@@ -0,0 +1,90 @@
+package ticket.booking.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonRecordLoaderTest {
+
+    public record Station(String name, int platforms) {}
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Path dataDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("records");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void malformedRecordsAreSkippedAndTheRestLoaded() throws IOException {
+        List<Station> stations = new ArrayList<>();
+
+        JsonRecordLoader.Result result = load("[{\"name\":\"a\",\"platforms\":2}, 7, {\"name\":\"b\",\"platforms\":\"many\"},"
+                + " [1], {\"name\":\"c\",\"platforms\":1}]", stations);
+
+        assertEquals(new JsonRecordLoader.Result(2, 3), result);
+        assertEquals(List.of(new Station("a", 2), new Station("c", 1)), stations);
+    }
+
+    @Test
+    public void truncatedFileKeepsTheRecordsReadBeforeTheEnd() throws IOException {
+        List<Station> stations = new ArrayList<>();
+
+        JsonRecordLoader.Result result = load("[{\"name\":\"a\",\"platforms\":2}, {\"name\":\"b\",\"plat", stations);
+
+        assertEquals(new JsonRecordLoader.Result(1, 0), result);
+        assertEquals(List.of(new Station("a", 2)), stations);
+    }
+
+    @Test
+    public void fileWithoutAnArrayIsRejected() throws IOException {
+        List<Station> stations = new ArrayList<>();
+        try {
+            load("{\"name\":\"a\",\"platforms\":2}", stations);
+            fail("a single object is not a record list");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("JSON array"));
+        }
+        assertTrue(stations.isEmpty());
+    }
+
+    @Test
+    public void missingAndEmptyFilesLoadNoRecords() throws IOException {
+        List<Station> stations = new ArrayList<>();
+
+        assertEquals(new JsonRecordLoader.Result(0, 0), JsonRecordLoader.load(dataDir.resolve("none.json").toFile(),
+                MAPPER, Station.class, stations::add));
+        assertEquals(new JsonRecordLoader.Result(0, 0), load("", stations));
+        assertTrue(stations.isEmpty());
+    }
+
+    private JsonRecordLoader.Result load(String json, List<Station> sink) throws IOException {
+        Path file = dataDir.resolve("stations.json");
+        Files.writeString(file, json);
+        return JsonRecordLoader.load(file.toFile(), MAPPER, Station.class, sink::add);
+    }
+}
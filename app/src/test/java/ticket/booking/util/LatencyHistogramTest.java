@@ -0,0 +1,59 @@
+package ticket.booking.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    /** The bucket of {@link Long#MAX_VALUE}, the last one a value can fall into. */
+    private static final int LAST_BUCKET = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+
+    @Test
+    public void bucketBoundsRoundTrip() {
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LAST_BUCKET));
+        for (int bucket = 0; bucket <= LAST_BUCKET; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertEquals("upper bound of " + bucket, bucket, LatencyHistogram.bucketOf(upper));
+            if (bucket < LAST_BUCKET) {
+                assertEquals("value after bucket " + bucket, bucket + 1, LatencyHistogram.bucketOf(upper + 1));
+            }
+        }
+    }
+
+    @Test
+    public void everyValueIsWithinItsBucketsRelativeError() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue(value + " above " + upper, value <= upper);
+            assertTrue(value + " reported as " + upper, value < 32 ? upper == value : upper - value <= value / 32);
+        }
+    }
+
+    @Test
+    public void percentilesAreBoundedByTheBucketAndTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileNanos(0.99));
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        histogram.recordNanos(-5);
+
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertEquals(0, histogram.percentileNanos(0));
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long exact = (long) Math.ceil(quantile * 1001) - 1;
+            long reported = histogram.percentileNanos(quantile);
+            assertTrue(quantile + ": " + reported, reported >= exact * 1000 && reported <= exact * 1000 * 33 / 32);
+        }
+        assertEquals(1_000_000, histogram.percentileNanos(1.0));
+        assertEquals(1000.0, histogram.percentile(1.0, TimeUnit.MICROSECONDS), 0.0);
+    }
+}
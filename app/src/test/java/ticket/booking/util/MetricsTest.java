@@ -0,0 +1,109 @@
+package ticket.booking.util;
+
+import org.junit.Test;
+import ticket.booking.http.BookingHttpServer;
+import ticket.booking.services.BookingContext;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The same values through both outlets: the JMX attributes and the text listing served at
+ * {@code GET /metrics}. Metrics are process-wide, so every test uses names of its own.
+ */
+public class MetricsTest {
+
+    @Test
+    public void mbeanExposesEveryValueAsAnAttribute() throws Exception {
+        Metrics.counter("test.mbean.requests").add(3);
+        Metrics.histogram("test.mbean.latency").recordNanos(TimeUnit.MICROSECONDS.toNanos(250));
+        Metrics.gauge("test.mbean.queue", () -> 1.5);
+        Metrics.registerMBean();
+        Metrics.registerMBean();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ticket.booking:type=Metrics");
+        assertEquals(3L, server.getAttribute(name, "test.mbean.requests"));
+        assertEquals(1L, server.getAttribute(name, "test.mbean.latency.count"));
+        assertEquals(250.0, (Double) server.getAttribute(name, "test.mbean.latency.max_us"), 0.0);
+        assertEquals(1.5, (Double) server.getAttribute(name, "test.mbean.queue"), 0.0);
+        Metrics.counter("test.mbean.requests").increment();
+        assertEquals(4L, server.getAttribute(name, "test.mbean.requests"));
+
+        List<String> attributes = Arrays.stream(server.getMBeanInfo(name).getAttributes())
+                .map(MBeanAttributeInfo::getName).toList();
+        assertTrue(attributes.containsAll(List.of("test.mbean.requests", "test.mbean.latency.p99_us",
+                "test.mbean.queue")));
+        try {
+            server.getAttribute(name, "test.mbean.unknown");
+            fail("there is no such metric");
+        } catch (AttributeNotFoundException expected) {
+            // reported as missing
+        }
+        Metrics.removeGauge("test.mbean.queue");
+        assertTrue(server.getAttributes(name, new String[] {"test.mbean.queue"}).isEmpty());
+    }
+
+    @Test
+    public void metricsEndpointListsOneValuePerLine() throws Exception {
+        Metrics.counter("test.http.requests").add(7);
+        Metrics.histogram("test.http.latency").recordNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        Metrics.gauge("test.http.ratio", () -> 0.25);
+
+        Path dataDir = Files.createTempDirectory("metrics");
+        Files.writeString(dataDir.resolve("trains.json"), "[]");
+        Files.writeString(dataDir.resolve("users.json"), "[]");
+        BookingContext context = BookingContext.forDirectory(dataDir);
+        BookingHttpServer server = new BookingHttpServer(context, 0);
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/metrics");
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            List<String> lines = response.body().lines().toList();
+            assertTrue(lines.contains("test.http.requests 7"));
+            assertTrue(lines.contains("test.http.latency.count 1"));
+            assertTrue(lines.contains("test.http.latency.max_us 2000.000"));
+            assertTrue(lines.contains("test.http.ratio 0.250"));
+            for (String line : lines) {
+                assertEquals(line, 2, line.split(" ").length);
+            }
+            List<String> sorted = lines.stream().sorted().toList();
+            assertEquals(sorted, lines);
+
+            HttpResponse<String> post = client.send(HttpRequest.newBuilder(uri)
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, post.statusCode());
+        } finally {
+            server.stop();
+            context.close();
+            Metrics.removeGauge("test.http.ratio");
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
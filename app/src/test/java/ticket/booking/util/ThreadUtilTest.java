@@ -0,0 +1,45 @@
+package ticket.booking.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadUtilTest {
+
+    @Test
+    public void platformFallbackQueuesTasksBeyondItsThreads() throws Exception {
+        ExecutorService executor = ThreadUtil.newBoundedExecutor(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(executor.submit(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+
+        Thread.sleep(100);
+        assertEquals(2, ((ThreadPoolExecutor) executor).getPoolSize());
+        release.countDown();
+        for (Future<?> task : tasks) {
+            task.get(5, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, peak.get());
+    }
+}